@@ -0,0 +1,29 @@
+package edu.uw.cs;
+
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs the benchmarks with allocation profiling: every result is reported
+ * with the bytes allocated per operation and the GC activity it caused.
+ * Benchmarks that need the database only run when named.
+ *
+ * Usage: java -jar target/benchmarks.jar [JMH options]
+ */
+public class BenchmarkMain {
+  // Benchmarks left out unless included by name
+  private static final String[] NEED_DATABASE = { DatabaseSearchBenchmark.class.getSimpleName() };
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions commandLine = new CommandLineOptions(args);
+    ChainedOptionsBuilder builder = new OptionsBuilder()
+        .parent(commandLine)
+        .addProfiler(GCProfiler.class);
+    if (commandLine.getIncludes().isEmpty()) {
+      for (String name : NEED_DATABASE)
+        builder.exclude(name);
+    }
+    new Runner(builder.build()).run();
+  }
+}
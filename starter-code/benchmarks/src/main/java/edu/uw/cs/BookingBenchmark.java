@@ -0,0 +1,75 @@
+package edu.uw.cs;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/**
+ * {@code transaction_book} and {@code transaction_pay}. A user can book only
+ * once a day, so each iteration starts from cleared tables with a batch of
+ * fresh users who have searched for the same roomy flight; the book benchmark
+ * books it for each of them in turn, and the pay benchmark pays for bookings
+ * made during setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, batchSize = BookingBenchmark.USERS)
+@Measurement(iterations = 10, batchSize = BookingBenchmark.USERS)
+@Fork(1)
+public class BookingBenchmark {
+  static final int USERS = 1000;
+
+  @Param({ "10000", "100000" })
+  public int flights;
+
+  private MemoryStorage storage;
+  private FlightTransactions transactions;
+  private long[] itineraries;
+  private final Session[] sessions = new Session[USERS];
+  private final int[] reservationIds = new int[USERS];
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    FlightTable table = FlightTable.getDefault();
+    storage = SyntheticFlights.storage(table, flights);
+    // Booked by every user, so it never fills up
+    int roomy = table.put(flights + 1, 1, "AA", "1", SyntheticFlights.city(0), SyntheticFlights.city(1), 100,
+        Integer.MAX_VALUE, 500);
+    transactions = SyntheticFlights.transactions(storage);
+    itineraries = new long[] { Itinerary.direct(roomy) };
+    for (int i = 0; i < USERS; i++)
+      sessions[i] = new Session();
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpIteration(BenchmarkParams params) throws Exception {
+    transactions.clearTables();
+    for (int i = 0; i < USERS; i++) {
+      storage.createUser("user" + i, "password", 1000000);
+      sessions[i].logIn("user" + i);
+      sessions[i].setItineraries(itineraries);
+    }
+    next = 0;
+
+    // The pay benchmark needs a booking to pay for, and its reservation ID
+    if (params.getBenchmark().endsWith(".pay")) {
+      for (int i = 0; i < USERS; i++) {
+        String booked = transactions.transaction_book(sessions[i], 0);
+        reservationIds[i] = Integer.parseInt(booked.substring(booked.lastIndexOf(' ') + 1).trim());
+      }
+    }
+  }
+
+  @Benchmark
+  public String book() {
+    return transactions.transaction_book(sessions[next++], 0);
+  }
+
+  @Benchmark
+  public String pay() {
+    int i = next++;
+    return transactions.transaction_pay(sessions[i], reservationIds[i]);
+  }
+}
@@ -0,0 +1,61 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Splitting command lines into tokens and dispatching them to their handlers,
+ * with handlers that do no storage work
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+  private static final String SEARCH = "search City00 City01 0 1 10";
+
+  private final CommandTokenizer tokenizer = new CommandTokenizer();
+  private final StringBuilder out = new StringBuilder();
+  private Query query;
+
+  @Setup
+  public void setUp() {
+    query = new Query(SyntheticFlights.transactions(new MemoryStorage(FlightTable.getDefault(), new int[0])));
+  }
+
+  @Benchmark
+  public int tokenize() {
+    return tokenizer.reset(SEARCH);
+  }
+
+  // Known command answered without touching the storage
+  @Benchmark
+  public StringBuilder dispatch() throws IOException {
+    out.setLength(0);
+    FlightService.execute(query, "reservations", out);
+    return out;
+  }
+
+  @Benchmark
+  public StringBuilder dispatchUnknown() throws IOException {
+    out.setLength(0);
+    FlightService.execute(query, "fly City00 City01", out);
+    return out;
+  }
+
+  // Every argument parsed, then refused for the negative count
+  @Benchmark
+  public StringBuilder dispatchSearch() throws IOException {
+    out.setLength(0);
+    FlightService.execute(query, "search City00 City01 0 1 -1", out);
+    return out;
+  }
+
+  @Benchmark
+  public String dispatchToString() {
+    return FlightService.execute(query, "reservations");
+  }
+}
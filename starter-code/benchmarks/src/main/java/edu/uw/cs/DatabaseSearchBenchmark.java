@@ -0,0 +1,73 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The SQL one-hop join against the precomputed CONNECTIONS table and the
+ * in-memory flight graph, all over the full FLIGHTS table of the database in
+ * dbconn.properties. CONNECTIONS must have been built with ConnectionsTable.
+ * Only run when named, from the directory holding dbconn.properties:
+ * {@code java -jar benchmarks/target/benchmarks.jar DatabaseSearch}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DatabaseSearchBenchmark {
+  @Param({ "Seattle WA" })
+  public String origin;
+
+  @Param({ "Boston MA", "Kahului HI" })
+  public String dest;
+
+  @Param({ "10", "100" })
+  public int count;
+
+  private static final int DAY = 15;
+
+  private JdbcStorage storage;
+  private JdbcStorage connections;
+  private FlightIndex index;
+
+  @Setup
+  public void setUp() throws IOException, SQLException {
+    storage = new JdbcStorage(ConnectionPool.getDefault(), TransactionRunner.getDefault());
+    connections = new JdbcStorage(ConnectionPool.getDefault(), TransactionRunner.getDefault(), false, 0, true);
+    index = FlightIndex.getLoaded(ConnectionPool.getDefault());
+  }
+
+  @TearDown
+  public void tearDown() {
+    storage.close();
+  }
+
+  @Benchmark
+  public long[] sqlOneHop() throws SQLException {
+    return storage.search(origin, dest, false, DAY, count);
+  }
+
+  @Benchmark
+  public long[] connectionsOneHop() throws SQLException {
+    return connections.search(origin, dest, false, DAY, count);
+  }
+
+  @Benchmark
+  public long[] indexOneHop() throws SQLException {
+    return index.search(origin, dest, false, DAY, count);
+  }
+
+  @Benchmark
+  public long[] multiHopOneConnection() {
+    return index.multiHop(origin, dest, DAY, 2, count);
+  }
+
+  @Benchmark
+  public long[] multiHopTwoConnections() {
+    return index.multiHop(origin, dest, DAY, 3, count);
+  }
+}
@@ -0,0 +1,46 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Multi-hop searches on the in-memory flight graph over generated flights,
+ * against the one-hop search of the same index
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiHopSearchBenchmark {
+  @Param({ "10000", "100000" })
+  public int flights;
+
+  @Param({ "10", "100" })
+  public int count;
+
+  private FlightIndex index;
+
+  @Setup
+  public void setUp() {
+    FlightTable table = FlightTable.getDefault();
+    index = new FlightIndex(table, SyntheticFlights.generate(table, flights));
+  }
+
+  @Benchmark
+  public long[] oneHop() throws SQLException {
+    return index.search(SyntheticFlights.city(0), SyntheticFlights.city(1), false, 1, count);
+  }
+
+  @Benchmark
+  public long[] multiHopOneConnection() {
+    return index.multiHop(SyntheticFlights.city(0), SyntheticFlights.city(1), 1, 2, count);
+  }
+
+  @Benchmark
+  public long[] multiHopTwoConnections() {
+    return index.multiHop(SyntheticFlights.city(0), SyntheticFlights.city(1), 1, 3, count);
+  }
+}
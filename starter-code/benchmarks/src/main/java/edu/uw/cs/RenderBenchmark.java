@@ -0,0 +1,87 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.concurrent.*;
+import javax.sql.rowset.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Rendering itineraries in the search format, and mapping FLIGHTS rows of a
+ * result set into the flight table
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+  private static final String[] COLUMNS = { "fid", "day_of_month", "carrier_id", "flight_num", "origin_city",
+      "dest_city", "actual_time", "capacity", "price" };
+
+  private final FlightTable flights = FlightTable.getDefault();
+  private final StringBuilder out = new StringBuilder();
+  private long direct;
+  private long oneHop;
+  private CachedRowSet rows;
+
+  @Setup
+  public void setUp() throws SQLException {
+    int[] fids = SyntheticFlights.generate(flights, 2);
+    direct = Itinerary.direct(fids[0]);
+    oneHop = Itinerary.oneHop(fids[0], fids[1]);
+
+    // One row with the columns of a one-hop search, as JdbcStorage reads them
+    RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+    meta.setColumnCount(2 * COLUMNS.length);
+    for (int i = 0; i < 2 * COLUMNS.length; i++) {
+      String column = COLUMNS[i % COLUMNS.length];
+      meta.setColumnName(i + 1, (i < COLUMNS.length ? "F1_" : "F2_") + column);
+      boolean text = column.endsWith("_id") || column.endsWith("_num") || column.endsWith("_city");
+      meta.setColumnType(i + 1, text ? Types.VARCHAR : Types.INTEGER);
+    }
+    rows = RowSetProvider.newFactory().createCachedRowSet();
+    rows.setMetaData(meta);
+    rows.moveToInsertRow();
+    for (int i = 0; i < 2 * COLUMNS.length; i++) {
+      int fid = fids[i / COLUMNS.length];
+      switch (COLUMNS[i % COLUMNS.length]) {
+      case "fid": rows.updateInt(i + 1, fid); break;
+      case "day_of_month": rows.updateInt(i + 1, flights.dayOfMonth(fid)); break;
+      case "carrier_id": rows.updateString(i + 1, flights.carrierId(fid)); break;
+      case "flight_num": rows.updateString(i + 1, flights.flightNum(fid)); break;
+      case "origin_city": rows.updateString(i + 1, flights.originCity(fid)); break;
+      case "dest_city": rows.updateString(i + 1, flights.destCity(fid)); break;
+      case "actual_time": rows.updateInt(i + 1, flights.time(fid)); break;
+      case "capacity": rows.updateInt(i + 1, flights.capacity(fid)); break;
+      default: rows.updateInt(i + 1, flights.price(fid)); break;
+      }
+    }
+    rows.insertRow();
+    rows.moveToCurrentRow();
+    rows.beforeFirst();
+    rows.next();
+  }
+
+  @Benchmark
+  public String directToString() {
+    return Itinerary.toString(flights, direct);
+  }
+
+  @Benchmark
+  public String oneHopToString() {
+    return Itinerary.toString(flights, oneHop);
+  }
+
+  @Benchmark
+  public StringBuilder oneHopAppendTo() throws IOException {
+    out.setLength(0);
+    return Itinerary.appendTo(flights, oneHop, out);
+  }
+
+  @Benchmark
+  public int mapRow() throws SQLException {
+    return flights.put(rows, "F1_") + flights.put(rows, "F2_");
+  }
+}
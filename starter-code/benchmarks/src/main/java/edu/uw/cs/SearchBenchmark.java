@@ -0,0 +1,53 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * {@code transaction_search} over generated flights, for direct and one-hop
+ * searches returning up to {@code count} itineraries
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+  @Param({ "10000", "100000" })
+  public int flights;
+
+  @Param({ "true", "false" })
+  public boolean direct;
+
+  @Param({ "1", "10", "100" })
+  public int count;
+
+  private FlightTransactions transactions;
+
+  @Setup
+  public void setUp() {
+    transactions = SyntheticFlights.transactions(SyntheticFlights.storage(FlightTable.getDefault(), flights));
+  }
+
+  @State(Scope.Thread)
+  public static class Output {
+    final Session session = new Session();
+    final StringBuilder out = new StringBuilder();
+  }
+
+  @Benchmark
+  public StringBuilder search(Output o) throws IOException {
+    o.out.setLength(0);
+    transactions.transaction_search(o.session, o.out, SyntheticFlights.city(0), SyntheticFlights.city(1), direct, 1,
+        count);
+    return o.out;
+  }
+
+  @Benchmark
+  public String searchToString(Output o) {
+    return transactions.transaction_search(o.session, SyntheticFlights.city(0), SyntheticFlights.city(1), direct, 1,
+        count);
+  }
+}
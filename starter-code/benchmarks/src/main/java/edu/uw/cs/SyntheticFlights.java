@@ -0,0 +1,57 @@
+package edu.uw.cs;
+
+import java.util.*;
+
+/**
+ * Generates a reproducible FLIGHTS dataset for the benchmarks: flights between
+ * a fixed set of single-word cities spread evenly over the days of a month,
+ * with random carriers, times, capacities and prices.
+ */
+public class SyntheticFlights {
+  // Shape of the generated data
+  static final int CITIES = 10;
+  static final int DAYS = 28;
+  static final long SEED = 414;
+
+  private static final String[] CARRIERS = { "AA", "AS", "B6", "DL", "UA", "WN" };
+
+  /**
+   * Name of the i-th city
+   */
+  public static String city(int i) {
+    return String.format("City%02d", i);
+  }
+
+  /**
+   * Stores {@code count} flights with fids 1 to count in the table and
+   * returns their fids
+   */
+  public static int[] generate(FlightTable flights, int count) {
+    Random random = new Random(SEED);
+    int[] fids = new int[count];
+    for (int i = 0; i < count; i++) {
+      int origin = random.nextInt(CITIES);
+      int dest = (origin + 1 + random.nextInt(CITIES - 1)) % CITIES;
+      fids[i] = flights.put(i + 1, 1 + i % DAYS, CARRIERS[random.nextInt(CARRIERS.length)],
+          Integer.toString(1 + random.nextInt(9999)), city(origin), city(dest), 30 + random.nextInt(400),
+          1 + random.nextInt(20), 100 + random.nextInt(900));
+    }
+    return fids;
+  }
+
+  /**
+   * Builds an in-memory storage over {@code count} generated flights
+   */
+  public static MemoryStorage storage(FlightTable flights, int count) {
+    return new MemoryStorage(flights, generate(flights, count));
+  }
+
+  /**
+   * Builds a transaction service over the given storage without reading
+   * dbconn.properties: no caches and no password hashing
+   */
+  public static FlightTransactions transactions(Storage storage) {
+    return new FlightTransactions(storage, new ReservationIdAllocator(storage, 100), null, null,
+        new PasswordHasher(0, 1, 0, 1000, 0, 0), null);
+  }
+}
@@ -1,11 +1,15 @@
 DROP TABLE IF EXISTS USERS;
 DROP TABLE IF EXISTS RESERVATIONS;
+DROP TABLE IF EXISTS RESERVATION_IDS;
+DROP TABLE IF EXISTS CONNECTIONS;
+DROP TRIGGER IF EXISTS Flights_Connections;
+DROP TABLE IF EXISTS SCHEMA_VERSION;
 ALTER TABLE FLIGHTS ADD num_booked INT NOT NULL DEFAULT(0);
 GO
 
 CREATE TABLE USERS (
 	username VARCHAR(20), 
-	password VARCHAR(20),
+	password VARCHAR(100),
 	balance INT,
 	PRIMARY KEY (username)
 	);
@@ -16,9 +20,21 @@ CREATE TABLE RESERVATIONS (
 	trip_date INT,
 	fid1 INT,
 	fid2 INT,
+	fid3 INT,
 	cost INT,
 	paid INT NOT NULL DEFAULT(0),
 	cancelled INT NOT NULL DEFAULT(0),
 	PRIMARY KEY (rid),
 	FOREIGN KEY(username) REFERENCES USERS(username),
-	);
\ No newline at end of file
+	);
+
+CREATE TABLE RESERVATION_IDS (
+	name VARCHAR(20),
+	next_id INT NOT NULL,
+	PRIMARY KEY (name)
+	);
+
+INSERT INTO RESERVATION_IDS VALUES ('reservations', 1);
+
+-- The CONNECTIONS table and the indexes are added by the schema migrations
+-- the application runs at startup (SchemaMigrations)
\ No newline at end of file
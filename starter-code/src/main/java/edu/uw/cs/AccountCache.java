@@ -0,0 +1,257 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Write-through cache of the accounts of users who have logged in: their
+ * balance, a bitmask of the days they have booked and a summary of their
+ * reservations.
+ *
+ * An account is loaded when its user logs in and is then kept in step by the
+ * transactions, which hold its lock while they write to the storage. That
+ * lets them answer the same-day rule, unknown or already paid reservations
+ * and short balances from memory, touching the storage only to write. An
+ * account whose write failed in an unknown way is reloaded before it is used
+ * again. Accounts are kept until the tables are cleared; once the cache is
+ * full, further users are served from the storage alone.
+ *
+ * The cache is only coherent while this process is the only one changing
+ * users and reservations.
+ */
+public class AccountCache {
+  // Cache setting (dbconn.properties), a size of 0 disables the cache
+  static final String SIZE = "account.cache.size";
+
+  // Cache shared by all sessions, created on first use
+  private static AccountCache defaultCache;
+  private static boolean defaultLoaded;
+
+  private final int maxEntries;
+
+  // Normalized username -> account
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  // Cache metrics
+  private final AtomicLong loads = new AtomicLong();
+  private final AtomicLong answered = new AtomicLong();
+
+  public AccountCache(int maxEntries) {
+    if (maxEntries <= 0)
+      throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Returns the cache shared by every session, or null if it is disabled in
+   * dbconn.properties
+   */
+  public static synchronized AccountCache getDefault() throws IOException {
+    if (!defaultLoaded) {
+      int size = AppConfig.getInt(SIZE, 0);
+      if (size > 0)
+        defaultCache = new AccountCache(size);
+      defaultLoaded = true;
+    }
+    return defaultCache;
+  }
+
+  /**
+   * Caches the account of a user who has just logged in, reading it from the
+   * storage unless it is already cached
+   */
+  public void logIn(String username, Storage storage) throws SQLException {
+    String key = FlightIndex.normalize(username);
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      if (entries.size() >= maxEntries)
+        return;
+      Entry created = new Entry();
+      entry = entries.putIfAbsent(key, created);
+      if (entry == null)
+        entry = created;
+    }
+    if (!entry.load(username, storage))
+      entries.remove(key, entry);
+  }
+
+  /**
+   * The cached account of a user, loaded and locked by the caller while it is
+   * used, or null if the user's account is not cached
+   */
+  public Entry get(String username) {
+    return entries.get(FlightIndex.normalize(username));
+  }
+
+  /**
+   * Forgets every account, e.g. after the users are cleared
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  // Counts a transaction answered from memory alone
+  void answered() {
+    answered.incrementAndGet();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getLoadCount() {
+    return loads.get();
+  }
+
+  public long getAnsweredCount() {
+    return answered.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("AccountCache[size=%d, loads=%d, answered=%d]", size(), getLoadCount(), getAnsweredCount());
+  }
+
+  /**
+   * A user's cached account. Its methods must be called while holding its
+   * lock.
+   */
+  public class Entry {
+    private boolean loaded;
+    private int balance;
+
+    // Bit d is set if the user has a reservation on day d, cancelled or not
+    private int bookedDays;
+
+    // Reservations by ID, cancelled or not
+    private final SortedMap<Integer, Reservation> reservations = new TreeMap<Integer, Reservation>();
+
+    /**
+     * Reads the account from the storage unless it is already loaded. Returns
+     * false if the user does not exist.
+     */
+    public synchronized boolean load(String username, Storage storage) throws SQLException {
+      if (loaded)
+        return true;
+      Storage.Account account = storage.account(username);
+      if (account == null)
+        return false;
+      loads.incrementAndGet();
+      balance = account.balance;
+      bookedDays = 0;
+      reservations.clear();
+      for (int i = 0; i < account.size(); i++) {
+        addDay(account.day(i));
+        reservations.put(account.rid(i), new Reservation(account.cost(i), account.itinerary(i), account.isPaid(i),
+            account.isCancelled(i)));
+      }
+      loaded = true;
+      return true;
+    }
+
+    /**
+     * Makes the next {@link #load} read the account again, after a write
+     * whose outcome is unknown
+     */
+    public void invalidate() {
+      loaded = false;
+    }
+
+    public boolean isLoaded() {
+      return loaded;
+    }
+
+    public int balance() {
+      return balance;
+    }
+
+    /**
+     * Whether the user has a reservation on the day, cancelled or not
+     */
+    public boolean hasBookedOn(int day) {
+      return day >= 0 && day < Integer.SIZE && (bookedDays & (1 << day)) != 0;
+    }
+
+    private void addDay(int day) {
+      if (day >= 0 && day < Integer.SIZE)
+        bookedDays |= 1 << day;
+    }
+
+    /**
+     * The reservation with the given ID, or null if it is not the user's
+     */
+    public Reservation reservation(int rid) {
+      return reservations.get(rid);
+    }
+
+    /**
+     * The user's reservations by ID, cancelled or not
+     */
+    public SortedMap<Integer, Reservation> reservations() {
+      return reservations;
+    }
+
+    public void booked(int rid, int day, int cost, long itinerary) {
+      addDay(day);
+      reservations.put(rid, new Reservation(cost, itinerary, false, false));
+    }
+
+    /**
+     * Records that the storage refused a booking because the user already had
+     * one that day
+     */
+    public void bookedOn(int day) {
+      addDay(day);
+    }
+
+    public void paid(int rid, int newBalance) {
+      reservations.get(rid).paid = true;
+      balance = newBalance;
+    }
+
+    /**
+     * Records the balance the storage reported when it refused a payment
+     */
+    public void balanceIs(int newBalance) {
+      balance = newBalance;
+    }
+
+    /**
+     * Marks a reservation cancelled, refunding it if it was paid
+     */
+    public void cancelled(int rid) {
+      Reservation r = reservations.get(rid);
+      r.cancelled = true;
+      if (r.paid)
+        balance += r.cost;
+    }
+  }
+
+  /**
+   * Summary of one cached reservation
+   */
+  public static class Reservation {
+    public final int cost;
+    public final long itinerary;
+    boolean paid;
+    boolean cancelled;
+
+    Reservation(int cost, long itinerary, boolean paid, boolean cancelled) {
+      this.cost = cost;
+      this.itinerary = itinerary;
+      this.paid = paid;
+      this.cancelled = cancelled;
+    }
+
+    public boolean isPaid() {
+      return paid;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Application settings from dbconn.properties, read once and shared by every
+ * component that needs them
+ */
+public class AppConfig {
+  private static final String CONFIG_FILE = "dbconn.properties";
+
+  private static Properties properties;
+
+  private AppConfig() {
+  }
+
+  /**
+   * Returns the application settings, loading them on first use
+   */
+  public static synchronized Properties get() throws IOException {
+    if (properties == null) {
+      Properties configProps = new Properties();
+      try (InputStream in = new FileInputStream(CONFIG_FILE)) {
+        configProps.load(in);
+      }
+      properties = configProps;
+    }
+    return properties;
+  }
+
+  public static String getString(String key, String defaultValue) throws IOException {
+    String value = get().getProperty(key);
+    return value == null ? defaultValue : value.trim();
+  }
+
+  public static boolean getBoolean(String key, boolean defaultValue) throws IOException {
+    String value = get().getProperty(key);
+    return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+  }
+
+  public static int getInt(String key, int defaultValue) throws IOException {
+    String value = get().getProperty(key);
+    return value == null ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  public static long getLong(String key, long defaultValue) throws IOException {
+    String value = get().getProperty(key);
+    return value == null ? defaultValue : Long.parseLong(value.trim());
+  }
+}
@@ -0,0 +1,35 @@
+package edu.uw.cs;
+
+import java.io.*;
+
+/**
+ * Helpers for writing responses into any {@code Appendable}, such as a
+ * {@code StringBuilder}, a {@code Writer} or a {@code CharBuffer}, without
+ * building intermediate strings.
+ */
+public final class Appendables {
+  private Appendables() {
+  }
+
+  /**
+   * Appends the decimal digits of the value
+   */
+  public static Appendable appendInt(Appendable out, int value) throws IOException {
+    if (out instanceof StringBuilder) {
+      ((StringBuilder) out).append(value);
+      return out;
+    }
+    if (value < 0) {
+      if (value == Integer.MIN_VALUE)
+        return out.append("-2147483648");
+      out.append('-');
+      value = -value;
+    }
+    int divisor = 1;
+    while (value / divisor >= 10)
+      divisor *= 10;
+    for (; divisor > 0; divisor /= 10)
+      out.append((char) ('0' + value / divisor % 10));
+    return out;
+  }
+}
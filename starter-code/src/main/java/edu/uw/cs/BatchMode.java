@@ -0,0 +1,107 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Runs a script of commands non-interactively, one command per line, for bulk
+ * loads and replays. Responses are written in the same order and format as the
+ * REPL would print them.
+ *
+ * Consecutive {@code create} commands are independent of each other and of the
+ * session, so they are sent to the database together as one JDBC batch. Any
+ * other command first flushes the pending batch and then runs on its own.
+ * Blank lines and lines starting with '#' are skipped.
+ */
+public class BatchMode {
+  // Most create commands sent in one batch (dbconn.properties)
+  static final String BATCH_SIZE = "batch.size";
+
+  private final Query q;
+  private final int batchSize;
+  private final CommandTokenizer tokens = new CommandTokenizer();
+
+  // Pending create commands
+  private final String[] usernames;
+  private final String[] passwords;
+  private final int[] initAmounts;
+  private int pending;
+
+  // Summary counters
+  private long commands;
+  private long batchedCommands;
+  private long batches;
+  private long elapsedNanos;
+
+  public BatchMode(Query q, int batchSize) {
+    if (batchSize <= 0)
+      throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+    this.q = q;
+    this.batchSize = batchSize;
+    this.usernames = new String[batchSize];
+    this.passwords = new String[batchSize];
+    this.initAmounts = new int[batchSize];
+  }
+
+  /**
+   * Runs every command read from {@code in} until the input ends or a
+   * {@code quit} command, writing the responses to {@code out}
+   */
+  public void run(BufferedReader in, Appendable out) throws IOException {
+    long start = System.nanoTime();
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (tokens.reset(line) == 0 || line.trim().startsWith("#"))
+          continue;
+        commands++;
+
+        if (isCreate()) {
+          usernames[pending] = tokens.token(1);
+          passwords[pending] = tokens.token(2);
+          initAmounts[pending] = (int) tokens.parseInt(3);
+          if (++pending == batchSize)
+            flush(out);
+          continue;
+        }
+
+        flush(out);
+        boolean quit = tokens.tokenEquals(0, "quit");
+        FlightService.execute(q, line, out);
+        if (quit)
+          return;
+      }
+      flush(out);
+    } finally {
+      elapsedNanos += System.nanoTime() - start;
+    }
+  }
+
+  // A create command that can join the batch
+  private boolean isCreate() {
+    return tokens.count() == 4 && tokens.tokenEquals(0, "create")
+        && tokens.parseInt(3) != CommandTokenizer.NOT_AN_INT;
+  }
+
+  // Sends the pending create commands and writes their responses
+  private void flush(Appendable out) throws IOException {
+    if (pending == 0)
+      return;
+    String[] responses = q.transaction_createCustomers(Arrays.copyOf(usernames, pending),
+        Arrays.copyOf(passwords, pending), Arrays.copyOf(initAmounts, pending));
+    for (String response : responses)
+      out.append(response);
+    batchedCommands += pending;
+    batches++;
+    pending = 0;
+  }
+
+  /**
+   * Commands run so far, how many went through batches, and the throughput
+   */
+  public String summary() {
+    double seconds = elapsedNanos / 1e9;
+    return String.format("Ran %d commands in %.3f s (%.1f commands/s); %d create commands in %d batches",
+        commands, seconds, seconds == 0 ? 0 : commands / seconds, batchedCommands, batches);
+  }
+}
@@ -0,0 +1,125 @@
+package edu.uw.cs;
+
+import java.io.*;
+
+/**
+ * Table of commands keyed by name. A command line is dispatched on its first
+ * token with a single hash lookup, comparing the token in place so no String
+ * is created for it.
+ *
+ * With stats, each command's latency is recorded under "command_" and its
+ * name. A command fails when its token count does not fit its usage or its
+ * handler throws.
+ */
+public class CommandRegistry {
+  /**
+   * Token count of a command that accepts any number of arguments
+   */
+  public static final int ANY = -1;
+
+  /**
+   * Runs a command whose tokens, including the command name, are in
+   * {@code args}
+   */
+  public interface Handler {
+    void run(Query q, CommandTokenizer args, Appendable out) throws IOException;
+  }
+
+  // Open-addressed table with linear probing, at most half full
+  private Command[] slots = new Command[16];
+  private int size;
+
+  // Where command latencies are recorded, null if they are not
+  private final TransactionStats stats;
+
+  public CommandRegistry() {
+    this(null);
+  }
+
+  public CommandRegistry(TransactionStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Adds a command. If {@code tokens} is not {@link #ANY}, command lines with
+   * a different number of tokens get the usage message instead.
+   */
+  public CommandRegistry register(String name, int tokens, String usage, Handler handler) {
+    if (2 * (size + 1) > slots.length)
+      grow();
+    int i = indexOf(name.hashCode());
+    while (slots[i] != null) {
+      if (slots[i].name.equals(name))
+        throw new IllegalArgumentException("Command already registered: " + name);
+      i = (i + 1) & (slots.length - 1);
+    }
+    slots[i] = new Command(name, tokens, usage, handler, stats == null ? null : stats.metric("command_" + name));
+    size++;
+    return this;
+  }
+
+  /**
+   * Runs the command named by the first token. Returns false, without writing
+   * anything, if there is no such command.
+   */
+  public boolean dispatch(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    Command command = find(args);
+    if (command == null)
+      return false;
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      if (command.tokens != ANY && command.tokens != args.count()) {
+        out.append(command.usage);
+      } else {
+        command.handler.run(q, args, out);
+        ok = true;
+      }
+    } finally {
+      if (command.metric != null)
+        command.metric.record(start, ok);
+    }
+    return true;
+  }
+
+  private Command find(CommandTokenizer args) {
+    for (int i = indexOf(args.tokenHash(0));; i = (i + 1) & (slots.length - 1)) {
+      Command command = slots[i];
+      if (command == null || args.tokenEquals(0, command.name))
+        return command;
+    }
+  }
+
+  private int indexOf(int hash) {
+    return (hash ^ (hash >>> 16)) & (slots.length - 1);
+  }
+
+  private void grow() {
+    Command[] old = slots;
+    slots = new Command[old.length * 2];
+    for (Command command : old) {
+      if (command == null)
+        continue;
+      int i = indexOf(command.name.hashCode());
+      while (slots[i] != null)
+        i = (i + 1) & (slots.length - 1);
+      slots[i] = command;
+    }
+  }
+
+  private static class Command {
+    final String name;
+    final int tokens;
+    final String usage;
+    final Handler handler;
+    final TransactionStats.Metric metric;
+
+    Command(String name, int tokens, String usage, Handler handler, TransactionStats.Metric metric) {
+      this.name = name;
+      this.tokens = tokens;
+      this.usage = usage;
+      this.handler = handler;
+      this.metric = metric;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Splits a command line into tokens without allocating: a token is either a
+ * double-quoted string (quotes removed, so city names may contain spaces) or a
+ * run of non-whitespace characters. Tokens are kept as offsets into the input,
+ * and are only copied into Strings when a caller asks for one.
+ *
+ * A tokenizer is reused from command to command and is not thread-safe.
+ */
+public class CommandTokenizer {
+  /**
+   * Returned by {@link #parseInt(int)} when the token is not an int
+   */
+  public static final long NOT_AN_INT = Long.MIN_VALUE;
+
+  private CharSequence input = "";
+  private int[] starts = new int[8];
+  private int[] ends = new int[8];
+  private int count;
+
+  /**
+   * Tokenizes the input, replacing the previous command's tokens. Returns the
+   * number of tokens.
+   */
+  public int reset(CharSequence command) {
+    input = command;
+    count = 0;
+    int length = command.length();
+    int i = 0;
+    while (true) {
+      while (i < length && isWhitespace(command.charAt(i)))
+        i++;
+      if (i == length)
+        return count;
+
+      int close = command.charAt(i) == '"' ? indexOfQuote(command, i + 1) : -1;
+      if (close >= 0) {  // quoted token, which may contain whitespace
+        add(i + 1, close);
+        i = close + 1;
+      } else {
+        int start = i;
+        while (i < length && !isWhitespace(command.charAt(i)))
+          i++;
+        add(start, i);
+      }
+    }
+  }
+
+  /**
+   * Number of tokens in the current command
+   */
+  public int count() {
+    return count;
+  }
+
+  /**
+   * Whether the token is exactly the given text
+   */
+  public boolean tokenEquals(int index, String text) {
+    int start = starts[index];
+    int length = ends[index] - start;
+    if (length != text.length())
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (input.charAt(start + i) != text.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Hash of the token, equal to the {@code hashCode} of the same text as a
+   * String
+   */
+  public int tokenHash(int index) {
+    int h = 0;
+    for (int i = starts[index]; i < ends[index]; i++)
+      h = 31 * h + input.charAt(i);
+    return h;
+  }
+
+  /**
+   * The token as a String
+   */
+  public String token(int index) {
+    return input.subSequence(starts[index], ends[index]).toString();
+  }
+
+  /**
+   * Appends the token to {@code out} without copying it first
+   */
+  public Appendable appendToken(int index, Appendable out) throws IOException {
+    return out.append(input, starts[index], ends[index]);
+  }
+
+  /**
+   * Parses the token as a decimal int with an optional sign, the way
+   * {@code Integer.parseInt} does, or returns {@link #NOT_AN_INT} if it is not
+   * one
+   */
+  public long parseInt(int index) {
+    int i = starts[index];
+    int end = ends[index];
+    if (i == end)
+      return NOT_AN_INT;
+    boolean negative = false;
+    char first = input.charAt(i);
+    if (first == '-' || first == '+') {
+      negative = first == '-';
+      if (++i == end)
+        return NOT_AN_INT;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = Character.digit(input.charAt(i), 10);
+      if (digit < 0)
+        return NOT_AN_INT;
+      value = value * 10 + digit;
+      if (value > (long) Integer.MAX_VALUE + 1)
+        return NOT_AN_INT;
+    }
+    value = negative ? -value : value;
+    return value > Integer.MAX_VALUE ? NOT_AN_INT : value;
+  }
+
+  private void add(int start, int end) {
+    if (count == starts.length) {
+      starts = Arrays.copyOf(starts, count * 2);
+      ends = Arrays.copyOf(ends, count * 2);
+    }
+    starts[count] = start;
+    ends[count] = end;
+    count++;
+  }
+
+  private static int indexOfQuote(CharSequence s, int from) {
+    for (int i = from; i < s.length(); i++) {
+      if (s.charAt(i) == '"')
+        return i;
+    }
+    return -1;
+  }
+
+  // Whitespace as matched by \s in the original regular expression
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
@@ -0,0 +1,284 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A bounded pool of application-to-database connections shared by every
+ * {@code Query} in the JVM.
+ *
+ * Connections are validated when they are borrowed after sitting idle, evicted
+ * in the background once they have been idle for too long, and callers wait at
+ * most the configured acquire timeout for a free connection.
+ */
+public class ConnectionPool implements AutoCloseable {
+  // Pool settings read from dbconn.properties (all optional)
+  static final String MAX_SIZE = "pool.max_size";
+  static final String ACQUIRE_TIMEOUT_MS = "pool.acquire_timeout_ms";
+  static final String IDLE_TIMEOUT_MS = "pool.idle_timeout_ms";
+  static final String VALIDATE_AFTER_MS = "pool.validate_after_ms";
+  static final String VALIDATION_TIMEOUT_S = "pool.validation_timeout_s";
+
+  // Pool shared by the whole application, created on first use
+  private static ConnectionPool defaultPool;
+
+  private final String connectionUrl;
+  private final int maxSize;
+  private final long acquireTimeoutMillis;
+  private final long idleTimeoutMillis;
+  private final long validateAfterMillis;
+  private final int validationTimeoutSeconds;
+
+  // One permit per connection that may exist, idle or borrowed
+  private final Semaphore permits;
+
+  // Idle connections, most recently used first (guarded by this)
+  private final Deque<PooledConnection.Physical> idle = new ArrayDeque<PooledConnection.Physical>();
+  private boolean closed;
+
+  private final ScheduledExecutorService evictor;
+
+  // Pool metrics
+  private final AtomicInteger active = new AtomicInteger();
+  private final AtomicLong borrowed = new AtomicLong();
+  private final AtomicLong created = new AtomicLong();
+  private final AtomicLong destroyed = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+  private final AtomicLong validationFailures = new AtomicLong();
+  private final AtomicLong waitNanos = new AtomicLong();
+
+  /**
+   * Creates a pool for the given JDBC URL. No connections are opened until the
+   * first borrow.
+   */
+  public ConnectionPool(String connectionUrl, int maxSize, long acquireTimeoutMillis, long idleTimeoutMillis,
+      long validateAfterMillis, int validationTimeoutSeconds) {
+    if (maxSize <= 0)
+      throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+    this.connectionUrl = connectionUrl;
+    this.maxSize = maxSize;
+    this.acquireTimeoutMillis = acquireTimeoutMillis;
+    this.idleTimeoutMillis = idleTimeoutMillis;
+    this.validateAfterMillis = validateAfterMillis;
+    this.validationTimeoutSeconds = validationTimeoutSeconds;
+    this.permits = new Semaphore(maxSize, true);
+
+    evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "connection-pool-evictor");
+      t.setDaemon(true);
+      return t;
+    });
+    long period = Math.max(1000, idleTimeoutMillis / 2);
+    evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Builds a pool from the dbconn.properties settings.
+   */
+  public static ConnectionPool fromProperties(Properties configProps) {
+    String serverURL = configProps.getProperty("hw1.server_url");
+    String dbName = configProps.getProperty("hw1.database_name");
+    String adminName = configProps.getProperty("hw1.username");
+    String password = configProps.getProperty("hw1.password");
+    String connectionUrl = String.format("jdbc:sqlserver://%s:1433;databaseName=%s;user=%s;password=%s", serverURL,
+        dbName, adminName, password);
+
+    return new ConnectionPool(connectionUrl,
+        Integer.parseInt(configProps.getProperty(MAX_SIZE, "10").trim()),
+        Long.parseLong(configProps.getProperty(ACQUIRE_TIMEOUT_MS, "30000").trim()),
+        Long.parseLong(configProps.getProperty(IDLE_TIMEOUT_MS, "600000").trim()),
+        Long.parseLong(configProps.getProperty(VALIDATE_AFTER_MS, "5000").trim()),
+        Integer.parseInt(configProps.getProperty(VALIDATION_TIMEOUT_S, "5").trim()));
+  }
+
+  /**
+   * Returns the application-wide pool, reading dbconn.properties the first time
+   * it is needed.
+   */
+  public static synchronized ConnectionPool getDefault() throws IOException {
+    if (defaultPool == null)
+      defaultPool = fromProperties(AppConfig.get());
+    return defaultPool;
+  }
+
+  /**
+   * Borrows a connection, waiting up to the acquire timeout for one to be
+   * returned if the pool is exhausted. Close the returned connection to give it
+   * back to the pool.
+   *
+   * @throws SQLTimeoutException if no connection became available in time
+   */
+  public PooledConnection borrow() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        timeouts.incrementAndGet();
+        throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis + "ms waiting for a connection");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection", e);
+    } finally {
+      waitNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    try {
+      PooledConnection.Physical c;
+      while ((c = pollIdle()) != null) {
+        if (isUsable(c))
+          break;
+        validationFailures.incrementAndGet();
+        destroy(c);
+      }
+      if (c == null)
+        c = create();
+      active.incrementAndGet();
+      borrowed.incrementAndGet();
+      return new PooledConnection(this, c);
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Gives a borrowed connection back to the pool. Broken connections are closed
+   * instead of being reused.
+   */
+  void release(PooledConnection.Physical c) {
+    active.decrementAndGet();
+    try {
+      boolean reusable = c.reset();
+      synchronized (this) {
+        if (reusable && !closed) {
+          c.lastUsed = System.currentTimeMillis();
+          idle.addFirst(c);
+          return;
+        }
+      }
+      destroy(c);
+    } finally {
+      permits.release();
+    }
+  }
+
+  private synchronized PooledConnection.Physical pollIdle() throws SQLException {
+    if (closed)
+      throw new SQLException("Connection pool is closed");
+    return idle.pollFirst();
+  }
+
+  private boolean isUsable(PooledConnection.Physical c) {
+    if (System.currentTimeMillis() - c.lastUsed < validateAfterMillis)
+      return true;
+    try {
+      return c.conn.isValid(validationTimeoutSeconds);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private PooledConnection.Physical create() throws SQLException {
+    Connection conn = DriverManager.getConnection(connectionUrl);
+
+    // By default, automatically commit after each statement
+    conn.setAutoCommit(true);
+
+    // By default, set the transaction isolation level to serializable
+    conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+
+    created.incrementAndGet();
+    return new PooledConnection.Physical(conn);
+  }
+
+  private void destroy(PooledConnection.Physical c) {
+    destroyed.incrementAndGet();
+    c.close();
+  }
+
+  // Closes connections that have sat idle for longer than the idle timeout
+  private void evictIdle() {
+    long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+    List<PooledConnection.Physical> expired = new ArrayList<PooledConnection.Physical>();
+    synchronized (this) {
+      Iterator<PooledConnection.Physical> it = idle.descendingIterator();
+      while (it.hasNext()) {
+        PooledConnection.Physical c = it.next();
+        if (c.lastUsed >= cutoff)
+          break;
+        it.remove();
+        expired.add(c);
+      }
+    }
+    for (PooledConnection.Physical c : expired)
+      destroy(c);
+  }
+
+  /**
+   * Closes every idle connection and stops handing out new ones. Connections
+   * that are still borrowed are closed when they are returned.
+   */
+  @Override
+  public void close() {
+    List<PooledConnection.Physical> remaining;
+    synchronized (this) {
+      closed = true;
+      remaining = new ArrayList<PooledConnection.Physical>(idle);
+      idle.clear();
+    }
+    evictor.shutdownNow();
+    for (PooledConnection.Physical c : remaining)
+      destroy(c);
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getActiveCount() {
+    return active.get();
+  }
+
+  public synchronized int getIdleCount() {
+    return idle.size();
+  }
+
+  public long getBorrowCount() {
+    return borrowed.get();
+  }
+
+  public long getCreatedCount() {
+    return created.get();
+  }
+
+  public long getDestroyedCount() {
+    return destroyed.get();
+  }
+
+  public long getTimeoutCount() {
+    return timeouts.get();
+  }
+
+  public long getValidationFailureCount() {
+    return validationFailures.get();
+  }
+
+  /**
+   * Average time spent waiting for a permit, in milliseconds
+   */
+  public double getAverageWaitMillis() {
+    long n = borrowed.get() + timeouts.get();
+    return n == 0 ? 0 : waitNanos.get() / 1e6 / n;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ConnectionPool[active=%d, idle=%d, max=%d, borrowed=%d, created=%d, destroyed=%d, "
+        + "timeouts=%d, validationFailures=%d, avgWaitMs=%.3f]", getActiveCount(), getIdleCount(), maxSize,
+        getBorrowCount(), getCreatedCount(), getDestroyedCount(), getTimeoutCount(), getValidationFailureCount(),
+        getAverageWaitMillis());
+  }
+}
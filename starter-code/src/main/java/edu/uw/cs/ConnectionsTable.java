@@ -0,0 +1,97 @@
+package edu.uw.cs;
+
+import java.sql.*;
+
+/**
+ * The CONNECTIONS table: the fastest one-hop itineraries of every (origin
+ * city, destination city, day of month), precomputed so a one-hop search is a
+ * single range scan of its clustered key instead of a FLIGHTS self-join.
+ *
+ * At most {@link #PER_ROUTE} connections are kept per route and day, ranked
+ * like the search results. This job fills the table one day at a time; after
+ * that, the trigger that migration 002 puts on FLIGHTS recomputes the routes
+ * touched whenever flights are added, changed, cancelled or deleted.
+ *
+ * Usage: ConnectionsTable [day of month...]
+ */
+public class ConnectionsTable {
+  /**
+   * Connections kept per route and day, the same as in the FLIGHTS trigger of
+   * migration 002. Searches for more one-hop itineraries join FLIGHTS.
+   */
+  public static final int PER_ROUTE = 100;
+
+  // Days of month a full rebuild covers
+  private static final int DAYS = 31;
+
+  // Recomputes a day's connections, keeping the fastest of each route
+  // Parameters: day, day, day
+  private static final String REBUILD_DAY = "SET NOCOUNT ON; "
+                                            + "DELETE FROM Connections WHERE day_of_month = ?; "
+                                            + "INSERT INTO Connections (origin_city, dest_city, day_of_month, total_time, fid1, fid2) "
+                                            + "SELECT origin_city, dest_city, day_of_month, total_time, fid1, fid2 FROM ("
+                                            + "SELECT F1.origin_city, F2.dest_city, F1.day_of_month, "
+                                            + "F1.actual_time + F2.actual_time AS total_time, F1.fid AS fid1, F2.fid AS fid2, "
+                                            + "ROW_NUMBER() OVER (PARTITION BY F1.origin_city, F2.dest_city "
+                                            + "ORDER BY F1.actual_time + F2.actual_time, F1.fid, F2.fid) AS position "
+                                            + "FROM FLIGHTS AS F1 JOIN FLIGHTS AS F2 ON F1.dest_city = F2.origin_city "
+                                            + "AND F2.day_of_month = ? "
+                                            + "WHERE F1.day_of_month = ? AND F1.cancelled = 0 AND F2.cancelled = 0) AS R "
+                                            + "WHERE position <= " + PER_ROUTE + "; "
+                                            + "SELECT @@ROWCOUNT AS connections;";
+
+  private final TransactionRunner runner;
+
+  public ConnectionsTable(TransactionRunner runner) {
+    this.runner = runner;
+  }
+
+  /**
+   * Recomputes the connections of one day in one transaction and returns how
+   * many were stored
+   */
+  public int rebuild(int dayOfMonth) throws SQLException {
+    return runner.inTransaction(c -> {
+      PreparedStatement rebuildStatement = c.prepare(REBUILD_DAY);
+      rebuildStatement.clearParameters();
+      rebuildStatement.setInt(1, dayOfMonth);
+      rebuildStatement.setInt(2, dayOfMonth);
+      rebuildStatement.setInt(3, dayOfMonth);
+      try (ResultSet result = JdbcStorage.batchResult(rebuildStatement)) {
+        result.next();
+        return result.getInt("connections");
+      }
+    });
+  }
+
+  /**
+   * Recomputes every day's connections, one transaction per day, and returns
+   * how many were stored
+   */
+  public long rebuild() throws SQLException {
+    long total = 0;
+    for (int day = 1; day <= DAYS; day++)
+      total += rebuild(day);
+    return total;
+  }
+
+  public static void main(String[] args) throws Exception {
+    ConnectionsTable table = new ConnectionsTable(TransactionRunner.getDefault());
+    long start = System.nanoTime();
+    long total = 0;
+    if (args.length == 0) {
+      for (int day = 1; day <= DAYS; day++)
+        total += report(day, table.rebuild(day));
+    } else {
+      for (String day : args)
+        total += report(Integer.parseInt(day), table.rebuild(Integer.parseInt(day)));
+    }
+    System.out.printf("%d connections in %.1f s%n", total, (System.nanoTime() - start) / 1e9);
+    ConnectionPool.getDefault().close();
+  }
+
+  private static int report(int day, int connections) {
+    System.out.printf("Day %2d: %d connections%n", day, connections);
+    return connections;
+  }
+}
@@ -0,0 +1,164 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * Drives the scenarios in {@code cases/} against a running {@code FlightServer}.
+ *
+ * Each scenario file lists one or more users: their commands, then one or more
+ * alternative expected outputs separated by '|'. Every user runs concurrently
+ * over its own connection, and the scenario passes if all users' outputs match
+ * the same alternative, as in {@code FlightServiceTest}. The tables are cleared
+ * before each scenario, so the server must allow admin commands
+ * ({@code server.allow_admin_commands}).
+ */
+public class FlightClient {
+  private static final String COMMENTS = "#";
+  private static final String DELIMITER = "*";
+  private static final String SEPARATOR = "|";
+
+  private final String host;
+  private final int port;
+
+  public FlightClient(String host, int port) {
+    this.host = host;
+    this.port = port;
+  }
+
+  /**
+   * Sends the commands over a new connection and returns everything the
+   * server answers until it closes the session
+   */
+  public String run(List<String> commands) throws IOException {
+    try (Socket socket = new Socket(host, port)) {
+      Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+      for (String command : commands)
+        out.write(command + "\n");
+      out.flush();
+      socket.shutdownOutput();
+
+      StringBuilder response = new StringBuilder();
+      Reader in = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+      char[] buffer = new char[8192];
+      for (int n; (n = in.read(buffer)) != -1;)
+        response.append(buffer, 0, n);
+      return response.toString();
+    }
+  }
+
+  /**
+   * Runs one scenario file and returns whether it passed
+   */
+  public boolean runScenario(Path file, ExecutorService executor) throws IOException, InterruptedException {
+    List<List<String>> commands = new ArrayList<List<String>>();
+    List<List<String>> outcomes = new ArrayList<List<String>>();
+    parse(file, commands, outcomes);
+
+    run(Collections.singletonList("clear"));
+    List<Future<String>> futures = new ArrayList<Future<String>>();
+    for (List<String> userCommands : commands)
+      futures.add(executor.submit(() -> run(userCommands)));
+
+    List<String> outputs = new ArrayList<String>();
+    for (Future<String> f : futures) {
+      try {
+        outputs.add(f.get());
+      } catch (ExecutionException e) {
+        outputs.add("<" + e.getCause() + ">");
+      }
+    }
+
+    for (int i = 0; i < outcomes.get(0).size(); i++) {
+      boolean matches = true;
+      for (int user = 0; user < outputs.size(); user++)
+        matches = matches && outputs.get(user).equals(outcomes.get(user).get(i));
+      if (matches)
+        return true;
+    }
+    System.out.println("Actual outputs for " + file + ":\n" + outputs);
+    return false;
+  }
+
+  // Reads each user's commands and alternative outputs from a scenario file
+  static void parse(Path file, List<List<String>> commands, List<List<String>> outcomes) throws IOException {
+    List<String> cmds = new ArrayList<String>();
+    List<String> results = new ArrayList<String>();
+    StringBuilder result = new StringBuilder();
+    boolean isCmd = true;
+    for (String l : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+      if (l.startsWith(COMMENTS)) {
+        continue;
+      } else if (l.startsWith(DELIMITER)) {
+        if (isCmd) {
+          isCmd = false;
+        } else {
+          results.add(result.toString());
+          commands.add(cmds);
+          outcomes.add(results);
+          cmds = new ArrayList<String>();
+          results = new ArrayList<String>();
+          result.setLength(0);
+          isCmd = true;
+        }
+      } else if (l.startsWith(SEPARATOR)) {
+        if (isCmd)
+          throw new IllegalArgumentException("Outcome separator among the commands of " + file);
+        results.add(result.toString());
+        result.setLength(0);
+      } else {
+        l = l.split(COMMENTS, 2)[0];
+        if (isCmd)
+          cmds.add(l);
+        else
+          result.append(l).append('\n');
+      }
+    }
+    if (commands.isEmpty() || !cmds.isEmpty() || result.length() > 0)
+      throw new IllegalArgumentException("Malformed scenario file " + file);
+  }
+
+  /**
+   * Usage: FlightClient host port [scenario files or directories...]
+   *
+   * Runs every scenario under {@code cases} if none are given, and exits with
+   * status 1 if any of them fail.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      System.err.println("Usage: FlightClient <host> <port> [scenario files or directories...]");
+      System.exit(2);
+    }
+    FlightClient client = new FlightClient(args[0], Integer.parseInt(args[1]));
+
+    List<Path> files = new ArrayList<Path>();
+    List<String> roots = args.length > 2 ? Arrays.asList(args).subList(2, args.length) : Arrays.asList("cases");
+    for (String root : roots) {
+      try (Stream<Path> paths = Files.walk(Paths.get(root))) {
+        paths.filter(Files::isRegularFile).sorted().forEach(files::add);
+      }
+    }
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    int failed = 0;
+    long start = System.nanoTime();
+    try {
+      for (Path file : files) {
+        boolean passed = client.runScenario(file, executor);
+        System.out.println((passed ? "passed " : "FAILED ") + file);
+        if (!passed)
+          failed++;
+      }
+    } finally {
+      executor.shutdown();
+    }
+    System.out.printf("%d of %d scenarios passed in %.1f s%n", files.size() - failed, files.size(),
+        (System.nanoTime() - start) / 1e9);
+    System.exit(failed == 0 ? 0 : 1);
+  }
+}
@@ -0,0 +1,484 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * In-memory index of the non-cancelled flights, used to answer searches
+ * without querying the database.
+ *
+ * Flights are grouped by (origin city, destination city, day of month) into
+ * fid arrays kept sorted by (actual_time, fid), matching the ORDER BY of the
+ * search queries. For one-hop searches, each (origin city, day of month) also
+ * lists the outgoing flight groups by hub city. Flight details are read from
+ * the shared {@code FlightTable}.
+ *
+ * The groups also form a per-day flight graph between cities, which
+ * {@link #multiHop} searches for the fastest itineraries of up to
+ * {@link Itinerary#MAX_FLIGHTS} flights.
+ *
+ * City names are matched the way SQL Server's default collation does:
+ * case-insensitively and ignoring trailing spaces.
+ */
+public class FlightIndex {
+  // Enables the index (dbconn.properties)
+  static final String ENABLED = "search.index";
+
+  // Loads every flight a search can return
+  private static final String LOAD_FLIGHTS = "SELECT fid, day_of_month, carrier_id, flight_num, origin_city, "
+                                             + "dest_city, actual_time, capacity, price FROM FLIGHTS WHERE cancelled = 0";
+
+  // Index shared by all sessions, loaded on first use
+  private static FlightIndex defaultIndex;
+
+  private final FlightTable flights;
+
+  // Normalized city names
+  private final StringDictionary cities = new StringDictionary();
+
+  // (origin, dest, day) -> fids sorted by (actual_time, fid)
+  private final Map<Long, int[]> routes = new HashMap<Long, int[]>();
+
+  // (origin, day) -> fids out of origin, one sorted group per hub city
+  private final Map<Long, int[][]> departures = new HashMap<Long, int[][]>();
+
+  // (dest, day) -> fids into dest, one sorted group per origin city
+  private final Map<Long, int[][]> arrivals = new HashMap<Long, int[][]>();
+
+  // Codes of the hub cities of each departures group, and of the origin
+  // cities of each arrivals group, in the same order
+  private final Map<Long, int[]> hubCities = new HashMap<Long, int[]>();
+  private final Map<Long, int[]> originCities = new HashMap<Long, int[]>();
+
+  private final int flightCount;
+
+  /**
+   * Builds the index over the given flights, which must already be stored in
+   * the table
+   */
+  public FlightIndex(FlightTable flights, int[] fids) {
+    this.flights = flights;
+
+    Map<Long, List<Integer>> byRoute = new HashMap<Long, List<Integer>>();
+    for (int fid : fids) {
+      long key = routeKey(city(flights.originCity(fid)), city(flights.destCity(fid)), flights.dayOfMonth(fid));
+      List<Integer> route = byRoute.get(key);
+      if (route == null) {
+        route = new ArrayList<Integer>();
+        byRoute.put(key, route);
+      }
+      route.add(fid);
+    }
+
+    Map<Long, List<int[]>> byDeparture = new HashMap<Long, List<int[]>>();
+    Map<Long, List<int[]>> byArrival = new HashMap<Long, List<int[]>>();
+    for (Map.Entry<Long, List<Integer>> e : byRoute.entrySet()) {
+      Integer[] boxed = e.getValue().toArray(new Integer[0]);
+      Arrays.sort(boxed, (a, b) -> compareFlights(a, b));
+      int[] sorted = new int[boxed.length];
+      for (int i = 0; i < boxed.length; i++)
+        sorted[i] = boxed[i];
+      routes.put(e.getKey(), sorted);
+
+      int first = sorted[0];
+      long departureKey = departureKey(city(flights.originCity(first)), flights.dayOfMonth(first));
+      List<int[]> hubs = byDeparture.get(departureKey);
+      if (hubs == null) {
+        hubs = new ArrayList<int[]>();
+        byDeparture.put(departureKey, hubs);
+      }
+      hubs.add(sorted);
+
+      long arrivalKey = departureKey(city(flights.destCity(first)), flights.dayOfMonth(first));
+      List<int[]> origins = byArrival.get(arrivalKey);
+      if (origins == null) {
+        origins = new ArrayList<int[]>();
+        byArrival.put(arrivalKey, origins);
+      }
+      origins.add(sorted);
+    }
+    for (Map.Entry<Long, List<int[]>> e : byDeparture.entrySet()) {
+      int[][] groups = e.getValue().toArray(new int[0][]);
+      departures.put(e.getKey(), groups);
+      int[] codes = new int[groups.length];
+      for (int i = 0; i < groups.length; i++)
+        codes[i] = city(flights.destCity(groups[i][0]));
+      hubCities.put(e.getKey(), codes);
+    }
+    for (Map.Entry<Long, List<int[]>> e : byArrival.entrySet()) {
+      int[][] groups = e.getValue().toArray(new int[0][]);
+      arrivals.put(e.getKey(), groups);
+      int[] codes = new int[groups.length];
+      for (int i = 0; i < groups.length; i++)
+        codes[i] = city(flights.originCity(groups[i][0]));
+      originCities.put(e.getKey(), codes);
+    }
+
+    flightCount = fids.length;
+  }
+
+  /**
+   * Loads every non-cancelled flight from FLIGHTS into the table and indexes
+   * them
+   */
+  public static FlightIndex load(PooledConnection c, FlightTable flights) throws SQLException {
+    int[] fids = new int[1024];
+    int size = 0;
+    try (Statement s = c.connection().createStatement(); ResultSet r = s.executeQuery(LOAD_FLIGHTS)) {
+      while (r.next()) {
+        if (size == fids.length)
+          fids = Arrays.copyOf(fids, size * 2);
+        fids[size++] = flights.put(r, "");
+      }
+    }
+    return new FlightIndex(flights, Arrays.copyOf(fids, size));
+  }
+
+  /**
+   * Returns the index shared by every session, loading it the first time it is
+   * needed, or null if the index is disabled in dbconn.properties
+   */
+  public static synchronized FlightIndex getDefault(ConnectionPool pool) throws IOException, SQLException {
+    return AppConfig.getBoolean(ENABLED, false) ? getLoaded(pool) : null;
+  }
+
+  /**
+   * Returns the index shared by every session, loading it the first time it is
+   * needed even if searches are configured to go to the database
+   */
+  public static synchronized FlightIndex getLoaded(ConnectionPool pool) throws SQLException {
+    if (defaultIndex == null) {
+      try (PooledConnection c = pool.borrow()) {
+        defaultIndex = load(c, FlightTable.getDefault());
+      }
+    }
+    return defaultIndex;
+  }
+
+  /**
+   * Number of flights in the index
+   */
+  public int size() {
+    return flightCount;
+  }
+
+  /**
+   * Answers a search: up to {@code limit} itineraries sorted by total time,
+   * keeping every direct itinerary found and filling the rest with one-hop
+   * itineraries unless only direct flights are wanted
+   */
+  public long[] search(String originCity, String destCity, boolean directOnly, int dayOfMonth, int limit)
+      throws SQLException {
+    long[] direct = direct(originCity, destCity, dayOfMonth, limit);
+    if (directOnly)
+      return direct;
+
+    // Every direct itinerary is kept, one-hop itineraries fill the rest
+    ItineraryCursor oneHop = oneHop(originCity, destCity, dayOfMonth);
+    return ItineraryCursor.merge(flights, limit, ItineraryCursor.of(direct, direct.length),
+        oneHop.limit(limit - direct.length));
+  }
+
+  /**
+   * Returns up to {@code limit} direct itineraries, sorted by (actual_time,
+   * fid)
+   */
+  public long[] direct(String originCity, String destCity, int dayOfMonth, int limit) {
+    // TOP (?) rejects negative row counts, so the index does as well
+    if (limit < 0)
+      throw new IllegalArgumentException("Number of itineraries must not be negative: " + limit);
+    int[] route = route(cities.find(normalize(originCity)), cities.find(normalize(destCity)), dayOfMonth);
+    if (route == null)
+      return new long[0];
+    long[] direct = new long[Math.min(limit, route.length)];
+    for (int i = 0; i < direct.length; i++)
+      direct[i] = Itinerary.direct(route[i]);
+    return direct;
+  }
+
+  /**
+   * Returns the one-hop itineraries as a cursor ordered by (total time, first
+   * fid, second fid). Itineraries are only ranked as the cursor is read.
+   */
+  public ItineraryCursor oneHop(String originCity, String destCity, int dayOfMonth) {
+    // One candidate per hub to start with: its first leg paired with its
+    // second leg. Both legs are sorted, so a pair is always ranked after the
+    // pair it was expanded from and the heap pops pairs in order.
+    final PriorityQueue<Candidate> heap = new PriorityQueue<Candidate>();
+    int origin = cities.find(normalize(originCity));
+    int dest = cities.find(normalize(destCity));
+    int[][] hubs = origin < 0 || dest < 0 ? null : departures.get(departureKey(origin, dayOfMonth));
+    if (hubs != null) {
+      for (int[] firstLegs : hubs) {
+        int[] secondLegs = route(city(flights.destCity(firstLegs[0])), dest, dayOfMonth);
+        if (secondLegs != null)
+          heap.add(new Candidate(firstLegs, secondLegs, 0, 0));
+      }
+    }
+
+    return new ItineraryCursor() {
+      public long peek() {
+        Candidate best = heap.peek();
+        return best == null ? Itinerary.NONE : Itinerary.oneHop(best.fid1, best.fid2);
+      }
+
+      public void advance() {
+        Candidate best = heap.poll();
+        if (best.j + 1 < best.secondLegs.length)
+          heap.add(new Candidate(best.firstLegs, best.secondLegs, best.i, best.j + 1));
+        if (best.j == 0 && best.i + 1 < best.firstLegs.length)
+          heap.add(new Candidate(best.firstLegs, best.secondLegs, best.i + 1, 0));
+      }
+    };
+  }
+
+  /**
+   * Returns up to {@code limit} itineraries of at most {@code maxFlights}
+   * flights, never visiting a city twice, sorted by total time, then by fids.
+   * Unlike {@link #search}, direct itineraries get no precedence. Two-hop
+   * itineraries whose fids cannot be packed are left out.
+   *
+   * Partial itineraries are expanded best first by their time so far plus the
+   * least time the rest of the trip could take in the flights left, so
+   * itineraries are completed in order of total time and a city that cannot
+   * reach the destination in time is never expanded. Each route's flights are
+   * sorted, so only the next flight of a route is queued when one is taken.
+   */
+  public long[] multiHop(String originCity, String destCity, int dayOfMonth, int maxFlights, int limit) {
+    if (limit < 0)
+      throw new IllegalArgumentException("Number of itineraries must not be negative: " + limit);
+    if (maxFlights < 1 || maxFlights > Itinerary.MAX_FLIGHTS)
+      throw new IllegalArgumentException("Flights per itinerary must be 1 to " + Itinerary.MAX_FLIGHTS + ": "
+                                         + maxFlights);
+    int origin = cities.find(normalize(originCity));
+    int dest = cities.find(normalize(destCity));
+    if (origin < 0 || dest < 0 || origin == dest || limit == 0)
+      return new long[0];
+
+    // Least time from each city to the destination in at most i flights
+    int[][] timeLeft = timesTo(dest, dayOfMonth, maxFlights - 1);
+    Moves[][] moves = new Moves[maxFlights][cities.size()];
+    PriorityQueue<Hop> heap = new PriorityQueue<Hop>();
+    push(heap, null, moves(moves, timeLeft, origin, origin, dayOfMonth, maxFlights - 1));
+
+    List<Long> found = new ArrayList<Long>();
+    int bound = Integer.MAX_VALUE;  // total time of the limit-th itinerary found
+    while (!heap.isEmpty() && heap.peek().estimate <= bound) {
+      Hop hop = heap.poll();
+      if (hop.j + 1 < hop.route.length) {  // the route's next flight is never faster
+        int slower = flights.time(hop.route[hop.j + 1]) - flights.time(hop.fid);
+        heap.add(new Hop(hop.previous, hop.route, hop.j + 1, hop.city, hop.elapsed + slower, hop.estimate + slower));
+      }
+      if (hop.city == dest) {
+        long itin = hop.itinerary();
+        if (itin == Itinerary.NONE)
+          continue;  // not counted toward the limit
+        found.add(itin);
+        if (found.size() == limit)
+          bound = hop.estimate;  // ties are still collected, then ordered by fid
+      } else if (hop.count < maxFlights) {
+        push(heap, hop, moves(moves, timeLeft, origin, hop.city, dayOfMonth, maxFlights - hop.count - 1));
+      }
+    }
+
+    Long[] itineraries = found.toArray(new Long[found.size()]);
+    Arrays.sort(itineraries, (a, b) -> Itinerary.compare(flights, a, b));
+    long[] sorted = new long[Math.min(limit, itineraries.length)];
+    for (int i = 0; i < sorted.length; i++)
+      sorted[i] = itineraries[i];
+    return sorted;
+  }
+
+  // Queues the fastest flight of each route, leaving out routes back to a city
+  // already visited
+  private void push(PriorityQueue<Hop> heap, Hop previous, Moves moves) {
+    int elapsed = previous == null ? 0 : previous.elapsed;
+    for (int i = 0; i < moves.routes.length; i++) {
+      int city = moves.cities[i];
+      if (previous != null && previous.visits(city))
+        continue;
+      int time = elapsed + flights.time(moves.routes[i][0]);
+      heap.add(new Hop(previous, moves.routes[i], 0, city, time, time + moves.timeLeft[i]));
+    }
+  }
+
+  // The routes out of a city on which the destination can still be reached
+  // in flightsLeft more flights, computed once per search
+  private Moves moves(Moves[][] moves, int[][] timeLeft, int origin, int from, int dayOfMonth, int flightsLeft) {
+    Moves m = moves[flightsLeft][from];
+    if (m != null)
+      return m;
+    long key = departureKey(from, dayOfMonth);
+    int[][] routes = departures.get(key);
+    int[] hubs = hubCities.get(key);
+    int[] left = timeLeft[flightsLeft];
+    int size = 0;
+    for (int i = 0; routes != null && i < routes.length; i++) {
+      if (left[hubs[i]] != Integer.MAX_VALUE && hubs[i] != origin)
+        size++;
+    }
+    m = new Moves(size);
+    size = 0;
+    for (int i = 0; routes != null && i < routes.length; i++) {
+      if (left[hubs[i]] != Integer.MAX_VALUE && hubs[i] != origin) {
+        m.routes[size] = routes[i];
+        m.cities[size] = hubs[i];
+        m.timeLeft[size++] = left[hubs[i]];
+      }
+    }
+    moves[flightsLeft][from] = m;
+    return m;
+  }
+
+  // Least time from each city to dest in at most 0, 1, ... maxFlights flights,
+  // by city code, or Integer.MAX_VALUE if it cannot be reached
+  private int[][] timesTo(int dest, int dayOfMonth, int maxFlights) {
+    int[][] times = new int[maxFlights + 1][];
+    times[0] = new int[cities.size()];
+    Arrays.fill(times[0], Integer.MAX_VALUE);
+    times[0][dest] = 0;
+    for (int i = 1; i <= maxFlights; i++) {
+      int[] fewer = times[i - 1];
+      int[] next = fewer.clone();
+      for (int city = 0; city < fewer.length; city++) {
+        long key = departureKey(city, dayOfMonth);
+        int[][] routes = fewer[city] == Integer.MAX_VALUE ? null : arrivals.get(key);
+        if (routes == null)
+          continue;
+        int[] origins = originCities.get(key);
+        for (int r = 0; r < routes.length; r++)  // each route's fastest flight comes first
+          next[origins[r]] = Math.min(next[origins[r]], flights.time(routes[r][0]) + fewer[city]);
+      }
+      times[i] = next;
+    }
+    return times;
+  }
+
+  private int[] route(int origin, int dest, int dayOfMonth) {
+    if (origin < 0 || dest < 0)
+      return null;
+    return routes.get(routeKey(origin, dest, dayOfMonth));
+  }
+
+  private int compareFlights(int a, int b) {
+    int byTime = Integer.compare(flights.time(a), flights.time(b));
+    return byTime != 0 ? byTime : Integer.compare(a, b);
+  }
+
+  // Code of a normalized city name (hub cities are always already known)
+  private int city(String name) {
+    return cities.encode(normalize(name));
+  }
+
+  private static long routeKey(int origin, int dest, int dayOfMonth) {
+    return ((long) origin << 32) | ((long) dest << 8) | (dayOfMonth & 0xFF);
+  }
+
+  private static long departureKey(int origin, int dayOfMonth) {
+    return ((long) origin << 32) | (dayOfMonth & 0xFFFFFFFFL);
+  }
+
+  // Case-insensitive, trailing spaces ignored, like the database's comparisons
+  static String normalize(String city) {
+    int end = city.length();
+    while (end > 0 && city.charAt(end - 1) == ' ')
+      end--;
+    return city.substring(0, end).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Routes out of a city with their destination cities and the least time
+   * left from each
+   */
+  private static class Moves {
+    final int[][] routes;
+    final int[] cities;
+    final int[] timeLeft;
+
+    Moves(int size) {
+      routes = new int[size][];
+      cities = new int[size];
+      timeLeft = new int[size];
+    }
+  }
+
+  /**
+   * Flight {@code route[j]} to {@code city}, taken after the hops of
+   * {@code previous}, ranked by the least total time an itinerary through it
+   * could take
+   */
+  private class Hop implements Comparable<Hop> {
+    final Hop previous;
+    final int[] route;
+    final int j;
+    final int fid;
+    final int count;
+    final int city;
+    final int elapsed;
+    final int estimate;
+
+    Hop(Hop previous, int[] route, int j, int city, int elapsed, int estimate) {
+      this.previous = previous;
+      this.route = route;
+      this.j = j;
+      this.fid = route[j];
+      this.count = previous == null ? 1 : previous.count + 1;
+      this.city = city;
+      this.elapsed = elapsed;
+      this.estimate = estimate;
+    }
+
+    boolean visits(int c) {
+      return city == c || (previous != null && previous.visits(c));
+    }
+
+    // The itinerary ending with this hop, or NONE if it cannot be packed
+    long itinerary() {
+      if (count == 1)
+        return Itinerary.direct(fid);
+      if (count == 2)
+        return Itinerary.oneHop(previous.fid, fid);
+      int fid1 = previous.previous.fid;
+      return Itinerary.fitsTwoHop(fid1, previous.fid, fid) ? Itinerary.twoHop(fid1, previous.fid, fid)
+          : Itinerary.NONE;
+    }
+
+    public int compareTo(Hop other) {
+      if (estimate != other.estimate)
+        return Integer.compare(estimate, other.estimate);
+      return Integer.compare(fid, other.fid);
+    }
+  }
+
+  /**
+   * A one-hop pairing of {@code firstLegs[i]} with {@code secondLegs[j]}
+   */
+  private class Candidate implements Comparable<Candidate> {
+    final int[] firstLegs;
+    final int[] secondLegs;
+    final int i;
+    final int j;
+    final int fid1;
+    final int fid2;
+    final int totalTime;
+
+    Candidate(int[] firstLegs, int[] secondLegs, int i, int j) {
+      this.firstLegs = firstLegs;
+      this.secondLegs = secondLegs;
+      this.i = i;
+      this.j = j;
+      this.fid1 = firstLegs[i];
+      this.fid2 = secondLegs[j];
+      this.totalTime = flights.time(fid1) + flights.time(fid2);
+    }
+
+    public int compareTo(Candidate other) {
+      if (totalTime != other.totalTime)
+        return Integer.compare(totalTime, other.totalTime);
+      if (fid1 != other.fid1)
+        return Integer.compare(fid1, other.fid1);
+      return Integer.compare(fid2, other.fid2);
+    }
+  }
+}
@@ -0,0 +1,247 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Serves the Flights command language over TCP, so many clients can share one
+ * JVM and one connection pool.
+ *
+ * The protocol is line based: each line a client sends is one command, and the
+ * response is written back exactly as the REPL would print it. The session
+ * ends after {@code quit} or when the client closes its side. Every client gets
+ * its own {@code Session}, run on its own thread: a virtual thread when the JVM
+ * has them (Java 21+), otherwise a platform thread. Sessions share one
+ * {@code FlightTransactions} service, so idle clients hold no connections.
+ *
+ * Any client can send commands without logging in, so the admin commands,
+ * {@code clear} and {@code stats reset}, are refused unless the server allows
+ * them.
+ */
+public class FlightServer implements AutoCloseable {
+  // Server settings read from dbconn.properties (all optional)
+  static final String PORT = "server.port";
+  static final String MAX_CONNECTIONS = "server.max_connections";
+  static final String SHUTDOWN_GRACE_MS = "server.shutdown_grace_ms";
+  static final String ALLOW_ADMIN_COMMANDS = "server.allow_admin_commands";
+
+  // Sent to a client turned away because the server is full
+  static final String BUSY = "Error: server busy, try again later\n";
+
+  // Sent instead of running an admin command the server does not allow
+  static final String ADMIN_REFUSED = "Error: admin commands are disabled on this server\n";
+
+  private final FlightTransactions transactions;
+  private final ServerSocket serverSocket;
+  private final int maxConnections;
+  private final long shutdownGraceMillis;
+  private final boolean allowAdminCommands;
+  private final ThreadFactory sessionThreads = sessionThreads();
+
+  // One permit per client that may be connected
+  private final Semaphore slots;
+
+  // Connected clients, closed if they outlive the shutdown grace period
+  private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+
+  private final Thread acceptor;
+  private volatile boolean closed;
+
+  // Server metrics
+  private final AtomicLong accepted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * Binds the server to the given port (0 picks a free one). Clients are only
+   * accepted once the server is started.
+   */
+  public FlightServer(FlightTransactions transactions, int port, int maxConnections, long shutdownGraceMillis)
+      throws IOException {
+    this(transactions, port, maxConnections, shutdownGraceMillis, false);
+  }
+
+  /**
+   * Binds the server like the constructor above, running {@code clear} and
+   * {@code stats reset} for clients only if {@code allowAdminCommands} is set
+   */
+  public FlightServer(FlightTransactions transactions, int port, int maxConnections, long shutdownGraceMillis,
+      boolean allowAdminCommands) throws IOException {
+    if (maxConnections <= 0)
+      throw new IllegalArgumentException("Connection limit must be positive: " + maxConnections);
+    this.transactions = transactions;
+    this.maxConnections = maxConnections;
+    this.shutdownGraceMillis = shutdownGraceMillis;
+    this.allowAdminCommands = allowAdminCommands;
+    this.slots = new Semaphore(maxConnections);
+    this.serverSocket = new ServerSocket(port);
+    this.acceptor = new Thread(this::acceptLoop, "flight-server-acceptor");
+  }
+
+  /**
+   * Starts accepting clients
+   */
+  public FlightServer start() {
+    acceptor.start();
+    return this;
+  }
+
+  /**
+   * The port the server is listening on
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  private void acceptLoop() {
+    while (!closed) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        if (!closed)
+          e.printStackTrace();
+        return;
+      }
+
+      if (!slots.tryAcquire()) {  // Turns the client away rather than queueing it
+        rejected.incrementAndGet();
+        try (Socket s = socket) {
+          s.getOutputStream().write(BUSY.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+          // client already gone
+        }
+        continue;
+      }
+
+      accepted.incrementAndGet();
+      clients.add(socket);
+      try {
+        sessionThreads.newThread(() -> serve(socket)).start();
+      } catch (RuntimeException | Error e) {
+        clients.remove(socket);
+        slots.release();
+        closeQuietly(socket);
+        throw e;
+      }
+    }
+  }
+
+  // Runs one client's session until it quits or disconnects
+  private void serve(Socket socket) {
+    CommandTokenizer tokens = new CommandTokenizer();
+    try (Socket s = socket;
+        BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+      Query q = new Query(transactions);
+      String command;
+      while ((command = in.readLine()) != null) {
+        int count = tokens.reset(command);
+        if (!allowAdminCommands && isAdminCommand(tokens, count))
+          out.append(ADMIN_REFUSED);
+        else
+          FlightService.execute(q, command, out);
+        out.flush();
+        if (count > 0 && tokens.tokenEquals(0, "quit"))
+          break;
+      }
+    } catch (IOException e) {
+      // the client disconnected
+    } finally {
+      clients.remove(socket);
+      slots.release();
+    }
+  }
+
+  // Whether the command changes state shared by every client
+  private static boolean isAdminCommand(CommandTokenizer tokens, int count) {
+    return count > 0 && (tokens.tokenEquals(0, "clear")
+        || (count > 1 && tokens.tokenEquals(0, "stats") && tokens.tokenEquals(1, "reset")));
+  }
+
+  /**
+   * Stops accepting clients, lets connected sessions finish for up to the
+   * grace period, then disconnects whoever is left
+   */
+  @Override
+  public void close() {
+    closed = true;
+    closeQuietly(serverSocket);
+    try {
+      acceptor.join();
+      if (slots.tryAcquire(maxConnections, shutdownGraceMillis, TimeUnit.MILLISECONDS))
+        slots.release(maxConnections);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (Socket socket : clients)
+      closeQuietly(socket);
+  }
+
+  private static void closeQuietly(Closeable c) {
+    try {
+      c.close();
+    } catch (IOException e) {
+      // nothing left to clean up
+    }
+  }
+
+  /**
+   * Creates session threads: virtual threads when the running JVM supports
+   * them, daemon platform threads otherwise
+   */
+  static ThreadFactory sessionThreads() {
+    try {
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "flight-session-", 0L);
+      return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      AtomicInteger count = new AtomicInteger();
+      return r -> {
+        Thread t = new Thread(r, "flight-session-" + count.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      };
+    }
+  }
+
+  public int getConnectedCount() {
+    return clients.size();
+  }
+
+  public long getAcceptedCount() {
+    return accepted.get();
+  }
+
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("FlightServer[port=%d, connected=%d, max=%d, accepted=%d, rejected=%d]", getPort(),
+        getConnectedCount(), maxConnections, getAcceptedCount(), getRejectedCount());
+  }
+
+  /**
+   * Runs the server until the JVM is stopped. The port may be given as the
+   * first argument, otherwise it is read from dbconn.properties.
+   */
+  public static void main(String[] args) throws IOException, SQLException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : AppConfig.getInt(PORT, 8414);
+    FlightTransactions transactions = FlightTransactions.getDefault();
+    FlightServer server = new FlightServer(transactions, port, AppConfig.getInt(MAX_CONNECTIONS, 1000),
+        AppConfig.getLong(SHUTDOWN_GRACE_MS, 10000), AppConfig.getBoolean(ALLOW_ADMIN_COMMANDS, false)).start();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      server.close();
+      transactions.close();
+      System.err.println("Stopped " + server);
+    }, "flight-server-shutdown"));
+    System.err.println("Listening on port " + server.getPort());
+  }
+}
@@ -1,121 +1,174 @@
 package edu.uw.cs;
 
 import java.io.*;
-import java.util.*;
-import java.util.regex.*;
 import java.sql.*;
 
 public class FlightService {
+  // Response to an argument that should be an int but is not
+  private static final String NOT_AN_INT = "Failed to parse integer";
+
+  // Commands understood by execute, looked up by their first token
+  private static final CommandRegistry COMMANDS = new CommandRegistry(TransactionStats.getDefault())
+      .register("clear", CommandRegistry.ANY, null, FlightService::clear)
+      .register("login", 3, "Error: Please provide a username and password", FlightService::login)
+      .register("create", 4, "Error: Please provide a username, password, and initial amount in the account",
+          FlightService::create)
+      .register("search", 6, "Error: Please provide all search parameters <origin_city> <destination_city> "
+          + "<direct> <date> <nb itineraries>", FlightService::search)
+      .register("multisearch", 6, "Error: Please provide all search parameters <origin_city> <destination_city> "
+          + "<max connections> <date> <nb itineraries>", FlightService::multiSearch)
+      .register("book", 2, "Error: Please provide an itinerary_id", FlightService::book)
+      .register("reservations", CommandRegistry.ANY, null, FlightService::reservations)
+      .register("pay", 2, "Error: Please provide a reservation_id", FlightService::pay)
+      .register("cancel", 2, "Error: Please provide a reservation_id", FlightService::cancel)
+      .register("stats", CommandRegistry.ANY, null, FlightService::stats)
+      .register("quit", CommandRegistry.ANY, null, FlightService::quit);
+
+  // Lines that are empty or name no command
+  private static final TransactionStats.Metric UNKNOWN = TransactionStats.getDefault().metric("command_unknown");
+
+  // Each thread reuses its tokenizer from command to command
+  private static final ThreadLocal<CommandTokenizer> TOKENIZER = ThreadLocal.withInitial(CommandTokenizer::new);
 
   /**
    * Execute the specified command on the database query connection
    */
   public static String execute(Query q, String command) {
-    String[] tokens = tokenize(command.trim());
-    String response;
+    StringBuilder response = new StringBuilder();
+    try {
+      execute(q, command, response);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);  // a StringBuilder never throws
+    }
+    return response.toString();
+  }
+
+  /**
+   * Execute the specified command on the database query connection, writing
+   * the response into {@code out}
+   *
+   * @throws IOException if writing to {@code out} fails
+   */
+  public static void execute(Query q, CharSequence command, Appendable out) throws IOException {
+    CommandTokenizer tokens = TOKENIZER.get();
+    long start = System.nanoTime();
 
     // empty input
-    if (tokens.length == 0) {
-      response = "Please enter a command";
-    }
-    
-    else if (tokens[0].equals("clear")) {
-      response = "";
-      q.clearTables();
+    if (tokens.reset(command) == 0) {
+      out.append("Please enter a command");
+      UNKNOWN.record(start, false);
     }
 
-    // login
-    else if (tokens[0].equals("login")) {
-      if (tokens.length == 3) {
-        String username = tokens[1];
-        String password = tokens[2];
-        response = q.transaction_login(username, password);
-      } else {
-        response = "Error: Please provide a username and password";
-      }
+    // unknown command
+    else if (!COMMANDS.dispatch(q, tokens, out)) {
+      tokens.appendToken(0, out.append("Error: unrecognized command '")).append('\'');
+      UNKNOWN.record(start, false);
     }
+  }
 
-    // create
-    else if (tokens[0].equals("create")) {
-      if (tokens.length == 4) {
-        String username = tokens[1];
-        String password = tokens[2];
-        int initAmount = Integer.parseInt(tokens[3]);
-        response = q.transaction_createCustomer(username, password, initAmount);
-      } else {
-        response = "Error: Please provide a username, password, and initial amount in the account";
-      }
-    }
+  private static void clear(Query q, CommandTokenizer args, Appendable out) {
+    q.clearTables();
+  }
 
-    // search
-    else if (tokens[0].equals("search")) {
-      if (tokens.length == 6) {
-        String originCity = tokens[1];
-        String destinationCity = tokens[2];
-        boolean direct = tokens[3].equals("1");
-        try {
-          int day = Integer.valueOf(tokens[4]);
-          int count = Integer.valueOf(tokens[5]);
-          response = q.transaction_search(originCity, destinationCity, direct, day, count);
-        } catch (NumberFormatException e) {
-          response = "Failed to parse integer";
-        }
-      } else {
-        response = "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <nb itineraries>";
-      }
-    }
+  // login
+  private static void login(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    String username = args.token(1);
+    String password = args.token(2);
+    out.append(q.transaction_login(username, password));
+  }
 
-    // book
-    else if (tokens[0].equals("book")) {
-      if (tokens.length == 2) {
-        int itinerary_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_book(itinerary_id);
-      } else {
-        response = "Error: Please provide an itinerary_id";
-      }
+  // create
+  private static void create(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    long initAmount = args.parseInt(3);
+    if (initAmount == CommandTokenizer.NOT_AN_INT) {
+      out.append(NOT_AN_INT);
+      return;
     }
+    String username = args.token(1);
+    String password = args.token(2);
+    out.append(q.transaction_createCustomer(username, password, (int) initAmount));
+  }
 
-    // reservations
-    else if (tokens[0].equals("reservations")) {
-      response = q.transaction_reservations();
+  // search
+  private static void search(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    boolean direct = args.tokenEquals(3, "1");
+    long day = args.parseInt(4);
+    long count = args.parseInt(5);
+    if (day == CommandTokenizer.NOT_AN_INT || count == CommandTokenizer.NOT_AN_INT) {
+      out.append(NOT_AN_INT);
+      return;
     }
+    String originCity = args.token(1);
+    String destinationCity = args.token(2);
+    q.transaction_search(out, originCity, destinationCity, direct, (int) day, (int) count);
+  }
 
-    // pay
-    else if (tokens[0].equals("pay")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_pay(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
+  // multisearch
+  private static void multiSearch(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    long maxConnections = args.parseInt(3);
+    long day = args.parseInt(4);
+    long count = args.parseInt(5);
+    if (maxConnections == CommandTokenizer.NOT_AN_INT || day == CommandTokenizer.NOT_AN_INT
+        || count == CommandTokenizer.NOT_AN_INT) {
+      out.append(NOT_AN_INT);
+      return;
     }
+    String originCity = args.token(1);
+    String destinationCity = args.token(2);
+    q.transaction_multiHopSearch(out, originCity, destinationCity, (int) maxConnections, (int) day, (int) count);
+  }
 
-    // cancel
-    else if (tokens[0].equals("cancel")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_cancel(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
+  // book
+  private static void book(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    long itineraryId = args.parseInt(1);
+    if (itineraryId == CommandTokenizer.NOT_AN_INT)
+      out.append(NOT_AN_INT);
+    else
+      out.append(q.transaction_book((int) itineraryId));
+  }
 
-    // quit
-    else if (tokens[0].equals("quit")) {
-      response = "Goodbye\n";
-    }
+  // reservations
+  private static void reservations(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    q.transaction_reservations(out);
+  }
 
-    // unknown command
-    else {
-      response = "Error: unrecognized command '" + tokens[0] + "'";
+  // pay
+  private static void pay(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    long reservationId = args.parseInt(1);
+    if (reservationId == CommandTokenizer.NOT_AN_INT)
+      out.append(NOT_AN_INT);
+    else
+      out.append(q.transaction_pay((int) reservationId));
+  }
+
+  // cancel
+  private static void cancel(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    long reservationId = args.parseInt(1);
+    if (reservationId == CommandTokenizer.NOT_AN_INT)
+      out.append(NOT_AN_INT);
+    else
+      out.append(q.transaction_cancel((int) reservationId));
+  }
+
+  // stats [reset]
+  private static void stats(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    TransactionStats stats = TransactionStats.getDefault();
+    out.append(stats.report());
+    if (args.count() > 1 && args.tokenEquals(1, "reset")) {
+      stats.snapshotAndReset();
+      out.append("Reset the stats\n");
     }
+  }
 
-    return response;
+  // quit
+  private static void quit(Query q, CommandTokenizer args, Appendable out) throws IOException {
+    out.append("Goodbye\n");
   }
 
   /**
    * Establishes an application-to-database connection and runs the Flights
-   * application REPL
+   * application REPL, or with {@code --batch [file]} runs the commands in the
+   * file (or stdin) non-interactively
    * 
    * @param args
    * @throws IOException
@@ -124,9 +177,28 @@ public class FlightService {
     /* prepare the database connection stuff */
     Query q = new Query();
     q.openConnection();
-    q.prepareStatements();
-    menu(q);
+    if (args.length > 0 && args[0].equals("--batch"))
+      batch(q, args.length > 1 ? args[1] : "-");
+    else
+      menu(q);
     q.closeConnection();
+    FlightTransactions.getDefault().close();
+  }
+
+  /**
+   * Runs the commands in the given file ("-" for stdin), printing the responses
+   * and then a throughput summary on stderr
+   */
+  private static void batch(Query q, String file) throws IOException {
+    BatchMode batch = new BatchMode(q, AppConfig.getInt(BatchMode.BATCH_SIZE, 500));
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out));
+    try (BufferedReader in = new BufferedReader(
+        file.equals("-") ? new InputStreamReader(System.in) : new FileReader(file))) {
+      batch.run(in, out);
+    } finally {
+      out.flush();
+    }
+    System.err.println(batch.summary());
   }
 
   /**
@@ -137,6 +209,7 @@ public class FlightService {
    * @throws IOException
    */
   private static void menu(Query q) throws IOException {
+    BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
     while (true) {
       // print the command options
       System.out.println();
@@ -144,14 +217,16 @@ public class FlightService {
       System.out.println("> create <username> <password> <initial amount>");
       System.out.println("> login <username> <password>");
       System.out.println("> search <origin city> <destination city> <direct> <day of the month> <num itineraries>");
+      System.out.println("> multisearch <origin city> <destination city> <max connections> <day of the month> "
+                         + "<num itineraries>");
       System.out.println("> book <itinerary id>");
       System.out.println("> pay <reservation id>");
       System.out.println("> reservations");
       System.out.println("> cancel <reservation id>");
+      System.out.println("> stats [reset]");
       System.out.println("> quit");
 
       // read an input command from the REPL
-      BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
       System.out.print("> ");
       String command = r.readLine();
 
@@ -163,20 +238,4 @@ public class FlightService {
       }
     }
   }
-
-  /**
-   * Tokenize a string into a string array
-   */
-  private static String[] tokenize(String command) {
-    String regex = "\"([^\"]*)\"|(\\S+)";
-    Matcher m = Pattern.compile(regex).matcher(command);
-    List<String> tokens = new ArrayList<>();
-    while (m.find()) {
-      if (m.group(1) != null)
-        tokens.add(m.group(1));
-      else
-        tokens.add(m.group(2));
-    }
-    return tokens.toArray(new String[0]);
-  }
 }
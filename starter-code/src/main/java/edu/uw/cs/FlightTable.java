@@ -0,0 +1,169 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Compact, shared store of flight rows addressed by fid.
+ *
+ * Each column is a primitive int array (struct-of-arrays) split into pages of
+ * 4096 fids, so only the fid ranges actually seen take memory. Carrier codes,
+ * flight numbers and city names are dictionary-encoded. A fid can be shared
+ * between sessions and rendered whenever its text is needed.
+ *
+ * Writers are serialized. Each put writes the row's columns, then its day,
+ * then the page directory again, and readers always start from the
+ * directory, so a reader given a fid after its put sees the whole row.
+ * Searches store every row they read again; the stored columns do not change
+ * in FLIGHTS, but if one did, a reader racing the put could see a mix of the
+ * old and new values.
+ */
+public class FlightTable {
+  private static final int PAGE_BITS = 12;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+  // Columns of a page
+  private static final int DAY = 0;
+  private static final int CARRIER = 1;
+  private static final int NUMBER = 2;
+  private static final int ORIGIN = 3;
+  private static final int DEST = 4;
+  private static final int TIME = 5;
+  private static final int CAPACITY = 6;
+  private static final int PRICE = 7;
+  private static final int COLUMNS = 8;
+
+  // Table shared by every session
+  private static final FlightTable DEFAULT = new FlightTable();
+
+  // Carrier codes, flight numbers and city names
+  private final StringDictionary strings = new StringDictionary();
+
+  // page -> column -> fid within page; a day of 0 marks a missing row
+  private volatile int[][][] pages = new int[0][][];
+
+  private int rowCount;
+
+  /**
+   * The table shared by every session
+   */
+  public static FlightTable getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Stores a flight row and returns its fid
+   */
+  public synchronized int put(int fid, int dayOfMonth, String carrierId, String flightNum, String originCity,
+      String destCity, int time, int capacity, int price) {
+    if (fid < 0)
+      throw new IllegalArgumentException("Invalid fid: " + fid);
+    int[][] page = page(fid >>> PAGE_BITS);
+    int row = fid & (PAGE_SIZE - 1);
+    if (page[DAY][row] == 0)
+      rowCount++;
+    page[CARRIER][row] = strings.encode(carrierId);
+    page[NUMBER][row] = strings.encode(flightNum);
+    page[ORIGIN][row] = strings.encode(originCity);
+    page[DEST][row] = strings.encode(destCity);
+    page[TIME][row] = time;
+    page[CAPACITY][row] = capacity;
+    page[PRICE][row] = price;
+    page[DAY][row] = dayOfMonth;
+    pages = pages;  // publishes the row to readers on other threads
+    return fid;
+  }
+
+  /**
+   * Stores the flight in the current row, reading the columns whose names
+   * start with the given prefix, and returns its fid
+   */
+  public int put(ResultSet r, String prefix) throws SQLException {
+    return put(r.getInt(prefix + "fid"), r.getInt(prefix + "day_of_month"), r.getString(prefix + "carrier_id"),
+        r.getString(prefix + "flight_num"), r.getString(prefix + "origin_city"), r.getString(prefix + "dest_city"),
+        r.getInt(prefix + "actual_time"), r.getInt(prefix + "capacity"), r.getInt(prefix + "price"));
+  }
+
+  /**
+   * Whether the flight has been stored
+   */
+  public boolean contains(int fid) {
+    int[][][] current = pages;
+    int p = fid >>> PAGE_BITS;
+    return fid >= 0 && p < current.length && current[p] != null && current[p][DAY][fid & (PAGE_SIZE - 1)] != 0;
+  }
+
+  /**
+   * Number of flights stored
+   */
+  public synchronized int size() {
+    return rowCount;
+  }
+
+  public int dayOfMonth(int fid) {
+    return get(fid, DAY);
+  }
+
+  public String carrierId(int fid) {
+    return strings.decode(get(fid, CARRIER));
+  }
+
+  public String flightNum(int fid) {
+    return strings.decode(get(fid, NUMBER));
+  }
+
+  public String originCity(int fid) {
+    return strings.decode(get(fid, ORIGIN));
+  }
+
+  public String destCity(int fid) {
+    return strings.decode(get(fid, DEST));
+  }
+
+  public int time(int fid) {
+    return get(fid, TIME);
+  }
+
+  public int capacity(int fid) {
+    return get(fid, CAPACITY);
+  }
+
+  public int price(int fid) {
+    return get(fid, PRICE);
+  }
+
+  /**
+   * Appends the flight in the format used by search and reservations,
+   * writing its fields straight into the sink
+   */
+  public <A extends Appendable> A appendFlight(int fid, A out) throws IOException {
+    int[][] page = pages[fid >>> PAGE_BITS];
+    int row = fid & (PAGE_SIZE - 1);
+    Appendables.appendInt(out.append("ID: "), fid);
+    Appendables.appendInt(out.append(" Day: "), page[DAY][row]);
+    out.append(" Carrier: ").append(strings.decode(page[CARRIER][row]));
+    out.append(" Number: ").append(strings.decode(page[NUMBER][row]));
+    out.append(" Origin: ").append(strings.decode(page[ORIGIN][row]));
+    out.append(" Dest: ").append(strings.decode(page[DEST][row]));
+    Appendables.appendInt(out.append(" Duration: "), page[TIME][row]);
+    Appendables.appendInt(out.append(" Capacity: "), page[CAPACITY][row]);
+    Appendables.appendInt(out.append(" Price: "), page[PRICE][row]);
+    return out;
+  }
+
+  private int get(int fid, int column) {
+    return pages[fid >>> PAGE_BITS][column][fid & (PAGE_SIZE - 1)];
+  }
+
+  // Returns the page, allocating it (and growing the directory) if needed
+  private int[][] page(int p) {
+    int[][][] current = pages;
+    if (p >= current.length)
+      current = Arrays.copyOf(current, Math.max(p + 1, current.length * 2));
+    if (current[p] == null)
+      current[p] = new int[COLUMNS][PAGE_SIZE];
+    pages = current;
+    return current[p];
+  }
+}
@@ -0,0 +1,854 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs the Flights transactions against a {@link Storage} backend, chosen in
+ * dbconn.properties: SQL Server through JDBC, or an in-memory store.
+ *
+ * The service keeps no per-user state: the user a transaction runs for, and
+ * the itineraries they last searched for, are passed in as a {@link Session},
+ * and the storage holds database resources only while an operation runs. One
+ * service is shared by every session.
+ */
+public class FlightTransactions {
+  // Selects the storage backend, "jdbc" or "memory" (dbconn.properties)
+  static final String STORAGE = "storage";
+
+  // Service shared by the whole application, created on first use
+  private static FlightTransactions defaultTransactions;
+
+  // Services for other pools, one per pool so their sessions share its
+  // reservation IDs (guarded by the class lock)
+  private static final Map<ConnectionPool, FlightTransactions> poolTransactions =
+      new IdentityHashMap<ConnectionPool, FlightTransactions>();
+
+  // Where the users, reservations and seat counts are kept
+  private final Storage storage;
+
+  // Shared store of the flight rows that itineraries refer to
+  private final FlightTable flights = FlightTable.getDefault();
+
+  // Shared in-memory flight index, null when searches go to the database
+  private final FlightIndex flightIndex;
+
+  // Shared cache of search results, null when disabled
+  private final SearchCache searchCache;
+
+  // Hands out reservation IDs shared by every session
+  private final ReservationIdAllocator reservationIds;
+
+  // Hashes and verifies passwords off the session threads
+  private final PasswordHasher hasher;
+
+  // Shared cache of logged-in users' accounts, null when disabled
+  private final AccountCache accounts;
+
+  // Latencies and outcomes of each transaction, shared by every service
+  private final TransactionStats stats = TransactionStats.getDefault();
+  private final TransactionStats.Metric loginMetric = stats.metric("transaction_login");
+  private final TransactionStats.Metric createMetric = stats.metric("transaction_createCustomer");
+  private final TransactionStats.Metric createBatchMetric = stats.metric("transaction_createCustomers");
+  private final TransactionStats.Metric searchMetric = stats.metric("transaction_search");
+  private final TransactionStats.Metric multiHopSearchMetric = stats.metric("transaction_multiHopSearch");
+  private final TransactionStats.Metric bookMetric = stats.metric("transaction_book");
+  private final TransactionStats.Metric payMetric = stats.metric("transaction_pay");
+  private final TransactionStats.Metric reservationsMetric = stats.metric("transaction_reservations");
+  private final TransactionStats.Metric cancelMetric = stats.metric("transaction_cancel");
+
+  public FlightTransactions(Storage storage, ReservationIdAllocator reservationIds, FlightIndex flightIndex,
+      SearchCache searchCache, PasswordHasher hasher, AccountCache accounts) {
+    this.storage = storage;
+    this.reservationIds = reservationIds;
+    this.flightIndex = flightIndex;
+    this.searchCache = searchCache;
+    this.hasher = hasher;
+    this.accounts = accounts;
+  }
+
+  /**
+   * Returns the service for the storage chosen in dbconn.properties, with the
+   * in-memory flight index and the caches if they are enabled, and starts
+   * the periodic stats snapshots if they are configured. The dbconn.properties
+   * configuration settings are only read the first time it is needed.
+   */
+  public static synchronized FlightTransactions getDefault() throws IOException, SQLException {
+    if (defaultTransactions == null) {
+      if (AppConfig.getString(STORAGE, "jdbc").equals("memory"))
+        defaultTransactions = forStorage(MemoryStorage.getDefault(), null);
+      else
+        defaultTransactions = forPool(ConnectionPool.getDefault());
+      TransactionStats.startConfiguredSnapshots();
+    }
+    return defaultTransactions;
+  }
+
+  /**
+   * Returns a service whose transactions borrow their connections from the
+   * given pool: the default service for the application's pool, otherwise
+   * the pool's own service, configured from dbconn.properties the first time
+   * it is asked for. The default service brings the database schema up to
+   * date before its first use.
+   */
+  public static synchronized FlightTransactions forPool(ConnectionPool pool) throws IOException, SQLException {
+    if (pool == ConnectionPool.getDefault()) {
+      if (defaultTransactions == null) {
+        SchemaMigrations.migrateIfEnabled(TransactionRunner.getDefault());
+        defaultTransactions = forStorage(JdbcStorage.getDefault(), FlightIndex.getDefault(pool));
+      }
+      return defaultTransactions;
+    }
+    FlightTransactions transactions = poolTransactions.get(pool);
+    if (transactions == null) {
+      transactions = forStorage(new JdbcStorage(pool, TransactionRunner.fromConfig(pool)),
+          FlightIndex.getDefault(pool));
+      poolTransactions.put(pool, transactions);
+    }
+    return transactions;
+  }
+
+  /**
+   * Returns a new service over the given storage, configured from
+   * dbconn.properties. Searches go to the flight index if one is given.
+   */
+  public static FlightTransactions forStorage(Storage storage, FlightIndex flightIndex) throws IOException {
+    return new FlightTransactions(storage, ReservationIdAllocator.fromConfig(storage), flightIndex,
+        SearchCache.getDefault(), PasswordHasher.getDefault(), AccountCache.getDefault());
+  }
+
+  /**
+   * A service with no storage, index, caches or hasher, for tests of commands
+   * that never reach them
+   */
+  static FlightTransactions offline() {
+    return new FlightTransactions(null, null, null, null, null, null);
+  }
+
+  /**
+   * The storage this service runs its transactions on
+   */
+  public Storage getStorage() {
+    return storage;
+  }
+
+  /**
+   * Closes the storage
+   */
+  public void close() {
+    synchronized (FlightTransactions.class) {
+      poolTransactions.values().remove(this);
+    }
+    storage.close();
+  }
+
+  /**
+   * Clear the data in any custom tables created.
+   * 
+   * WARNING! Do not drop any tables and do not clear the flights table.
+   */
+  public void clearTables() {
+    try {
+      storage.clear();
+      if (searchCache != null)
+        searchCache.clear();
+      if (accounts != null)
+        accounts.clear();
+      reservationIds.reset();
+      hasher.clearCache();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Takes a user's username and password and attempts to log the user in.
+   *
+   * @param session  the session to log in
+   * @param username user's username
+   * @param password user's password
+   *
+   * @return If someone has already logged in, then return "User already logged
+   *         in\n" For all other errors, return "Login failed\n". Otherwise,
+   *         return "Logged in as [username]\n".
+   */
+  public String transaction_login(Session session, String username, String password) {
+    long start = System.nanoTime();
+    String response = login(session, username, password);
+    loginMetric.record(start, !TransactionStats.isFailure(response));
+    return response;
+  }
+
+  private String login(Session session, String username, String password) {
+    if (session.isLoggedIn())
+      return "User already logged in\n";
+
+    try {
+      String stored = storage.userPassword(username);
+
+      // The password is checked after the storage is done with the lookup,
+      // since hashing it takes far longer than the query
+      if (stored != null && hasher.verify(username, password, stored)) {
+        if (accounts != null)
+          accounts.logIn(username, storage);
+        session.logIn(username);
+        return "Logged in as " + username + "\n";
+      }
+      return "Login failed\n";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "Login failed\n";
+    } catch (Exception e) {
+      return "Login failed\n";
+    }
+  }
+
+  /**
+   * Implement the create user function.
+   *
+   * @param username   new user's username. User names are unique the system.
+   * @param password   new user's password.
+   * @param initAmount initial amount to deposit into the user's account, should
+   *                   be >= 0 (failure otherwise).
+   *
+   * @return either "Created user {@code username}\n" or "Failed to create user\n"
+   *         if failed.
+   */
+  public String transaction_createCustomer(String username, String password, int initAmount) {
+    long start = System.nanoTime();
+    String response = createCustomer(username, password, initAmount);
+    createMetric.record(start, !TransactionStats.isFailure(response));
+    return response;
+  }
+
+  private String createCustomer(String username, String password, int initAmount) {
+    if (initAmount < 0) {
+      return "Failed to create user\n";
+    }
+
+    try {
+      if (storage.createUser(username, hasher.hash(password), initAmount))
+        return "Created user " + username + "\n";
+      return "Failed to create user\n";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "Failed to create user\n";
+    } catch (Exception e) {
+      return "Failed to create user\n";
+    }
+  }
+
+  /**
+   * Creates several users with one storage call (one JDBC batch for SQL
+   * Server), answering each one the way
+   * {@link #transaction_createCustomer(String, String, int)} would. Each user
+   * is created independently, so a duplicate username fails only its own row.
+   *
+   * @return one response per user, in order
+   */
+  public String[] transaction_createCustomers(String[] usernames, String[] passwords, int[] initAmounts) {
+    long start = System.nanoTime();
+    String[] responses = createCustomers(usernames, passwords, initAmounts);
+    boolean allCreated = true;
+    for (String response : responses)
+      allCreated = allCreated && !TransactionStats.isFailure(response);
+    createBatchMetric.record(start, allCreated);
+    return responses;
+  }
+
+  private String[] createCustomers(String[] usernames, String[] passwords, int[] initAmounts) {
+    String[] responses = new String[usernames.length];
+    List<Future<String>> hashes = new ArrayList<Future<String>>(Collections.nCopies(usernames.length, null));
+    try {
+      for (int i = 0; i < usernames.length; i++) {  // Hashes the passwords in parallel
+        if (initAmounts[i] >= 0)
+          hashes.set(i, hasher.hashAsync(passwords[i]));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();  // the rest fail below
+    } catch (Exception e) {
+      // the rest are hashed one at a time below
+    }
+
+    String[] stored = new String[usernames.length];
+    int[] rows = new int[usernames.length];  // users sent in the batch
+    int rowCount = 0;
+    for (int i = 0; i < usernames.length; i++) {
+      if (initAmounts[i] < 0) {
+        responses[i] = "Failed to create user\n";
+        continue;
+      }
+      try {
+        stored[i] = hashes.get(i) != null ? hashes.get(i).get() : hasher.hash(passwords[i]);
+        rows[rowCount++] = i;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        responses[i] = "Failed to create user\n";
+      } catch (Exception e) {
+        responses[i] = "Failed to create user\n";
+      }
+    }
+    if (rowCount == 0)
+      return responses;
+
+    String[] batchUsernames = new String[rowCount];
+    String[] batchPasswords = new String[rowCount];
+    int[] batchAmounts = new int[rowCount];
+    for (int j = 0; j < rowCount; j++) {
+      batchUsernames[j] = usernames[rows[j]];
+      batchPasswords[j] = stored[rows[j]];
+      batchAmounts[j] = initAmounts[rows[j]];
+    }
+    boolean[] created;
+    try {
+      created = storage.createUsers(batchUsernames, batchPasswords, batchAmounts);
+    } catch (Exception e) {
+      created = new boolean[rowCount];
+    }
+
+    for (int j = 0; j < rowCount; j++) {
+      int i = rows[j];
+      responses[i] = created[j] ? "Created user " + usernames[i] + "\n" : "Failed to create user\n";
+    }
+    return responses;
+  }
+
+  /**
+   * Implement the search function.
+   *
+   * Searches for flights from the given origin city to the given destination
+   * city, on the given day of the month. If {@code directFlight} is true, it only
+   * searches for direct flights, otherwise is searches for direct flights and
+   * flights with two "hops." Only searches for up to the number of itineraries
+   * given by {@code numberOfItineraries}.
+   *
+   * The results are sorted based on total flight time, with ties broken by the
+   * first and then the second flight's fid.
+   *
+   * @param session             the session that books from the results
+   * @param originCity
+   * @param destinationCity
+   * @param directFlight        if true, then only search for direct flights,
+   *                            otherwise include indirect flights as well
+   * @param dayOfMonth
+   * @param numberOfItineraries number of itineraries to return
+   *
+   * @return If no itineraries were found, return "No flights match your
+   *         selection\n". If an error occurs, then return "Failed to search\n".
+   *
+   *         Otherwise, the sorted itineraries printed in the following format:
+   *
+   *         Itinerary [itinerary number]: [number of flights] flight(s), [total
+   *         flight time] minutes\n [first flight in itinerary]\n ... [last flight
+   *         in itinerary]\n
+   *
+   *         Each flight should be printed in the format that
+   *         {@code FlightTable} renders it in. Itinerary numbers in each search
+   *         should always start from 0 and increase by 1.
+   *
+   * @see FlightTable#appendFlight(int, Appendable)
+   */
+  public String transaction_search(Session session, String originCity, String destinationCity, boolean directFlight,
+      int dayOfMonth, int numberOfItineraries) {
+    StringBuilder response = new StringBuilder();
+    try {
+      transaction_search(session, response, originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);  // a StringBuilder never throws
+    }
+    return response.toString();
+  }
+
+  /**
+   * Runs a search and writes the response into {@code out}, rendering each
+   * flight straight into it.
+   *
+   * @throws IOException if writing to {@code out} fails
+   *
+   * @see #transaction_search(Session, String, String, boolean, int, int)
+   */
+  public void transaction_search(Session session, Appendable out, String originCity, String destinationCity, boolean directFlight,
+      int dayOfMonth, int numberOfItineraries) throws IOException {
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      ok = search(session, out, originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries);
+    } finally {
+      searchMetric.record(start, ok);
+    }
+  }
+
+  // Returns whether the search ran, even if it found nothing
+  private boolean search(Session session, Appendable out, String originCity, String destinationCity,
+      boolean directFlight, int dayOfMonth, int numberOfItineraries) throws IOException {
+    if (searchCache != null) {
+      SearchCache.Entry cached = searchCache.get(originCity, destinationCity, directFlight, dayOfMonth,
+          numberOfItineraries);
+      if (cached != null) {
+        session.setItineraries(cached.itineraries());
+        out.append(cached.rendered());
+        return true;
+      }
+    }
+
+    long[] found;
+    try {
+      if (flightIndex != null)
+        found = flightIndex.search(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries);
+      else
+        found = storage.search(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries);
+    } catch (Exception e) {
+      out.append("Failed to search\n");
+      return false;
+    }
+    session.setItineraries(found);
+
+    if (searchCache == null) {
+      appendItineraries(found, out);
+      return true;
+    }
+
+    // The cache keeps the rendered text, so it is built once and copied out
+    String rendered = appendItineraries(found, new StringBuilder()).toString();
+    searchCache.put(originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries, found, rendered);
+    out.append(rendered);
+    return true;
+  }
+
+  /**
+   * Searches for the fastest itineraries from the given origin city to the
+   * given destination city on the given day of the month, with up to
+   * {@code maxConnections} connections. Itineraries are only ranked by total
+   * flight time, with ties broken by their fids in flight order, so a direct
+   * flight gets no precedence over a faster one with connections.
+   *
+   * Each extra connection would take another FLIGHTS self-join in SQL, so the
+   * search always runs on an in-memory graph of the day's flights. Results
+   * are printed in the format of
+   * {@link #transaction_search(Session, String, String, boolean, int, int)}
+   * and can be booked the same way.
+   *
+   * @param maxConnections connections allowed per itinerary, at most
+   *                       {@code Itinerary.MAX_FLIGHTS - 1}
+   *
+   * @return "Failed to search\n" if an error occurs, including a number of
+   *         connections that is out of range, otherwise the sorted itineraries
+   */
+  public String transaction_multiHopSearch(Session session, String originCity, String destinationCity,
+      int maxConnections, int dayOfMonth, int numberOfItineraries) {
+    StringBuilder response = new StringBuilder();
+    try {
+      transaction_multiHopSearch(session, response, originCity, destinationCity, maxConnections, dayOfMonth,
+          numberOfItineraries);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);  // a StringBuilder never throws
+    }
+    return response.toString();
+  }
+
+  /**
+   * Runs a multi-hop search and writes the response into {@code out}.
+   *
+   * @throws IOException if writing to {@code out} fails
+   *
+   * @see #transaction_multiHopSearch(Session, String, String, int, int, int)
+   */
+  public void transaction_multiHopSearch(Session session, Appendable out, String originCity,
+      String destinationCity, int maxConnections, int dayOfMonth, int numberOfItineraries) throws IOException {
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      ok = multiHopSearch(session, out, originCity, destinationCity, maxConnections, dayOfMonth,
+          numberOfItineraries);
+    } finally {
+      multiHopSearchMetric.record(start, ok);
+    }
+  }
+
+  // Returns whether the search ran, even if it found nothing
+  private boolean multiHopSearch(Session session, Appendable out, String originCity, String destinationCity,
+      int maxConnections, int dayOfMonth, int numberOfItineraries) throws IOException {
+    long[] found;
+    try {
+      if (flightIndex != null)
+        found = flightIndex.multiHop(originCity, destinationCity, dayOfMonth, maxConnections + 1,
+            numberOfItineraries);
+      else
+        found = storage.multiHopSearch(originCity, destinationCity, maxConnections + 1, dayOfMonth,
+            numberOfItineraries);
+    } catch (Exception e) {
+      out.append("Failed to search\n");
+      return false;
+    }
+    session.setItineraries(found);
+    appendItineraries(found, out);
+    return true;
+  }
+
+  // Appends numbered itineraries in the search format
+  private <A extends Appendable> A appendItineraries(long[] itineraries, A out) throws IOException {
+    for (int i = 0; i < itineraries.length; i++) {
+      Appendables.appendInt(out.append("Itinerary "), i).append(": ");
+      Itinerary.appendTo(flights, itineraries[i], out);
+    }
+    return out;
+  }
+
+  /**
+   * Implements the book itinerary function.
+   *
+   * @param session     the session booking the itinerary
+   * @param itineraryId ID of the itinerary to book. This must be one that is
+   *                    returned by search in the current session.
+   *
+   * @return If the user is not logged in, then return "Cannot book reservations,
+   *         not logged in\n". If try to book an itinerary with invalid ID, then
+   *         return "No such itinerary {@code itineraryId}\n". If the user already
+   *         has a reservation on the same day as the one that they are trying to
+   *         book now, then return "You cannot book two flights in the same
+   *         day\n". For all other errors, return "Booking failed\n".
+   *
+   *         And if booking succeeded, return "Booked flight(s), reservation ID:
+   *         [reservationId]\n" where reservationId is a unique number in the
+   *         reservation system that starts from 1 and increments by 1 each time a
+   *         successful reservation is made by any user in the system. The ID is
+   *         drawn before the storage decides, and a refused booking gives it
+   *         back for a later one, so concurrent bookings may be numbered out of
+   *         order. A booking that fails with an unknown outcome keeps its ID.
+   */
+  public String transaction_book(Session session, int itineraryId) {
+    long start = System.nanoTime();
+    String response = book(session, itineraryId);
+    bookMetric.record(start, !TransactionStats.isFailure(response));
+    return response;
+  }
+
+  private String book(Session session, int itineraryId) {
+    String username = session.getUsername();
+    if (username == null) {
+      return "Cannot book reservations, not logged in\n";
+    }
+
+    if (session.getItineraryCount() <= itineraryId || itineraryId < 0) {  // Error if invalid itinerary ID
+      return "No such itinerary " + itineraryId + "\n";
+    }
+
+    long currentItin = session.getItinerary(itineraryId);
+    int day = flights.dayOfMonth(Itinerary.firstFid(currentItin));
+    AccountCache.Entry account;
+    try {
+      account = account(username);
+    } catch (Exception e) {
+      return "Booking failed\n";
+    }
+    if (account == null)
+      return book(username, day, currentItin, null);
+
+    // The account stays locked until the booking is written, so the same-day
+    // rule holds across the user's sessions
+    synchronized (account) {
+      if (account.hasBookedOn(day)) {
+        accounts.answered();
+        return "You cannot book two flights in the same day\n";
+      }
+      return book(username, day, currentItin, account);
+    }
+  }
+
+  // Writes a booking, keeping the user's cached account, if any, in step
+  private String book(String username, int day, long currentItin, AccountCache.Entry account) {
+    try {
+      long rid = reservationIds.next();
+      int cost = Itinerary.cost(flights, currentItin);
+      int status;
+      try {
+        status = storage.book(username, day, currentItin, (int) rid, cost);
+      } catch (Exception e) {
+        if (account != null)
+          account.invalidate();  // the booking may have been written
+        throw e;
+      }
+
+      if (status != Storage.BOOK_OK) {
+        reservationIds.release(rid);  // Lets the next booking use the unused ID
+        if (status == Storage.BOOK_SAME_DAY) {
+          if (account != null)
+            account.bookedOn(day);
+          return "You cannot book two flights in the same day\n";
+        }
+        return "Booking failed\n";
+      }
+      if (account != null)
+        account.booked((int) rid, day, cost, currentItin);
+
+      if (searchCache != null) {  // Drops cached searches showing these flights
+        for (int i = 0; i < Itinerary.flightCount(currentItin); i++)
+          searchCache.invalidateFlight(Itinerary.fid(currentItin, i));
+      }
+
+      return "Booked flight(s), reservation ID: " + rid + "\n";
+    } catch(Exception e) {
+      return "Booking failed\n";
+    }
+  }
+
+  /**
+   * Implements the pay function.
+   *
+   * @param session       the session paying
+   * @param reservationId the reservation to pay for.
+   *
+   * @return If no user has logged in, then return "Cannot pay, not logged in\n"
+   *         If the reservation is not found / not under the logged in user's
+   *         name, then return "Cannot find unpaid reservation [reservationId]
+   *         under user: [username]\n" If the user does not have enough money in
+   *         their account, then return "User has only [balance] in account but
+   *         itinerary costs [cost]\n" For all other errors, return "Failed to pay
+   *         for reservation [reservationId]\n"
+   *
+   *         If successful, return "Paid reservation: [reservationId] remaining
+   *         balance: [balance]\n" where [balance] is the remaining balance in the
+   *         user's account.
+   */
+  public String transaction_pay(Session session, int reservationId) {
+    long start = System.nanoTime();
+    String response = pay(session, reservationId);
+    payMetric.record(start, !TransactionStats.isFailure(response));
+    return response;
+  }
+
+  private String pay(Session session, int reservationId) {
+    String username = session.getUsername();
+    if (username == null)
+      return "Cannot pay, not logged in\n";
+
+    try {
+      AccountCache.Entry account = account(username);
+      if (account == null)
+        return pay(username, reservationId, null);
+      synchronized (account) {
+        AccountCache.Reservation r = account.reservation(reservationId);
+        if (r == null || r.isPaid()) {
+          accounts.answered();
+          return "Cannot find unpaid reservation " + reservationId + " under user: " + username + "\n";
+        }
+        if (account.balance() < r.cost) {
+          accounts.answered();
+          return "User has only " + account.balance() + " in account but itinerary costs " + r.cost + "\n";
+        }
+        return pay(username, reservationId, account);
+      }
+    } catch(Exception e) {
+      return "Failed to pay for reservation " + reservationId + "\n";
+    }
+  }
+
+  // Writes a payment, keeping the user's cached account, if any, in step
+  private String pay(String username, int reservationId, AccountCache.Entry account) throws SQLException {
+    Storage.Payment payment;
+    try {
+      payment = storage.pay(reservationId, username);
+    } catch (SQLException | RuntimeException e) {
+      if (account != null)
+        account.invalidate();  // the payment may have been written
+      throw e;
+    }
+    if (payment.status == Storage.PAY_NOT_FOUND) { // different user's reservation or already paid for
+      if (account != null)
+        account.invalidate();
+      return "Cannot find unpaid reservation " + reservationId + " under user: " + username + "\n";
+    }
+    if (payment.status == Storage.PAY_INSUFFICIENT) {
+      if (account != null)
+        account.balanceIs(payment.balance);
+      return "User has only " + payment.balance + " in account but itinerary costs " + payment.cost + "\n";
+    }
+    if (account != null)
+      account.paid(reservationId, payment.balance);
+    return "Paid reservation: " + reservationId + " remaining balance: " + payment.balance + "\n";
+  }
+
+  /**
+   * Implements the reservations function.
+   *
+   * @param session the session whose user's reservations are listed
+   *
+   * @return If no user has logged in, then return "Cannot view reservations, not
+   *         logged in\n" If the user has no reservations, then return "No
+   *         reservations found\n" For all other errors, return "Failed to
+   *         retrieve reservations\n"
+   *
+   *         Otherwise return the reservations in the following format:
+   *
+   *         Reservation [reservation ID] paid: [true or false]:\n" [flight 1
+   *         under the reservation] [flight 2 under the reservation] Reservation
+   *         [reservation ID] paid: [true or false]:\n" [flight 1 under the
+   *         reservation] [flight 2 under the reservation] ...
+   *
+   *         Each flight should be printed in the format that
+   *         {@code FlightTable} renders it in.
+   *
+   * @see FlightTable#appendFlight(int, Appendable)
+   */
+  public String transaction_reservations(Session session) {
+    StringBuilder response = new StringBuilder();
+    try {
+      transaction_reservations(session, response);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);  // a StringBuilder never throws
+    }
+    return response.toString();
+  }
+
+  /**
+   * Lists the user's reservations into {@code out}, rendering each flight
+   * straight into it.
+   *
+   * @throws IOException if writing to {@code out} fails
+   *
+   * @see #transaction_reservations(Session)
+   */
+  public void transaction_reservations(Session session, Appendable out) throws IOException {
+    long start = System.nanoTime();
+    boolean ok = false;
+    try {
+      ok = reservations(session, out);
+    } finally {
+      reservationsMetric.record(start, ok);
+    }
+  }
+
+  // Returns whether the user's reservations were listed, even if there are none
+  private boolean reservations(Session session, Appendable out) throws IOException {
+    String username = session.getUsername();
+    if (username == null) {
+      out.append("Cannot view reservations, not logged in\n");
+      return false;
+    }
+
+    AccountCache.Entry account;
+    try {
+      account = account(username);
+    } catch(Exception e) {
+      out.append("Failed to retrieve reservations\n");
+      return false;
+    }
+    if (account != null) {
+      synchronized (account) {
+        appendReservations(account, out);
+      }
+      accounts.answered();
+      return true;
+    }
+
+    // Rows are read before anything is written, so a retried query never
+    // writes a reservation twice
+    Storage.Reservations rows;
+    try {
+      rows = storage.reservations(username);
+    } catch(Exception e) {
+      out.append("Failed to retrieve reservations\n");
+      return false;
+    }
+
+    if (rows.size() == 0) {
+      out.append("No reservations found\n");
+      return true;
+    }
+
+    for (int i = 0; i < rows.size(); i++)  // Prints out reservations
+      appendReservation(rows.rid(i), rows.isPaid(i), rows.itinerary(i), out);
+    return true;
+  }
+
+  // Lists the reservations of a cached account that are not cancelled
+  private void appendReservations(AccountCache.Entry account, Appendable out) throws IOException {
+    boolean found = false;
+    for (Map.Entry<Integer, AccountCache.Reservation> e : account.reservations().entrySet()) {
+      AccountCache.Reservation r = e.getValue();
+      if (r.isCancelled())
+        continue;
+      appendReservation(e.getKey(), r.isPaid(), r.itinerary, out);
+      found = true;
+    }
+    if (!found)
+      out.append("No reservations found\n");
+  }
+
+  private void appendReservation(int rid, boolean paid, long itin, Appendable out) throws IOException {
+    Appendables.appendInt(out.append("Reservation "), rid).append(" paid: ");
+    out.append(paid ? "true:\n" : "false:\n");
+    for (int i = 0; i < Itinerary.flightCount(itin); i++)
+      flights.appendFlight(Itinerary.fid(itin, i), out).append('\n');
+  }
+
+  /**
+   * Implements the cancel operation.
+   *
+   * @param session       the session cancelling
+   * @param reservationId the reservation ID to cancel
+   *
+   * @return If no user has logged in, then return "Cannot cancel reservations,
+   *         not logged in\n" For all other errors, return "Failed to cancel
+   *         reservation [reservationId]\n"
+   *
+   *         If successful, return "Canceled reservation [reservationId]\n"
+   *
+   *         Even though a reservation has been canceled, its ID should not be
+   *         reused by the system.
+   */
+  public String transaction_cancel(Session session, int reservationId) {
+    long start = System.nanoTime();
+    String response = cancel(session, reservationId);
+    cancelMetric.record(start, !TransactionStats.isFailure(response));
+    return response;
+  }
+
+  private String cancel(Session session, int reservationId) {
+    String username = session.getUsername();
+    if (username == null)
+      return "Cannot cancel reservations, not logged in\n";
+
+    AccountCache.Entry account = null;
+    try {
+      account = account(username);
+      if (account == null)
+        return storage.cancel(reservationId, username) ? "Canceled reservation " + reservationId + "\n"
+            : "Failed to cancel reservation " + reservationId + "\n";
+      synchronized (account) {
+        AccountCache.Reservation r = account.reservation(reservationId);
+        if (r == null || r.isCancelled()) {
+          accounts.answered();
+          return "Failed to cancel reservation " + reservationId + "\n";
+        }
+        if (!storage.cancel(reservationId, username)) {
+          account.invalidate();
+          return "Failed to cancel reservation " + reservationId + "\n";
+        }
+        account.cancelled(reservationId);
+        return "Canceled reservation " + reservationId + "\n";
+      }
+    } catch(Exception e) {
+      e.printStackTrace();
+      if (account != null) {
+        synchronized (account) {
+          account.invalidate();  // the cancellation may have been written
+        }
+      }
+      return "Failed to cancel reservation " + reservationId + "\n";
+    }
+  }
+
+  // The user's cached account, read again if a write left it stale, or null
+  // if it is not cached
+  private AccountCache.Entry account(String username) throws SQLException {
+    if (accounts == null)
+      return null;
+    AccountCache.Entry account = accounts.get(username);
+    if (account != null && !account.load(username, storage))
+      return null;
+    return account;
+  }
+}
@@ -0,0 +1,71 @@
+package edu.uw.cs;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Measures how many logins per second {@code PasswordHasher} can verify at
+ * several PBKDF2 iteration counts, with every login hashed and with repeated
+ * logins answered from the verification cache. Each user has logged in once
+ * before the clock starts.
+ *
+ * Usage: HashBenchmark [iteration counts...]
+ */
+public class HashBenchmark {
+  // Time each measurement runs for
+  private static final long RUN_MILLIS = 3000;
+
+  // Distinct users logging in
+  private static final int USERS = 64;
+
+  public static void main(String[] args) throws Exception {
+    int[] iterationCounts = args.length == 0 ? new int[] { 1000, 10000, PasswordHasher.HASH_STRENGTH }
+        : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+    int threads = Runtime.getRuntime().availableProcessors();
+    int clients = 4 * threads;
+
+    System.out.printf("%d hashing threads, %d concurrent clients, %d users%n", threads, clients, USERS);
+    System.out.printf("%12s %16s %16s%n", "iterations", "hashed logins/s", "cached logins/s");
+    for (int iterations : iterationCounts) {
+      double hashed = run(new PasswordHasher(iterations, threads, clients, 60000, 0, 60000), clients);
+      double cached = run(new PasswordHasher(iterations, threads, clients, 60000, USERS, 60000), clients);
+      System.out.printf("%12d %16.1f %16.1f%n", iterations, hashed, cached);
+    }
+  }
+
+  // Logins per second verified by the clients until the run time is over
+  private static double run(PasswordHasher hasher, int clients) throws Exception {
+    try {
+      String[] stored = new String[USERS];
+      for (int i = 0; i < USERS; i++)
+        stored[i] = hasher.hash("password" + i);
+      for (int i = 0; i < USERS; i++)  // Fills the cache, if it is enabled
+        hasher.verify("user" + i, "password" + i, stored[i]);
+
+      AtomicLong logins = new AtomicLong();
+      long deadline = System.currentTimeMillis() + RUN_MILLIS;
+      ExecutorService executor = Executors.newFixedThreadPool(clients);
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      long start = System.nanoTime();
+      for (int c = 0; c < clients; c++) {
+        int first = c;
+        futures.add(executor.submit(() -> {
+          for (int i = first; System.currentTimeMillis() < deadline; i++) {
+            int user = i % USERS;
+            if (!hasher.verify("user" + user, "password" + user, stored[user]))
+              throw new IllegalStateException("Login failed for user" + user);
+            logins.incrementAndGet();
+          }
+          return null;
+        }));
+      }
+      for (Future<?> f : futures)
+        f.get();
+      executor.shutdown();
+      return logins.get() / ((System.nanoTime() - start) / 1e9);
+    } finally {
+      hasher.close();
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package edu.uw.cs;
+
+import java.io.*;
+
+/**
+ * Itineraries packed into a single {@code long}: the first flight's fid in the
+ * high 32 bits and the second flight's fid (or -1 for a direct itinerary) in
+ * the low 32 bits. A two-hop itinerary sets the sign bit instead and packs its
+ * three fids into 21 bits each, so its fids must be below 2^21 - 1. The
+ * flights themselves live in a {@code FlightTable}.
+ */
+public final class Itinerary {
+  /**
+   * Marks the absence of an itinerary. No real itinerary packs to it.
+   */
+  public static final long NONE = -1L;
+
+  /**
+   * Most flights an itinerary can hold
+   */
+  public static final int MAX_FLIGHTS = 3;
+
+  // Second fid of a direct itinerary, third fid of a shorter one
+  private static final int NO_FLIGHT = -1;
+
+  // Bits per fid of a two-hop itinerary; the all-ones fid is never used, so
+  // NONE never unpacks to one
+  private static final int HOP_BITS = 21;
+  private static final int HOP_MASK = (1 << HOP_BITS) - 1;
+
+  private Itinerary() {
+  }
+
+  public static long direct(int fid) {
+    return pack(fid, NO_FLIGHT);
+  }
+
+  public static long oneHop(int fid1, int fid2) {
+    return pack(fid1, fid2);
+  }
+
+  /**
+   * Packs three flights, which {@link #fitsTwoHop} must allow
+   */
+  public static long twoHop(int fid1, int fid2, int fid3) {
+    if (!fitsTwoHop(fid1, fid2, fid3))
+      throw new IllegalArgumentException("Cannot pack fids " + fid1 + ", " + fid2 + ", " + fid3);
+    return Long.MIN_VALUE | ((long) fid1 << (2 * HOP_BITS)) | ((long) fid2 << HOP_BITS) | fid3;
+  }
+
+  /**
+   * Whether three flights can be packed into a two-hop itinerary
+   */
+  public static boolean fitsTwoHop(int fid1, int fid2, int fid3) {
+    return fitsHop(fid1) && fitsHop(fid2) && fitsHop(fid3);
+  }
+
+  private static boolean fitsHop(int fid) {
+    return fid >= 0 && fid < HOP_MASK;
+  }
+
+  private static long pack(int fid1, int fid2) {
+    return ((long) fid1 << 32) | (fid2 & 0xFFFFFFFFL);
+  }
+
+  private static boolean isTwoHop(long itin) {
+    return itin < 0;
+  }
+
+  public static int firstFid(long itin) {
+    return isTwoHop(itin) ? (int) (itin >>> (2 * HOP_BITS)) & HOP_MASK : (int) (itin >>> 32);
+  }
+
+  /**
+   * The second flight's fid, or -1 for a direct itinerary
+   */
+  public static int secondFid(long itin) {
+    return isTwoHop(itin) ? (int) (itin >>> HOP_BITS) & HOP_MASK : (int) itin;
+  }
+
+  /**
+   * The third flight's fid, or -1 for an itinerary of fewer flights
+   */
+  public static int thirdFid(long itin) {
+    return isTwoHop(itin) ? (int) itin & HOP_MASK : NO_FLIGHT;
+  }
+
+  /**
+   * The fid of flight {@code i}, counting from 0
+   */
+  public static int fid(long itin, int i) {
+    return i == 0 ? firstFid(itin) : i == 1 ? secondFid(itin) : thirdFid(itin);
+  }
+
+  public static boolean isDirect(long itin) {
+    return secondFid(itin) == NO_FLIGHT;
+  }
+
+  public static int flightCount(long itin) {
+    return isTwoHop(itin) ? 3 : isDirect(itin) ? 1 : 2;
+  }
+
+  public static int totalTime(FlightTable flights, long itin) {
+    int time = flights.time(firstFid(itin));
+    if (isDirect(itin))
+      return time;
+    time += flights.time(secondFid(itin));
+    return isTwoHop(itin) ? time + flights.time(thirdFid(itin)) : time;
+  }
+
+  public static int cost(FlightTable flights, long itin) {
+    int price = flights.price(firstFid(itin));
+    if (isDirect(itin))
+      return price;
+    price += flights.price(secondFid(itin));
+    return isTwoHop(itin) ? price + flights.price(thirdFid(itin)) : price;
+  }
+
+  /**
+   * Orders itineraries by total time, then by their fids in flight order. An
+   * itinerary sorts before a longer one starting with the same flights.
+   */
+  public static int compare(FlightTable flights, long a, long b) {
+    int byTime = Integer.compare(totalTime(flights, a), totalTime(flights, b));
+    if (byTime != 0)
+      return byTime;
+    int byFirst = Integer.compare(firstFid(a), firstFid(b));
+    if (byFirst != 0)
+      return byFirst;
+    int bySecond = Integer.compare(secondFid(a), secondFid(b));
+    if (bySecond != 0)
+      return bySecond;
+    return Integer.compare(thirdFid(a), thirdFid(b));
+  }
+
+  /**
+   * Appends the itinerary in the search format: a summary line followed by one
+   * line per flight
+   */
+  public static <A extends Appendable> A appendTo(FlightTable flights, long itin, A out) throws IOException {
+    Appendables.appendInt(out, flightCount(itin)).append(" flight(s), ");
+    Appendables.appendInt(out, totalTime(flights, itin)).append(" minutes\n");
+    for (int i = 0; i < flightCount(itin); i++)
+      flights.appendFlight(fid(itin, i), out).append('\n');
+    return out;
+  }
+
+  public static String toString(FlightTable flights, long itin) {
+    try {
+      return appendTo(flights, itin, new StringBuilder()).toString();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);  // a StringBuilder never throws
+    }
+  }
+}
@@ -0,0 +1,99 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A stream of packed itineraries in ascending order, read one at a time.
+ * Search results are produced by merging the direct and one-hop cursors.
+ *
+ * @see Itinerary
+ */
+public interface ItineraryCursor extends AutoCloseable {
+  /**
+   * Returns the next itinerary without consuming it, or
+   * {@link Itinerary#NONE} when the cursor is exhausted
+   */
+  long peek() throws SQLException;
+
+  /**
+   * Consumes the itinerary returned by {@link #peek()}
+   */
+  void advance() throws SQLException;
+
+  /**
+   * Releases whatever the cursor is reading from. The default does nothing.
+   */
+  @Override
+  default void close() throws SQLException {
+  }
+
+  /**
+   * Returns a cursor that stops after at most {@code max} itineraries
+   */
+  default ItineraryCursor limit(final int max) {
+    final ItineraryCursor source = this;
+    return new ItineraryCursor() {
+      private int consumed;
+
+      public long peek() throws SQLException {
+        return consumed < max ? source.peek() : Itinerary.NONE;
+      }
+
+      public void advance() throws SQLException {
+        source.advance();
+        consumed++;
+      }
+
+      public void close() throws SQLException {
+        source.close();
+      }
+    };
+  }
+
+  /**
+   * A cursor over the first {@code length} itineraries of an already sorted
+   * array
+   */
+  static ItineraryCursor of(final long[] sorted, final int length) {
+    return new ItineraryCursor() {
+      private int next;
+
+      public long peek() {
+        return next < length ? sorted[next] : Itinerary.NONE;
+      }
+
+      public void advance() {
+        next++;
+      }
+    };
+  }
+
+  /**
+   * Merges sorted cursors into one sorted array of at most {@code limit}
+   * itineraries, reading no further from any cursor than needed. Itineraries
+   * are ordered by total time, then first fid, then second fid.
+   */
+  static long[] merge(FlightTable flights, int limit, ItineraryCursor... cursors) throws SQLException {
+    long[] merged = new long[Math.min(Math.max(limit, 0), 16)];
+    int size = 0;
+    while (size < limit) {
+      ItineraryCursor best = null;
+      long bestHead = Itinerary.NONE;
+      for (ItineraryCursor cursor : cursors) {
+        long head = cursor.peek();
+        if (head != Itinerary.NONE && (best == null || Itinerary.compare(flights, head, bestHead) < 0)) {
+          best = cursor;
+          bestHead = head;
+        }
+      }
+      if (best == null)
+        break;
+      if (size == merged.length)
+        merged = Arrays.copyOf(merged, Math.min(limit, size * 2));
+      merged[size++] = bestHead;
+      best.advance();
+    }
+    return size == merged.length ? merged : Arrays.copyOf(merged, size);
+  }
+}
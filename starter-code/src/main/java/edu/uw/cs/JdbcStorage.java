@@ -0,0 +1,693 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Stores the Flights data in SQL Server, running every operation as a
+ * transaction on a connection borrowed from the pool. Transactions the
+ * database picks as a deadlock victim are retried.
+ *
+ * With the seat inventory enabled, bookings take their seats from a
+ * {@code SeatInventory} instead of updating the flights' rows, which it
+ * writes behind in batches.
+ */
+public class JdbcStorage implements Storage {
+  // Seat inventory settings read from dbconn.properties (all optional)
+  static final String SEAT_INVENTORY = "seats.inventory";
+  static final String SEAT_FLUSH_MS = "seats.flush_ms";
+
+  // Answer one-hop searches from the CONNECTIONS table (optional)
+  static final String SEARCH_CONNECTIONS = "search.connections";
+
+  // SQL Server errors raised on a duplicate primary or unique key
+  private static final int DUPLICATE_KEY = 2627;
+  private static final int DUPLICATE_INDEX_KEY = 2601;
+
+  // Storage for the application-wide pool, created on first use
+  private static JdbcStorage defaultStorage;
+
+  private final ConnectionPool pool;
+
+  // Runs each transaction on the pool, retrying deadlock victims
+  private final TransactionRunner runner;
+
+  // Shared store of the flight rows that itineraries refer to
+  private final FlightTable flights = FlightTable.getDefault();
+
+  // Admits bookings in memory, null when the seats are taken in the database
+  private final SeatInventory seats;
+
+  // Whether one-hop searches read CONNECTIONS instead of joining FLIGHTS
+  private final boolean searchConnections;
+
+  // Canned queries (the reads are package-private for QueryPlanCheck)
+  // Empties Users db
+  private static final String CLEAR_USER_DATA = "DELETE FROM Users";
+
+  // Empties Reservations db
+  private static final String CLEAR_RESERVATION_DATA = "DELETE FROM Reservations";
+
+  // Enters user info into Users
+  private static final String CREATE_LOGIN = "INSERT INTO Users VALUES (?, ?, ?)";
+
+  // Finds the stored password of a user
+  static final String USER_PASSWORD = "SELECT password FROM Users WHERE username = ?";
+
+  // Finds all direct flights for given info
+  static final String DIRECT_FLIGHT = "SELECT TOP (?) fid, day_of_month, carrier_id, flight_num, origin_city,"
+                                              + "dest_city, actual_time, capacity, price FROM FLIGHTS " 
+                                              + "WHERE origin_city = ? AND dest_city = ? AND day_of_month = ? "
+                                              + "AND cancelled = 0 ORDER BY actual_time ASC, fid ASC";
+
+  // Columns of both flights of a one-hop itinerary, read by OneHopCursor
+  private static final String ONE_HOP_COLUMNS = "F1.fid as F1_fid, F2.fid as F2_fid, F1.day_of_month as F1_day_of_month, F2.day_of_month as F2_day_of_month, "
+                                                + "F1.carrier_id as F1_carrier_id, F2.carrier_id as F2_carrier_id, F1.flight_num as F1_flight_num, F2.flight_num as F2_flight_num, "
+                                                + "F1.origin_city as F1_origin_city, F2.origin_city as F2_origin_city, F1.dest_city as F1_dest_city, F2.dest_city as F2_dest_city, "
+                                                + "F1.actual_time as F1_actual_time, F2.actual_time as F2_actual_time, F1.capacity as F1_capacity, F2.capacity as F2_capacity, "
+                                                + "F1.price as F1_price, F2.price as F2_price, F1.actual_time + F2.actual_time as total_time ";
+
+  // Finds all indirect flights for given info
+  static final String NON_DIRECT_FLIGHT = "SELECT TOP (?) " + ONE_HOP_COLUMNS
+                                                  + "FROM FLIGHTS as F1, FLIGHTS as F2 "
+                                                  + "WHERE F1.dest_city = F2.origin_city AND F1.origin_city = ? AND F2.dest_city = ? AND F1.day_of_month = ? "
+                                                  + "AND F1.day_of_month = F2.day_of_month AND F1.cancelled = 0 AND F2.cancelled = 0 "
+                                                  + "ORDER BY total_time ASC, F1.fid ASC, F2.fid ASC";
+
+  // Finds the fastest indirect flights in the precomputed CONNECTIONS table,
+  // in the same order and with the same parameters as NON_DIRECT_FLIGHT. A
+  // route with no rows there, because the table was never built or the route
+  // has no connections, is answered by the FLIGHTS join instead.
+  static final String CONNECTING_FLIGHTS = "SET NOCOUNT ON; "
+                                           + "DECLARE @count INT = ?, @origin VARCHAR(34) = ?, @dest VARCHAR(34) = ?, @day INT = ?; "
+                                           + "IF EXISTS (SELECT * FROM CONNECTIONS "
+                                           + "WHERE origin_city = @origin AND dest_city = @dest AND day_of_month = @day) "
+                                           + "SELECT TOP (@count) " + ONE_HOP_COLUMNS
+                                           + "FROM CONNECTIONS AS C JOIN FLIGHTS AS F1 ON F1.fid = C.fid1 "
+                                           + "JOIN FLIGHTS AS F2 ON F2.fid = C.fid2 "
+                                           + "WHERE C.origin_city = @origin AND C.dest_city = @dest AND C.day_of_month = @day "
+                                           + "ORDER BY C.total_time ASC, C.fid1 ASC, C.fid2 ASC; "
+                                           + "ELSE SELECT TOP (@count) " + ONE_HOP_COLUMNS
+                                           + "FROM FLIGHTS as F1, FLIGHTS as F2 "
+                                           + "WHERE F1.dest_city = F2.origin_city AND F1.origin_city = @origin AND F2.dest_city = @dest "
+                                           + "AND F1.day_of_month = @day AND F1.day_of_month = F2.day_of_month "
+                                           + "AND F1.cancelled = 0 AND F2.cancelled = 0 "
+                                           + "ORDER BY total_time ASC, F1.fid ASC, F2.fid ASC;";
+
+  // Books an itinerary in one round trip and one transaction: checks for a
+  // reservation on the same day, takes a seat on each flight that still has
+  // one and inserts the reservation. Returns the outcome as a BOOK_* status.
+  // Parameters: username, day, fid1, fid2 (NULL if direct), fid3 (NULL unless
+  // two-hop), rid, cost
+  private static final String BOOK_ITIN = "SET NOCOUNT ON; SET XACT_ABORT ON; "
+                                          + "DECLARE @username VARCHAR(20) = ?, @day INT = ?, @fid1 INT = ?, @fid2 INT = ?, @fid3 INT = ?, "
+                                          + "@rid INT = ?, @cost INT = ?, @status INT = 0; "
+                                          + "BEGIN TRANSACTION; "
+                                          + "IF EXISTS (SELECT * FROM Reservations WITH (UPDLOCK, HOLDLOCK) "
+                                          + "WHERE username = @username AND trip_date = @day) "
+                                          + "SET @status = 1; "
+                                          + "ELSE BEGIN "
+                                          + "UPDATE Flights SET num_booked = num_booked + 1 "
+                                          + "WHERE fid IN (@fid1, @fid2, @fid3) AND num_booked < capacity; "
+                                          + "IF @@ROWCOUNT < CASE WHEN @fid2 IS NULL THEN 1 WHEN @fid3 IS NULL THEN 2 ELSE 3 END "
+                                          + "SET @status = 2; "
+                                          + "ELSE INSERT INTO Reservations (rid, username, trip_date, fid1, fid2, fid3, cost) "
+                                          + "VALUES (@rid, @username, @day, @fid1, @fid2, @fid3, @cost); "
+                                          + "END "
+                                          + "IF @status = 0 COMMIT TRANSACTION; ELSE ROLLBACK TRANSACTION; "
+                                          + "SELECT @status AS status;";
+
+  // Books an itinerary whose seats were already taken from the inventory:
+  // like BOOK_ITIN, but leaves the flights' rows alone
+  // Parameters: username, day, fid1, fid2 (NULL if direct), fid3 (NULL unless
+  // two-hop), rid, cost
+  private static final String BOOK_RESERVATION = "SET NOCOUNT ON; SET XACT_ABORT ON; "
+                                                 + "DECLARE @username VARCHAR(20) = ?, @day INT = ?, @fid1 INT = ?, @fid2 INT = ?, @fid3 INT = ?, "
+                                                 + "@rid INT = ?, @cost INT = ?, @status INT = 0; "
+                                                 + "BEGIN TRANSACTION; "
+                                                 + "IF EXISTS (SELECT * FROM Reservations WITH (UPDLOCK, HOLDLOCK) "
+                                                 + "WHERE username = @username AND trip_date = @day) "
+                                                 + "SET @status = 1; "
+                                                 + "ELSE INSERT INTO Reservations (rid, username, trip_date, fid1, fid2, fid3, cost) "
+                                                 + "VALUES (@rid, @username, @day, @fid1, @fid2, @fid3, @cost); "
+                                                 + "IF @status = 0 COMMIT TRANSACTION; ELSE ROLLBACK TRANSACTION; "
+                                                 + "SELECT @status AS status;";
+
+  // Checks for a reservation on the same day, cancelled or not
+  static final String SAME_DAY_RESERVATION = "SELECT 1 FROM Reservations WHERE username = ? AND trip_date = ?";
+
+  // Finds the seats left on a flight
+  static final String SEATS_LEFT = "SELECT capacity - num_booked FROM Flights WHERE fid = ?";
+
+  // Adds seats booked through the inventory
+  private static final String ADD_BOOKED = "UPDATE Flights SET num_booked = num_booked + ? WHERE fid = ?";
+
+  // Sets each flight's taken seats to the number of reservations on it, which
+  // cancelling does not reduce
+  private static final String RECONCILE_BOOKED = "UPDATE F SET num_booked = ISNULL(B.booked, 0) "
+                                                 + "FROM Flights AS F LEFT JOIN "
+                                                 + "(SELECT fid, COUNT(*) AS booked FROM "
+                                                 + "(SELECT fid1 AS fid FROM Reservations UNION ALL "
+                                                 + "SELECT fid2 FROM Reservations WHERE fid2 IS NOT NULL UNION ALL "
+                                                 + "SELECT fid3 FROM Reservations WHERE fid3 IS NOT NULL) AS R "
+                                                 + "GROUP BY fid) AS B ON B.fid = F.fid "
+                                                 + "WHERE F.num_booked <> ISNULL(B.booked, 0)";
+
+  // Sets number of taken seats for flight back to 0
+  private static final String RESET_BOOKED_CAPACITY = "UPDATE Flights SET num_booked = 0 WHERE num_booked > 0";
+
+  // Finds a user's reservations that are not cancelled, with their flights
+  static final String USER_RESERVATIONS = "SELECT R.rid, R.paid, "
+                                                  + "F1.fid as F1_fid, F1.day_of_month as F1_day_of_month, F1.carrier_id as F1_carrier_id, "
+                                                  + "F1.flight_num as F1_flight_num, F1.origin_city as F1_origin_city, F1.dest_city as F1_dest_city, "
+                                                  + "F1.actual_time as F1_actual_time, F1.capacity as F1_capacity, F1.price as F1_price, "
+                                                  + "F2.fid as F2_fid, F2.day_of_month as F2_day_of_month, F2.carrier_id as F2_carrier_id, "
+                                                  + "F2.flight_num as F2_flight_num, F2.origin_city as F2_origin_city, F2.dest_city as F2_dest_city, "
+                                                  + "F2.actual_time as F2_actual_time, F2.capacity as F2_capacity, F2.price as F2_price, "
+                                                  + "F3.fid as F3_fid, F3.day_of_month as F3_day_of_month, F3.carrier_id as F3_carrier_id, "
+                                                  + "F3.flight_num as F3_flight_num, F3.origin_city as F3_origin_city, F3.dest_city as F3_dest_city, "
+                                                  + "F3.actual_time as F3_actual_time, F3.capacity as F3_capacity, F3.price as F3_price "
+                                                  + "FROM Reservations as R JOIN FLIGHTS as F1 ON R.fid1 = F1.fid "
+                                                  + "LEFT JOIN FLIGHTS as F2 ON R.fid2 = F2.fid "
+                                                  + "LEFT JOIN FLIGHTS as F3 ON R.fid3 = F3.fid "
+                                                  + "WHERE R.username = ? AND R.cancelled = 0 ORDER BY R.rid ASC";
+
+  // Finds a user's balance
+  static final String USER_BALANCE = "SELECT balance FROM Users WHERE username = ?";
+
+  // Finds all of a user's reservations, cancelled or not, with their flights
+  static final String USER_ACCOUNT_RESERVATIONS = "SELECT R.rid, R.trip_date, R.cost, R.paid, R.cancelled, "
+                                                          + "F1.fid as F1_fid, F1.day_of_month as F1_day_of_month, F1.carrier_id as F1_carrier_id, "
+                                                          + "F1.flight_num as F1_flight_num, F1.origin_city as F1_origin_city, F1.dest_city as F1_dest_city, "
+                                                          + "F1.actual_time as F1_actual_time, F1.capacity as F1_capacity, F1.price as F1_price, "
+                                                          + "F2.fid as F2_fid, F2.day_of_month as F2_day_of_month, F2.carrier_id as F2_carrier_id, "
+                                                          + "F2.flight_num as F2_flight_num, F2.origin_city as F2_origin_city, F2.dest_city as F2_dest_city, "
+                                                          + "F2.actual_time as F2_actual_time, F2.capacity as F2_capacity, F2.price as F2_price, "
+                                                          + "F3.fid as F3_fid, F3.day_of_month as F3_day_of_month, F3.carrier_id as F3_carrier_id, "
+                                                          + "F3.flight_num as F3_flight_num, F3.origin_city as F3_origin_city, F3.dest_city as F3_dest_city, "
+                                                          + "F3.actual_time as F3_actual_time, F3.capacity as F3_capacity, F3.price as F3_price "
+                                                          + "FROM Reservations as R JOIN FLIGHTS as F1 ON R.fid1 = F1.fid "
+                                                          + "LEFT JOIN FLIGHTS as F2 ON R.fid2 = F2.fid "
+                                                          + "LEFT JOIN FLIGHTS as F3 ON R.fid3 = F3.fid "
+                                                          + "WHERE R.username = ? ORDER BY R.rid ASC";
+
+  // Determines if a user paid for a reservation
+  static final String USER_PAID = "SELECT cost, paid FROM Reservations WHERE rid = ? AND username = ?";
+
+  // Determines if a user cancelled a reservation
+  private static final String USER_CANCELLED = "SELECT cost, cancelled FROM Reservations WHERE rid = ? AND username = ?";
+
+  // Changes user's balance by certain amount
+  private static final String USER_CHANGE_BALANCE = "UPDATE Users SET balance = balance - ? WHERE username = ?";
+
+  // Pays for a reservation in one round trip and one transaction: marks it
+  // paid if it is the user's and unpaid, then takes the cost from the user's
+  // balance only if the balance covers it. Returns a PAY_* status with the
+  // resulting (or, if short, current) balance and the cost.
+  // Parameters: rid, username
+  private static final String PAY_RESERVATION = "SET NOCOUNT ON; SET XACT_ABORT ON; "
+                                                + "DECLARE @rid INT = ?, @username VARCHAR(20) = ?, @cost INT, @balance INT, "
+                                                + "@status INT = 0; "
+                                                + "BEGIN TRANSACTION; "
+                                                + "UPDATE Reservations SET paid = 1, @cost = cost "
+                                                + "WHERE rid = @rid AND username = @username AND paid = 0; "
+                                                + "IF @@ROWCOUNT = 0 SET @status = 1; "
+                                                + "ELSE BEGIN "
+                                                + "UPDATE Users SET @balance = balance = balance - @cost "
+                                                + "WHERE username = @username AND balance >= @cost; "
+                                                + "IF @@ROWCOUNT = 0 BEGIN "
+                                                + "SET @status = 2; "
+                                                + "SELECT @balance = balance FROM Users WHERE username = @username; "
+                                                + "END "
+                                                + "END "
+                                                + "IF @status = 0 COMMIT TRANSACTION; ELSE ROLLBACK TRANSACTION; "
+                                                + "SELECT @status AS status, @balance AS balance, @cost AS cost;";
+
+  // Changes a reservation to be cancelled
+  private static final String USER_CANCEL_RESERVATION = "UPDATE Reservations SET cancelled = 1 WHERE rid = ? AND username = ?";
+
+  // Leases a block: returns the first ID and moves the sequence past the block
+  private static final String LEASE_BLOCK = "UPDATE RESERVATION_IDS SET next_id = next_id + ? "
+                                            + "OUTPUT deleted.next_id WHERE name = 'reservations'";
+
+  // Restarts the sequence at 1
+  private static final String RESET_SEQUENCE = "UPDATE RESERVATION_IDS SET next_id = 1 WHERE name = 'reservations'";
+
+  public JdbcStorage(ConnectionPool pool, TransactionRunner runner) {
+    this(pool, runner, false, 0, false);
+  }
+
+  public JdbcStorage(ConnectionPool pool, TransactionRunner runner, boolean seatInventory, long seatFlushMillis) {
+    this(pool, runner, seatInventory, seatFlushMillis, false);
+  }
+
+  /**
+   * Creates a storage that, if {@code seatInventory} is set, admits bookings
+   * from an in-memory seat inventory and writes the booked seats every
+   * {@code seatFlushMillis}. If {@code searchConnections} is set, one-hop
+   * searches read the precomputed CONNECTIONS table.
+   */
+  public JdbcStorage(ConnectionPool pool, TransactionRunner runner, boolean seatInventory, long seatFlushMillis,
+      boolean searchConnections) {
+    this.pool = pool;
+    this.runner = runner;
+    this.seats = seatInventory ? new SeatInventory(new InventoryBacking(), seatFlushMillis) : null;
+    this.searchConnections = searchConnections;
+  }
+
+  /**
+   * Returns the storage for the application's connection pool, reading
+   * dbconn.properties the first time it is needed
+   */
+  public static synchronized JdbcStorage getDefault() throws IOException {
+    if (defaultStorage == null)
+      defaultStorage = new JdbcStorage(ConnectionPool.getDefault(), TransactionRunner.getDefault(),
+          AppConfig.getBoolean(SEAT_INVENTORY, false), AppConfig.getLong(SEAT_FLUSH_MS, 100),
+          AppConfig.getBoolean(SEARCH_CONNECTIONS, false));
+    return defaultStorage;
+  }
+
+  /**
+   * The pool this storage's transactions borrow their connections from
+   */
+  public ConnectionPool getPool() {
+    return pool;
+  }
+
+  public void clear() throws SQLException {
+    if (seats != null)  // Seats queued before the clear must not be written after it
+      seats.clear();
+    runner.inTransaction(c -> {
+      c.prepare(CLEAR_RESERVATION_DATA).execute();
+      c.prepare(CLEAR_USER_DATA).execute();
+      c.prepare(RESET_BOOKED_CAPACITY).executeUpdate();
+      return null;
+    });
+    if (seats != null)
+      seats.clear();
+  }
+
+  public boolean createUser(String username, String password, int balance) throws SQLException {
+    try {
+      return runner.withRetry(c -> {
+        PreparedStatement createLoginStatement = c.prepare(CREATE_LOGIN);
+        createLoginStatement.clearParameters();  // Creates a user
+        createLoginStatement.setString(1, username);
+        createLoginStatement.setString(2, password);
+        createLoginStatement.setInt(3, balance);
+        createLoginStatement.execute();
+        return true;
+      });
+    } catch (SQLException e) {
+      if (isDuplicateKey(e))
+        return false;
+      throw e;
+    }
+  }
+
+  public boolean[] createUsers(String[] usernames, String[] passwords, int[] balances) throws SQLException {
+    int[] counts;
+    try {
+      counts = runner.withRetry(c -> {
+        PreparedStatement createLoginStatement = c.prepare(CREATE_LOGIN);
+        try {
+          for (int i = 0; i < usernames.length; i++) {  // Creates the users
+            createLoginStatement.clearParameters();
+            createLoginStatement.setString(1, usernames[i]);
+            createLoginStatement.setString(2, passwords[i]);
+            createLoginStatement.setInt(3, balances[i]);
+            createLoginStatement.addBatch();
+          }
+          return createLoginStatement.executeBatch();
+        } catch (BatchUpdateException e) {
+          return e.getUpdateCounts();  // rows that were run, failed or not
+        } finally {
+          createLoginStatement.clearBatch();
+        }
+      });
+    } catch (SQLException e) {
+      counts = new int[0];
+    }
+
+    // Rows the batch did not create are tried once more on their own, which
+    // tells a duplicate username apart from a row that was never run
+    boolean[] created = new boolean[usernames.length];
+    for (int i = 0; i < usernames.length; i++) {
+      if (i < counts.length && counts[i] != Statement.EXECUTE_FAILED)
+        created[i] = true;
+      else
+        created[i] = createUser(usernames[i], passwords[i], balances[i]);
+    }
+    return created;
+  }
+
+  public String userPassword(String username) throws SQLException {
+    return runner.withRetry(c -> {
+      PreparedStatement userPasswordStatement = c.prepare(USER_PASSWORD);
+      userPasswordStatement.clearParameters();
+      userPasswordStatement.setString(1, username);
+
+      try (ResultSet result = userPasswordStatement.executeQuery()) {
+        return result.next() ? result.getString("password") : null;
+      }
+    });
+  }
+
+  public long[] search(String originCity, String destinationCity, boolean directFlight, int dayOfMonth,
+      int numberOfItineraries) throws SQLException {
+    return runner.withRetry(c -> {
+        PreparedStatement directFlightStatement = c.prepare(DIRECT_FLIGHT);
+        directFlightStatement.clearParameters();  // Finds direct flights
+        directFlightStatement.setInt(1, numberOfItineraries);
+        directFlightStatement.setString(2, originCity);
+        directFlightStatement.setString(3, destinationCity);
+        directFlightStatement.setInt(4, dayOfMonth);
+
+        long[] direct = new long[Math.max(0, Math.min(numberOfItineraries, 16))];
+        int directCount = 0;
+        ResultSet result = directFlightStatement.executeQuery();
+        while (result.next()) {  // Adds all(up to n) direct flights to list of itineraries
+          if (directCount == direct.length)
+            direct = Arrays.copyOf(direct, directCount * 2);
+          direct[directCount++] = Itinerary.direct(flights.put(result, ""));
+        }
+
+        result.close();
+
+        if (directFlight)
+          return Arrays.copyOf(direct, directCount);
+
+        // CONNECTIONS only keeps the fastest PER_ROUTE of each route and day
+        int oneHopCount = numberOfItineraries - directCount;
+        boolean precomputed = searchConnections && oneHopCount <= ConnectionsTable.PER_ROUTE;
+        PreparedStatement nonDirectFlightStatement = c.prepare(precomputed ? CONNECTING_FLIGHTS : NON_DIRECT_FLIGHT);
+        nonDirectFlightStatement.clearParameters();  // Finds non-direct flights
+        nonDirectFlightStatement.setInt(1, oneHopCount);
+        nonDirectFlightStatement.setString(2, originCity);
+        nonDirectFlightStatement.setString(3, destinationCity);
+        nonDirectFlightStatement.setInt(4, dayOfMonth);
+
+        // Both result sets are already sorted, so they are merged while the
+        // non-direct rows are read instead of being sorted again
+        try (ItineraryCursor oneHop = new OneHopCursor(flights, batchResult(nonDirectFlightStatement))) {
+          return ItineraryCursor.merge(flights, numberOfItineraries, ItineraryCursor.of(direct, directCount), oneHop);
+        }
+    });
+  }
+
+  // Each extra hop would take another FLIGHTS self-join, so these searches go
+  // to the in-memory index, loaded from the database on first use
+  public long[] multiHopSearch(String originCity, String destinationCity, int maxFlights, int dayOfMonth,
+      int numberOfItineraries) throws SQLException {
+    return FlightIndex.getLoaded(pool).multiHop(originCity, destinationCity, dayOfMonth, maxFlights,
+        numberOfItineraries);
+  }
+
+  public int book(String username, int day, long itinerary, int rid, int cost) throws SQLException {
+    if (seats == null)
+      return book(BOOK_ITIN, username, day, itinerary, rid, cost);
+
+    if (!seats.take(itinerary))
+      return hasReservationOn(username, day) ? BOOK_SAME_DAY : BOOK_FULL;
+    // If the booking throws, its seats stay taken: it may have committed, and
+    // a seat wrongly held is better than one sold twice
+    int status = book(BOOK_RESERVATION, username, day, itinerary, rid, cost);
+    if (status == BOOK_OK)
+      seats.booked(itinerary);
+    else
+      seats.release(itinerary);
+    return status;
+  }
+
+  private int book(String sql, String username, int day, long itinerary, int rid, int cost) throws SQLException {
+    return runner.withRetry(c -> {
+      PreparedStatement bookItinStatement = c.prepare(sql);
+      bookItinStatement.clearParameters();  // Checks the day, takes the seats and creates the booking
+      bookItinStatement.setString(1, username);
+      bookItinStatement.setInt(2, day);
+      for (int i = 0; i < Itinerary.MAX_FLIGHTS; i++) {  // Flights the itinerary does not have are NULL
+        if (i < Itinerary.flightCount(itinerary))
+          bookItinStatement.setInt(3 + i, Itinerary.fid(itinerary, i));
+        else
+          bookItinStatement.setNull(3 + i, Types.INTEGER);
+      }
+      bookItinStatement.setInt(6, rid);
+      bookItinStatement.setInt(7, cost);
+      try (ResultSet result = batchResult(bookItinStatement)) {
+        result.next();
+        return result.getInt("status");
+      }
+    });
+  }
+
+  private boolean hasReservationOn(String username, int day) throws SQLException {
+    return runner.withRetry(c -> {
+      PreparedStatement sameDayStatement = c.prepare(SAME_DAY_RESERVATION);
+      sameDayStatement.clearParameters();
+      sameDayStatement.setString(1, username);
+      sameDayStatement.setInt(2, day);
+      try (ResultSet result = sameDayStatement.executeQuery()) {
+        return result.next();
+      }
+    });
+  }
+
+  public Payment pay(int reservationId, String username) throws SQLException {
+    return runner.withRetry(c -> {
+      PreparedStatement payReservationStatement = c.prepare(PAY_RESERVATION);
+      payReservationStatement.clearParameters();  // Marks the reservation paid and debits the user if they can afford it
+      payReservationStatement.setInt(1, reservationId);
+      payReservationStatement.setString(2, username);
+
+      try (ResultSet result = batchResult(payReservationStatement)) {
+        result.next();
+        return new Payment(result.getInt("status"), result.getInt("balance"), result.getInt("cost"));
+      }
+    });
+  }
+
+  public Reservations reservations(String username) throws SQLException {
+    return runner.withRetry(c -> {
+      PreparedStatement userReservationsStatement = c.prepare(USER_RESERVATIONS);
+      userReservationsStatement.clearParameters();  // Finds all reservations for user, with their flights
+      userReservationsStatement.setString(1, username);
+
+      Reservations found = new Reservations();
+      try (ResultSet results = userReservationsStatement.executeQuery()) {
+        while (results.next())
+          found.add(results.getInt("rid"), results.getInt("paid") != 0, itinerary(results));
+      }
+      return found;
+    });
+  }
+
+  // Stores the flights of the current reservation row and returns them
+  private long itinerary(ResultSet results) throws SQLException {
+    int fid1 = flights.put(results, "F1_");
+    results.getInt("F2_fid");
+    if (results.wasNull())  // Second flight is NULL for a direct itinerary
+      return Itinerary.direct(fid1);
+    int fid2 = flights.put(results, "F2_");
+    results.getInt("F3_fid");
+    return results.wasNull()  // Third flight is NULL unless it is a two-hop itinerary
+        ? Itinerary.oneHop(fid1, fid2) : Itinerary.twoHop(fid1, fid2, flights.put(results, "F3_"));
+  }
+
+  public Account account(String username) throws SQLException {
+    return runner.inTransaction(c -> {
+      PreparedStatement userBalanceStatement = c.prepare(USER_BALANCE);
+      userBalanceStatement.clearParameters();
+      userBalanceStatement.setString(1, username);
+      Account account;
+      try (ResultSet result = userBalanceStatement.executeQuery()) {
+        if (!result.next())
+          return null;
+        account = new Account(result.getInt("balance"));
+      }
+
+      PreparedStatement accountReservationsStatement = c.prepare(USER_ACCOUNT_RESERVATIONS);
+      accountReservationsStatement.clearParameters();  // Finds every reservation of the user, with its flights
+      accountReservationsStatement.setString(1, username);
+      try (ResultSet results = accountReservationsStatement.executeQuery()) {
+        while (results.next()) {
+          account.add(results.getInt("rid"), results.getInt("trip_date"), results.getInt("cost"),
+              results.getInt("paid") != 0, results.getInt("cancelled") != 0, itinerary(results));
+        }
+      }
+      return account;
+    });
+  }
+
+  public boolean cancel(int reservationId, String username) throws SQLException {
+    return runner.inTransaction(c -> {
+      PreparedStatement userCancelledStatement = c.prepare(USER_CANCELLED);
+      userCancelledStatement.clearParameters();  // Checks if user cancelled and how much should be refunded if paid for
+      userCancelledStatement.setInt(1, reservationId);
+      userCancelledStatement.setString(2, username);
+
+      ResultSet cancelled = userCancelledStatement.executeQuery();
+      int refund;
+      if (!cancelled.next()) // different user's reservation
+        return false;
+      else if (cancelled.getInt("cancelled") != 0) // already cancelled
+        return false;
+      else
+        refund = cancelled.getInt("cost") * -1;
+      cancelled.close();
+
+      PreparedStatement userPaidStatement = c.prepare(USER_PAID);
+      userPaidStatement.clearParameters();  // Checks if user paid
+      userPaidStatement.setInt(1, reservationId);
+      userPaidStatement.setString(2, username);
+
+      ResultSet paidFor = userPaidStatement.executeQuery();
+      paidFor.next();
+      int paidRes = paidFor.getInt("paid");
+      paidFor.close();
+      if (paidRes == 1) {
+        PreparedStatement userChangeBalanceStatement = c.prepare(USER_CHANGE_BALANCE);
+        userChangeBalanceStatement.clearParameters();  // Changes balance of user to reflect refund if paid for
+        userChangeBalanceStatement.setInt(1, refund);
+        userChangeBalanceStatement.setString(2, username);
+        userChangeBalanceStatement.executeUpdate();
+      }
+
+      PreparedStatement userCancelReservationStatement = c.prepare(USER_CANCEL_RESERVATION);
+      userCancelReservationStatement.clearParameters();  // Changes reservation to cancelled
+      userCancelReservationStatement.setInt(1, reservationId);
+      userCancelReservationStatement.setString(2, username);
+      userCancelReservationStatement.executeUpdate();
+
+      return true;
+    });
+  }
+
+  public long leaseReservationIds(int size) throws SQLException {
+    return runner.withRetry(c -> {
+      PreparedStatement leaseStatement = c.prepare(LEASE_BLOCK);
+      leaseStatement.clearParameters();
+      leaseStatement.setInt(1, size);
+      try (ResultSet result = leaseStatement.executeQuery()) {
+        if (!result.next())
+          throw new SQLException("RESERVATION_IDS has no 'reservations' row");
+        return result.getLong(1);
+      }
+    });
+  }
+
+  public void resetReservationIds() throws SQLException {
+    runner.withRetry(c -> c.prepare(RESET_SEQUENCE).executeUpdate());
+  }
+
+  /**
+   * The seat inventory, or null if bookings take their seats in the database
+   */
+  public SeatInventory getSeatInventory() {
+    return seats;
+  }
+
+  /**
+   * Writes the seats the inventory still holds, then closes the connection
+   * pool
+   */
+  public void close() {
+    if (seats != null)
+      seats.close();
+    pool.close();
+  }
+
+  // Whether the statement failed on a duplicate key, anywhere in the chain
+  private static boolean isDuplicateKey(SQLException e) {
+    for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+      if (cause instanceof SQLIntegrityConstraintViolationException || cause.getErrorCode() == DUPLICATE_KEY
+          || cause.getErrorCode() == DUPLICATE_INDEX_KEY)
+        return true;
+    }
+    return false;
+  }
+
+  // Runs a batch and returns the result set of its final SELECT, skipping any
+  // update counts reported ahead of it
+  static ResultSet batchResult(PreparedStatement batchStatement) throws SQLException {
+    boolean isResultSet = batchStatement.execute();
+    while (!isResultSet) {
+      if (batchStatement.getUpdateCount() == -1)
+        throw new SQLException("Batch returned no result");
+      isResultSet = batchStatement.getMoreResults();
+    }
+    return batchStatement.getResultSet();
+  }
+
+  /**
+   * Keeps the inventory's seat counts in the flights' num_booked column
+   */
+  private class InventoryBacking implements SeatInventory.Backing {
+    public void reconcile() throws SQLException {
+      runner.inTransaction(c -> c.prepare(RECONCILE_BOOKED).executeUpdate());
+    }
+
+    public int remaining(int fid) throws SQLException {
+      return runner.withRetry(c -> {
+        PreparedStatement seatsLeftStatement = c.prepare(SEATS_LEFT);
+        seatsLeftStatement.clearParameters();
+        seatsLeftStatement.setInt(1, fid);
+        try (ResultSet result = seatsLeftStatement.executeQuery()) {
+          return result.next() ? result.getInt(1) : 0;
+        }
+      });
+    }
+
+    public void addBooked(int[] fids, int[] counts) throws SQLException {
+      runner.inTransaction(c -> {
+        PreparedStatement addBookedStatement = c.prepare(ADD_BOOKED);
+        try {
+          for (int i = 0; i < fids.length; i++) {
+            addBookedStatement.clearParameters();
+            addBookedStatement.setInt(1, counts[i]);
+            addBookedStatement.setInt(2, fids[i]);
+            addBookedStatement.addBatch();
+          }
+          return addBookedStatement.executeBatch();
+        } finally {
+          addBookedStatement.clearBatch();
+        }
+      });
+    }
+  }
+
+  /**
+   * Reads one-hop itineraries from the NON_DIRECT_FLIGHT results as they are
+   * needed
+   */
+  private static class OneHopCursor implements ItineraryCursor {
+    private final FlightTable flights;
+    private final ResultSet results;
+    private long head = Itinerary.NONE;
+    private boolean exhausted;
+
+    OneHopCursor(FlightTable flights, ResultSet results) {
+      this.flights = flights;
+      this.results = results;
+    }
+
+    public long peek() throws SQLException {
+      if (head == Itinerary.NONE && !exhausted) {
+        if (results.next())
+          head = Itinerary.oneHop(flights.put(results, "F1_"), flights.put(results, "F2_"));
+        else
+          exhausted = true;
+      }
+      return head;
+    }
+
+    public void advance() throws SQLException {
+      peek();
+      head = Itinerary.NONE;
+    }
+
+    public void close() throws SQLException {
+      results.close();
+    }
+  }
+}
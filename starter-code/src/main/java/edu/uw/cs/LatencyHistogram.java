@@ -0,0 +1,99 @@
+package edu.uw.cs;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counts latencies in microseconds in log-linear buckets: exact below 128us,
+ * then 64 buckets per power of two, so every percentile is within about 1.6%
+ * of the recorded value. Recording takes no lock and allocates nothing, so
+ * many threads can share one histogram.
+ */
+public class LatencyHistogram {
+  // Buckets per power of two above the exact range
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  // Latencies are capped at about an hour
+  private static final long MAX_MICROS = (1L << 32) - 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(index(MAX_MICROS) + 1);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalMicros = new LongAdder();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  /**
+   * Records one latency measured with {@code System.nanoTime()}
+   */
+  public void recordNanos(long nanos) {
+    long micros = Math.min(MAX_MICROS, Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    counts.incrementAndGet(index(micros));
+    count.increment();
+    totalMicros.add(micros);
+    maxMicros.accumulateAndGet(micros, Math::max);
+  }
+
+  // Bucket of a latency: the value itself below 2 * SUB_BUCKETS, else its top
+  // SUB_BUCKET_BITS + 1 bits offset by its magnitude
+  private static int index(long micros) {
+    int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS);
+    return (shift << SUB_BUCKET_BITS) + (int) (micros >>> shift);
+  }
+
+  // Smallest latency that falls in a bucket
+  private static long lowestValue(int index) {
+    int shift = Math.max(0, (index >>> SUB_BUCKET_BITS) - 1);
+    return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  public double getMeanMicros() {
+    long n = count.sum();
+    return n == 0 ? 0 : (double) totalMicros.sum() / n;
+  }
+
+  /**
+   * The latency below which the given percentage of the recorded latencies
+   * fall, or 0 if nothing was recorded
+   */
+  public long getPercentileMicros(double percentile) {
+    long n = count.sum();
+    if (n == 0)
+      return 0;
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank)
+        return Math.min(getMaxMicros(), lowestValue(i + 1) - 1);
+    }
+    return getMaxMicros();
+  }
+
+  /**
+   * Adds every latency recorded by another histogram to this one
+   */
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length(); i++) {
+      long c = other.counts.get(i);
+      if (c != 0)
+        counts.addAndGet(i, c);
+    }
+    count.add(other.count.sum());
+    totalMicros.add(other.totalMicros.sum());
+    maxMicros.accumulateAndGet(other.maxMicros.get(), Math::max);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("LatencyHistogram[count=%d, p50=%dus, p95=%dus, p99=%dus, max=%dus]", getCount(),
+        getPercentileMicros(50), getPercentileMicros(95), getPercentileMicros(99), getMaxMicros());
+  }
+}
@@ -0,0 +1,364 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.regex.*;
+import java.util.stream.*;
+
+/**
+ * Measures capacity: runs many concurrent users against the transaction
+ * service for a fixed time and reports the throughput, latency percentiles
+ * and failure rate of each command type.
+ *
+ * Users either replay the users of the {@code cases/} scenarios, or run a
+ * synthesised mix in which each session creates a user, logs in, and then
+ * searches, books, pays, lists and cancels with the given weights. Every
+ * session uses fresh usernames so concurrent sessions do not collide, and
+ * sessions are started back to back until the time is up. Latencies recorded
+ * during the warmup are discarded.
+ *
+ * A response counts as failed when the command was refused (e.g. "Booking
+ * failed"), and as an error when executing it threw.
+ */
+public class LoadGenerator {
+  // Commands of a synthesised session after create and login
+  static final int MIX_SESSION_LENGTH = 20;
+
+  private static final Pattern RESERVATION_ID = Pattern.compile("reservation ID: (\\d+)");
+
+  private final FlightTransactions transactions;
+
+  // Per command type, by name
+  private final Map<String, CommandStats> stats = new ConcurrentSkipListMap<String, CommandStats>();
+
+  // Makes usernames unique to this run and session
+  private final String runId = Long.toString(System.currentTimeMillis() % (36L * 36 * 36 * 36), 36);
+  private final AtomicLong sessions = new AtomicLong();
+
+  private volatile boolean recording;
+  private long measuredNanos;
+
+  public LoadGenerator(FlightTransactions transactions) {
+    this.transactions = transactions;
+  }
+
+  /**
+   * Commands of one session, chosen as the responses come back
+   */
+  interface Script {
+    /**
+     * The next command given the response to the previous one (null at the
+     * start), or null to end the session
+     */
+    String next(String lastResponse);
+  }
+
+  /**
+   * Runs {@code users} concurrent users, each running sessions from the
+   * factory back to back, for the warmup and then the measured time
+   */
+  public void run(int users, long warmupMillis, long durationMillis, Callable<Script> sessionFactory)
+      throws InterruptedException, ExecutionException {
+    ExecutorService executor = Executors.newFixedThreadPool(users);
+    try {
+      long start = System.nanoTime();
+      long measureFrom = start + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+      long deadline = measureFrom + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for (int u = 0; u < users; u++) {
+        futures.add(executor.submit(() -> {
+          while (System.nanoTime() < deadline)
+            runSession(sessionFactory.call(), deadline);
+          return null;
+        }));
+      }
+
+      recording = warmupMillis <= 0;
+      if (!recording) {
+        TimeUnit.NANOSECONDS.sleep(measureFrom - System.nanoTime());
+        recording = true;
+      }
+      for (Future<?> f : futures)
+        f.get();
+      measuredNanos = System.nanoTime() - measureFrom;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Runs one session on its own query until the script ends or time is up
+  private void runSession(Script script, long deadline) {
+    Query q = new Query(transactions);
+    String response = null;
+    for (String command; System.nanoTime() < deadline && (command = script.next(response)) != null;) {
+      long start = System.nanoTime();
+      boolean error = false;
+      try {
+        response = FlightService.execute(q, command);
+      } catch (RuntimeException e) {
+        response = "";
+        error = true;
+      }
+      long nanos = System.nanoTime() - start;
+      if (recording) {
+        CommandStats s = stats.computeIfAbsent(commandType(command), k -> new CommandStats());
+        s.latencies.recordNanos(nanos);
+        if (error)
+          s.errors.increment();
+        else if (TransactionStats.isFailure(response))
+          s.failures.increment();
+      }
+    }
+  }
+
+  private static String commandType(String command) {
+    String[] words = command.trim().split("\\s+", 2);
+    return words[0].isEmpty() ? "(empty)" : words[0].toLowerCase(Locale.ROOT);
+  }
+
+  // A username no other session of any run uses, built from a short prefix
+  // and kept within the USERS column width
+  String uniqueName(String prefix) {
+    String suffix = "_" + runId + Long.toString(sessions.incrementAndGet(), 36);
+    return prefix.substring(0, Math.min(prefix.length(), 20 - suffix.length())) + suffix;
+  }
+
+  /**
+   * Sessions replaying the users of the scenarios in turn, with the usernames
+   * they create and log in as made unique to each session. Reservation and
+   * itinerary IDs are replayed as written, so some of them refer to other
+   * sessions' reservations and fail.
+   */
+  public Callable<Script> replay(List<Path> files) throws IOException {
+    List<List<String>> users = new ArrayList<List<String>>();
+    for (Path file : files) {
+      List<List<String>> commands = new ArrayList<List<String>>();
+      FlightClient.parse(file, commands, new ArrayList<List<String>>());
+      users.addAll(commands);
+    }
+    if (users.isEmpty())
+      throw new IllegalArgumentException("No scenarios to replay");
+
+    AtomicInteger nextUser = new AtomicInteger();
+    return () -> {
+      Iterator<String> commands = users.get(Math.floorMod(nextUser.getAndIncrement(), users.size())).iterator();
+      Map<String, String> names = new HashMap<String, String>();
+      return lastResponse -> {
+        while (commands.hasNext()) {
+          String command = rename(commands.next(), names);
+          if (command != null)
+            return command;
+        }
+        return null;
+      };
+    };
+  }
+
+  // Gives the username of a create or login command this session's unique
+  // name for it; drops clear commands, which would disturb other sessions
+  private String rename(String command, Map<String, String> names) {
+    String[] words = command.trim().split("\\s+");
+    String type = words[0].toLowerCase(Locale.ROOT);
+    if (type.equals("clear"))
+      return null;
+    if (!(type.equals("create") || type.equals("login")) || words.length < 2)
+      return command;
+    words[1] = names.computeIfAbsent(words[1].toLowerCase(Locale.ROOT), k -> uniqueName(k));
+    return String.join(" ", words);
+  }
+
+  /**
+   * Sessions of a synthesised mix searching between the given cities, with the
+   * relative weights of search, book, pay, reservations and cancel
+   */
+  public Callable<Script> mix(List<String> cities, int[] weights) {
+    if (cities.size() < 2)
+      throw new IllegalArgumentException("The mix needs at least two cities");
+    if (weights.length != 5 || IntStream.of(weights).anyMatch(w -> w < 0) || IntStream.of(weights).sum() == 0)
+      throw new IllegalArgumentException("Expected 5 non-negative weights: " + Arrays.toString(weights));
+    return () -> new MixScript(uniqueName("mix"), cities, weights);
+  }
+
+  private static class MixScript implements Script {
+    private final String username;
+    private final List<String> cities;
+    private final int[] weights;
+    private final int totalWeight;
+
+    private int step;
+    private String lastCommand = "";
+    private boolean found;
+    private final List<Integer> unpaid = new ArrayList<Integer>();
+    private final List<Integer> booked = new ArrayList<Integer>();
+
+    MixScript(String username, List<String> cities, int[] weights) {
+      this.username = username;
+      this.cities = cities;
+      this.weights = weights;
+      this.totalWeight = IntStream.of(weights).sum();
+    }
+
+    public String next(String lastResponse) {
+      if (lastResponse != null)
+        observe(lastResponse);
+      int n = step++;
+      if (n == 0)
+        return lastCommand = "create " + username + " password 100000";
+      if (n == 1)
+        return lastCommand = "login " + username + " password";
+      if (n >= MIX_SESSION_LENGTH + 2)
+        return null;
+      return lastCommand = pick(ThreadLocalRandom.current());
+    }
+
+    // Follows the itineraries and reservations the session has
+    private void observe(String response) {
+      if (lastCommand.startsWith("search")) {
+        found = response.startsWith("Itinerary 0:");
+      } else if (lastCommand.startsWith("book")) {
+        Matcher m = RESERVATION_ID.matcher(response);
+        if (m.find()) {
+          int rid = Integer.parseInt(m.group(1));
+          unpaid.add(rid);
+          booked.add(rid);
+        }
+      } else if (lastCommand.startsWith("pay") && response.startsWith("Paid")) {
+        unpaid.remove(Integer.valueOf(lastCommand.substring(4)));
+      } else if (lastCommand.startsWith("cancel") && response.startsWith("Canceled")) {
+        Integer rid = Integer.valueOf(lastCommand.substring(7));
+        unpaid.remove(rid);
+        booked.remove(rid);
+      }
+    }
+
+    // Picks a command by weight, searching first when it has nothing to book,
+    // pay or cancel
+    private String pick(Random random) {
+      int r = random.nextInt(totalWeight);
+      int type = 0;
+      while (r >= weights[type])
+        r -= weights[type++];
+      if (type == 1 && found)
+        return "book 0";
+      if (type == 2 && !unpaid.isEmpty())
+        return "pay " + unpaid.get(random.nextInt(unpaid.size()));
+      if (type == 3)
+        return "reservations";
+      if (type == 4 && !booked.isEmpty())
+        return "cancel " + booked.get(random.nextInt(booked.size()));
+
+      int origin = random.nextInt(cities.size());
+      int dest = (origin + 1 + random.nextInt(cities.size() - 1)) % cities.size();
+      return String.format("search \"%s\" \"%s\" %d %d %d", cities.get(origin), cities.get(dest),
+          random.nextInt(2), 1 + random.nextInt(28), 1 + random.nextInt(10));
+    }
+  }
+
+  /**
+   * Statistics of the measured commands of one type
+   */
+  static class CommandStats {
+    final LatencyHistogram latencies = new LatencyHistogram();
+    final LongAdder failures = new LongAdder();
+    final LongAdder errors = new LongAdder();
+  }
+
+  Map<String, CommandStats> getStats() {
+    return stats;
+  }
+
+  /**
+   * Throughput, latency percentiles in milliseconds and failure rates of each
+   * command type and of all commands
+   */
+  public String report() {
+    double seconds = measuredNanos / 1e9;
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-14s %9s %10s %9s %9s %9s %9s %8s %7s%n", "command", "count", "ops/s", "p50 ms",
+        "p95 ms", "p99 ms", "max ms", "failed", "errors"));
+    CommandStats total = new CommandStats();
+    for (Map.Entry<String, CommandStats> e : stats.entrySet()) {
+      appendRow(sb, e.getKey(), e.getValue(), seconds);
+      total.latencies.add(e.getValue().latencies);
+      total.failures.add(e.getValue().failures.sum());
+      total.errors.add(e.getValue().errors.sum());
+    }
+    appendRow(sb, "all", total, seconds);
+    sb.append(String.format("Measured %.1f s%n", seconds));
+    return sb.toString();
+  }
+
+  private static void appendRow(StringBuilder sb, String name, CommandStats s, double seconds) {
+    long n = s.latencies.getCount();
+    sb.append(String.format("%-14s %9d %10.1f %9.3f %9.3f %9.3f %9.3f %7.2f%% %7d%n", name, n,
+        seconds == 0 ? 0 : n / seconds, s.latencies.getPercentileMicros(50) / 1e3,
+        s.latencies.getPercentileMicros(95) / 1e3, s.latencies.getPercentileMicros(99) / 1e3,
+        s.latencies.getMaxMicros() / 1e3, n == 0 ? 0 : 100.0 * s.failures.sum() / n, s.errors.sum()));
+  }
+
+  /**
+   * Usage: LoadGenerator [options] [scenario files or directories...]
+   *
+   * Options: --users N (default 10), --seconds N (default 30), --warmup N
+   * seconds (default 5), --mix to run the synthesised mix instead of the
+   * scenarios, --weights search,book,pay,reservations,cancel (default
+   * 50,20,15,10,5), --cities "Seattle WA,Boston MA,..." for the mix, and
+   * --clear to clear the tables first. Replays every scenario under
+   * {@code cases} if none are given. Runs against the storage configured in
+   * dbconn.properties.
+   */
+  public static void main(String[] args) throws Exception {
+    int users = 10;
+    long seconds = 30;
+    long warmup = 5;
+    boolean mix = false;
+    boolean clear = false;
+    int[] weights = { 50, 20, 15, 10, 5 };
+    List<String> cities = Arrays.asList("Seattle WA", "Boston MA", "Chicago IL", "New York NY", "Los Angeles CA",
+        "San Francisco CA", "Denver CO", "Atlanta GA");
+    List<String> roots = new ArrayList<String>();
+    for (int i = 0; i < args.length; i++) {
+      switch (args[i]) {
+      case "--users": users = Integer.parseInt(args[++i]); break;
+      case "--seconds": seconds = Long.parseLong(args[++i]); break;
+      case "--warmup": warmup = Long.parseLong(args[++i]); break;
+      case "--mix": mix = true; break;
+      case "--clear": clear = true; break;
+      case "--weights": weights = Stream.of(args[++i].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+      case "--cities": cities = Arrays.asList(args[++i].split("\\s*,\\s*")); break;
+      default:
+        if (args[i].startsWith("--")) {
+          System.err.println("Unknown option " + args[i]);
+          System.exit(2);
+        }
+        roots.add(args[i]);
+      }
+    }
+
+    FlightTransactions transactions = FlightTransactions.getDefault();
+    if (clear)
+      transactions.clearTables();
+    LoadGenerator generator = new LoadGenerator(transactions);
+    Callable<Script> sessions;
+    if (mix) {
+      sessions = generator.mix(cities, weights);
+    } else {
+      List<Path> files = new ArrayList<Path>();
+      for (String root : roots.isEmpty() ? Arrays.asList("cases") : roots) {
+        try (Stream<Path> paths = Files.walk(Paths.get(root))) {
+          paths.filter(Files::isRegularFile).sorted().forEach(files::add);
+        }
+      }
+      sessions = generator.replay(files);
+    }
+
+    System.out.printf("%d users, %d s warmup, %d s measured, %s%n", users, warmup, seconds,
+        mix ? "mix " + Arrays.toString(weights) : "replaying scenarios");
+    generator.run(users, TimeUnit.SECONDS.toMillis(warmup), TimeUnit.SECONDS.toMillis(seconds), sessions);
+    System.out.print(generator.report());
+    transactions.close();
+  }
+}
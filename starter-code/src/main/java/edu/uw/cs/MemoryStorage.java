@@ -0,0 +1,293 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Keeps the Flights data in memory, for running the application and the
+ * {@code cases/} scenarios without a database.
+ *
+ * Operations behave like the {@code JdbcStorage} transactions: usernames are
+ * matched case-insensitively ignoring trailing spaces and must fit the USERS
+ * columns, a booking is refused if the user has any reservation that day
+ * (cancelled or not), cancelling frees no seats, and paying does not look at
+ * whether the reservation was cancelled. Each operation runs under one lock,
+ * so it is atomic and isolated like a serializable transaction. Searches use
+ * an immutable {@code FlightIndex} and take no lock.
+ *
+ * Flights are read once from a CSV file in the FLIGHTS column order; an
+ * empty storage has no flights.
+ */
+public class MemoryStorage implements Storage {
+  // Storage settings read from dbconn.properties (all optional)
+  static final String FLIGHTS_FILE = "storage.memory.flights";
+
+  // Widths of the USERS columns
+  private static final int USERNAME_LENGTH = 20;
+  private static final int PASSWORD_LENGTH = 100;
+
+  // Columns of a FLIGHTS row in the CSV file
+  private static final int FID = 0;
+  private static final int DAY_OF_MONTH = 2;
+  private static final int CARRIER_ID = 4;
+  private static final int FLIGHT_NUM = 5;
+  private static final int ORIGIN_CITY = 6;
+  private static final int DEST_CITY = 8;
+  private static final int CANCELLED = 13;
+  private static final int ACTUAL_TIME = 14;
+  private static final int CAPACITY = 16;
+  private static final int PRICE = 17;
+
+  // Storage shared by the whole application, created on first use
+  private static MemoryStorage defaultStorage;
+
+  private final FlightTable flights;
+  private final FlightIndex index;
+
+  // Users and reservations (guarded by this)
+  private final Map<String, User> users = new HashMap<String, User>();
+  private final Map<Integer, Reservation> reservations = new HashMap<Integer, Reservation>();
+  private final Map<Integer, Integer> booked = new HashMap<Integer, Integer>();
+  private long nextReservationId = 1;
+
+  /**
+   * Creates a storage over the given non-cancelled flights, which must already
+   * be stored in the table
+   */
+  public MemoryStorage(FlightTable flights, int[] fids) {
+    this.flights = flights;
+    this.index = new FlightIndex(flights, fids);
+  }
+
+  /**
+   * Creates a storage with the non-cancelled flights read from a CSV file
+   */
+  public static MemoryStorage load(Path file, FlightTable flights) throws IOException {
+    int[] fids = new int[1024];
+    int size = 0;
+    try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] row = line.split(",", -1);
+        if (row.length <= PRICE || !isInt(row[FID]))  // header or blank line
+          continue;
+        if (intValue(row[CANCELLED]) != 0)
+          continue;
+        if (size == fids.length)
+          fids = Arrays.copyOf(fids, size * 2);
+        fids[size++] = flights.put(intValue(row[FID]), intValue(row[DAY_OF_MONTH]), row[CARRIER_ID].trim(),
+            row[FLIGHT_NUM].trim(), row[ORIGIN_CITY].trim(), row[DEST_CITY].trim(), intValue(row[ACTUAL_TIME]),
+            intValue(row[CAPACITY]), intValue(row[PRICE]));
+      }
+    }
+    return new MemoryStorage(flights, Arrays.copyOf(fids, size));
+  }
+
+  /**
+   * Returns the storage shared by every session, reading the flights file
+   * named in dbconn.properties the first time it is needed
+   */
+  public static synchronized MemoryStorage getDefault() throws IOException {
+    if (defaultStorage == null) {
+      String file = AppConfig.getString(FLIGHTS_FILE, "");
+      defaultStorage = file.isEmpty() ? new MemoryStorage(FlightTable.getDefault(), new int[0])
+          : load(Paths.get(file), FlightTable.getDefault());
+    }
+    return defaultStorage;
+  }
+
+  /**
+   * Number of flights that searches can return
+   */
+  public int flightCount() {
+    return index.size();
+  }
+
+  public synchronized void clear() {
+    users.clear();
+    reservations.clear();
+    booked.clear();
+  }
+
+  public synchronized boolean createUser(String username, String password, int balance) {
+    if (username.length() > USERNAME_LENGTH || password.length() > PASSWORD_LENGTH)
+      return false;
+    String key = key(username);
+    if (users.containsKey(key))
+      return false;
+    users.put(key, new User(password, balance));
+    return true;
+  }
+
+  public synchronized boolean[] createUsers(String[] usernames, String[] passwords, int[] balances) {
+    boolean[] created = new boolean[usernames.length];
+    for (int i = 0; i < usernames.length; i++)
+      created[i] = createUser(usernames[i], passwords[i], balances[i]);
+    return created;
+  }
+
+  public synchronized String userPassword(String username) {
+    User user = users.get(key(username));
+    return user == null ? null : user.password;
+  }
+
+  public long[] search(String originCity, String destCity, boolean directOnly, int dayOfMonth, int count)
+      throws SQLException {
+    return index.search(originCity, destCity, directOnly, dayOfMonth, count);
+  }
+
+  public long[] multiHopSearch(String originCity, String destCity, int maxFlights, int dayOfMonth, int count) {
+    return index.multiHop(originCity, destCity, dayOfMonth, maxFlights, count);
+  }
+
+  public synchronized int book(String username, int dayOfMonth, long itinerary, int rid, int cost)
+      throws SQLException {
+    String key = key(username);
+    User user = users.get(key);
+    if (user == null)
+      throw new SQLException("No such user: " + username);
+    for (Reservation r : user.reservations.values()) {
+      if (r.dayOfMonth == dayOfMonth)
+        return BOOK_SAME_DAY;
+    }
+
+    int flightCount = Itinerary.flightCount(itinerary);
+    for (int i = 0; i < flightCount; i++) {
+      if (!hasSeat(Itinerary.fid(itinerary, i)))
+        return BOOK_FULL;
+    }
+    if (reservations.containsKey(rid))
+      throw new SQLException("Duplicate reservation ID: " + rid);
+
+    for (int i = 0; i < flightCount; i++)
+      booked.merge(Itinerary.fid(itinerary, i), 1, Integer::sum);
+    Reservation r = new Reservation(rid, key, dayOfMonth, itinerary, cost);
+    reservations.put(rid, r);
+    user.reservations.put(rid, r);
+    return BOOK_OK;
+  }
+
+  private boolean hasSeat(int fid) {
+    Integer taken = booked.get(fid);
+    return (taken == null ? 0 : taken) < flights.capacity(fid);
+  }
+
+  public synchronized Payment pay(int rid, String username) {
+    Reservation r = reservations.get(rid);
+    if (r == null || !r.username.equals(key(username)) || r.paid)
+      return new Payment(PAY_NOT_FOUND, 0, 0);
+    User user = users.get(r.username);
+    if (user.balance < r.cost)
+      return new Payment(PAY_INSUFFICIENT, user.balance, r.cost);
+    user.balance -= r.cost;
+    r.paid = true;
+    return new Payment(PAY_OK, user.balance, r.cost);
+  }
+
+  public synchronized Reservations reservations(String username) {
+    Reservations found = new Reservations();
+    User user = users.get(key(username));
+    if (user != null) {
+      for (Reservation r : user.reservations.values()) {
+        if (!r.cancelled)
+          found.add(r.rid, r.paid, r.itinerary);
+      }
+    }
+    return found;
+  }
+
+  public synchronized Account account(String username) {
+    User user = users.get(key(username));
+    if (user == null)
+      return null;
+    Account account = new Account(user.balance);
+    for (Reservation r : user.reservations.values())
+      account.add(r.rid, r.dayOfMonth, r.cost, r.paid, r.cancelled, r.itinerary);
+    return account;
+  }
+
+  public synchronized boolean cancel(int rid, String username) {
+    Reservation r = reservations.get(rid);
+    if (r == null || !r.username.equals(key(username)) || r.cancelled)
+      return false;
+    if (r.paid)
+      users.get(r.username).balance += r.cost;
+    r.cancelled = true;
+    return true;
+  }
+
+  public synchronized long leaseReservationIds(int size) {
+    long first = nextReservationId;
+    nextReservationId += size;
+    return first;
+  }
+
+  public synchronized void resetReservationIds() {
+    nextReservationId = 1;
+  }
+
+  /**
+   * Nothing is held open
+   */
+  public void close() {
+  }
+
+  // Usernames compare like the database's: case-insensitive, trailing spaces
+  // ignored
+  private static String key(String username) {
+    return FlightIndex.normalize(username);
+  }
+
+  private static boolean isInt(String s) {
+    s = s.trim();
+    if (s.isEmpty())
+      return false;
+    for (int i = 0; i < s.length(); i++) {
+      if (!Character.isDigit(s.charAt(i)))
+        return false;
+    }
+    return true;
+  }
+
+  // Empty columns (e.g. the actual time of a cancelled flight) read as 0
+  private static int intValue(String s) {
+    s = s.trim();
+    if (s.isEmpty())
+      return 0;
+    return s.indexOf('.') >= 0 ? (int) Double.parseDouble(s) : Integer.parseInt(s);
+  }
+
+  private static class User {
+    final String password;
+    int balance;
+
+    // The user's reservations by ID, cancelled or not
+    final SortedMap<Integer, Reservation> reservations = new TreeMap<Integer, Reservation>();
+
+    User(String password, int balance) {
+      this.password = password;
+      this.balance = balance;
+    }
+  }
+
+  private static class Reservation {
+    final int rid;
+    final String username;
+    final int dayOfMonth;
+    final long itinerary;
+    final int cost;
+    boolean paid;
+    boolean cancelled;
+
+    Reservation(int rid, String username, int dayOfMonth, long itinerary, int cost) {
+      this.rid = rid;
+      this.username = username;
+      this.dayOfMonth = dayOfMonth;
+      this.itinerary = itinerary;
+      this.cost = cost;
+    }
+  }
+}
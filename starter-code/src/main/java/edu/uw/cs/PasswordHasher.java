@@ -0,0 +1,278 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.security.spec.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.crypto.*;
+import javax.crypto.spec.*;
+
+/**
+ * Hashes and verifies passwords with salted PBKDF2.
+ *
+ * Hashing is deliberately slow, so it runs on a small pool of its own threads
+ * rather than on the threads serving sessions. At most a bounded number of
+ * hashes may be running or queued; a caller waits up to the configured time
+ * for room and is turned away after that, so a login storm cannot pile up
+ * unbounded work. Successful verifications are remembered for a short while,
+ * keyed by the username and a keyed digest of the presented password, so a
+ * client that logs in again soon does not pay for PBKDF2 twice.
+ *
+ * Stored passwords have the form {@code pbkdf2$iterations$salt$hash} with the
+ * salt and hash in Base64. When hashing is disabled (0 iterations) passwords
+ * are stored as given, and stored values not in that form are compared as
+ * plain text.
+ */
+public class PasswordHasher implements AutoCloseable {
+  // Hashing settings read from dbconn.properties (all optional)
+  static final String ITERATIONS = "password.hash_iterations";
+  static final String THREADS = "password.hash_threads";
+  static final String QUEUE_SIZE = "password.hash_queue_size";
+  static final String WAIT_MS = "password.hash_wait_ms";
+  static final String CACHE_SIZE = "password.verify_cache_size";
+  static final String CACHE_TTL_MS = "password.verify_cache_ttl_ms";
+
+  // Password hashing parameter constants
+  static final int HASH_STRENGTH = 65536;
+  static final int KEY_LENGTH = 128;
+  private static final int SALT_LENGTH = 16;
+  private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+  private static final String PREFIX = "pbkdf2$";
+
+  // Hasher shared by the whole application, created on first use
+  private static PasswordHasher defaultHasher;
+
+  private final int iterations;
+  private final long waitMillis;
+  private final int cacheSize;
+  private final long cacheTtlMillis;
+  private final SecureRandom random = new SecureRandom();
+
+  // One permit per hash that may be running or queued
+  private final Semaphore permits;
+  private final ExecutorService executor;
+
+  // Keys the digests of presented passwords, so cache keys are useless
+  // outside this process
+  private final byte[] cacheKey = new byte[32];
+
+  // Verified credentials in least recently used order (guarded by itself)
+  private final LinkedHashMap<String, Verified> verified;
+
+  // Hasher metrics
+  private final AtomicLong hashes = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  public PasswordHasher(int iterations, int threads, int queueSize, long waitMillis, int cacheSize,
+      long cacheTtlMillis) {
+    if (iterations < 0)
+      throw new IllegalArgumentException("Iterations must not be negative: " + iterations);
+    if (threads <= 0)
+      throw new IllegalArgumentException("Thread count must be positive: " + threads);
+    this.iterations = iterations;
+    this.waitMillis = waitMillis;
+    this.cacheSize = cacheSize;
+    this.cacheTtlMillis = cacheTtlMillis;
+    this.permits = new Semaphore(threads + Math.max(0, queueSize), true);
+    this.verified = new LinkedHashMap<String, Verified>(16, 0.75f, true);
+    random.nextBytes(cacheKey);
+
+    AtomicInteger count = new AtomicInteger();
+    executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "password-hasher-" + count.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Builds a hasher from the dbconn.properties settings
+   */
+  public static PasswordHasher fromConfig() throws IOException {
+    int processors = Runtime.getRuntime().availableProcessors();
+    return new PasswordHasher(AppConfig.getInt(ITERATIONS, HASH_STRENGTH), AppConfig.getInt(THREADS, processors),
+        AppConfig.getInt(QUEUE_SIZE, 64 * processors), AppConfig.getLong(WAIT_MS, 5000),
+        AppConfig.getInt(CACHE_SIZE, 10000), AppConfig.getLong(CACHE_TTL_MS, 60000));
+  }
+
+  /**
+   * Returns the hasher shared by every session, creating it on first use
+   */
+  public static synchronized PasswordHasher getDefault() throws IOException {
+    if (defaultHasher == null)
+      defaultHasher = fromConfig();
+    return defaultHasher;
+  }
+
+  /**
+   * Starts hashing a password with a new salt, waiting up to the configured
+   * time for room on the hashing threads
+   *
+   * @throws RejectedExecutionException if the hashing threads stay too busy
+   */
+  public Future<String> hashAsync(String password) throws InterruptedException {
+    if (iterations == 0)
+      return CompletableFuture.completedFuture(password);
+    byte[] salt = new byte[SALT_LENGTH];
+    random.nextBytes(salt);
+    return submit(() -> encode(iterations, salt, pbkdf2(password, salt, iterations)));
+  }
+
+  /**
+   * Hashes a password with a new salt, in the form it is stored in
+   *
+   * @throws RejectedExecutionException if the hashing threads stay too busy
+   */
+  public String hash(String password) throws InterruptedException, ExecutionException {
+    return hashAsync(password).get();
+  }
+
+  /**
+   * Checks a presented password against its stored form
+   *
+   * @throws RejectedExecutionException if the hashing threads stay too busy
+   */
+  public boolean verify(String username, String password, String stored)
+      throws InterruptedException, ExecutionException {
+    if (!stored.startsWith(PREFIX))  // stored as plain text
+      return MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8), password.getBytes(StandardCharsets.UTF_8));
+
+    String key = cacheSize > 0 ? cacheKey(username, password) : null;
+    if (key != null && isVerified(key, stored)) {
+      cacheHits.incrementAndGet();
+      return true;
+    }
+
+    String[] parts = stored.split("\\$");
+    if (parts.length != 4)
+      return false;
+    int storedIterations = Integer.parseInt(parts[1]);
+    byte[] salt = Base64.getDecoder().decode(parts[2]);
+    byte[] expected = Base64.getDecoder().decode(parts[3]);
+    boolean matches = submit(() -> MessageDigest.isEqual(expected, pbkdf2(password, salt, storedIterations))).get();
+    if (matches && key != null)
+      remember(key, stored);
+    return matches;
+  }
+
+  // Runs a hash on the hashing threads once there is room for it
+  private <T> Future<T> submit(Callable<T> task) throws InterruptedException {
+    if (!permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS)) {
+      rejections.incrementAndGet();
+      throw new RejectedExecutionException("Timed out after " + waitMillis + "ms waiting to hash a password");
+    }
+    try {
+      return executor.submit(() -> {
+        try {
+          hashes.incrementAndGet();
+          return task.call();
+        } finally {
+          permits.release();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private static byte[] pbkdf2(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+    KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_LENGTH);
+    return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+  }
+
+  private static String encode(int iterations, byte[] salt, byte[] hash) {
+    Base64.Encoder base64 = Base64.getEncoder();
+    return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(hash);
+  }
+
+  // Username and a keyed digest of the password; cheap next to PBKDF2
+  private String cacheKey(String username, String password) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+      return username + "\0" + Base64.getEncoder().encodeToString(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is not available", e);
+    }
+  }
+
+  // Whether the credential was verified recently against the same stored hash
+  private boolean isVerified(String key, String stored) {
+    synchronized (verified) {
+      Verified v = verified.get(key);
+      if (v == null)
+        return false;
+      if (v.expiresAt <= System.currentTimeMillis()) {
+        verified.remove(key);
+        return false;
+      }
+      return v.stored.equals(stored);
+    }
+  }
+
+  private void remember(String key, String stored) {
+    synchronized (verified) {
+      verified.put(key, new Verified(stored, System.currentTimeMillis() + cacheTtlMillis));
+      if (verified.size() > cacheSize) {
+        Iterator<String> eldest = verified.keySet().iterator();
+        eldest.next();
+        eldest.remove();
+      }
+    }
+  }
+
+  /**
+   * Forgets every verified credential, e.g. after the users are cleared
+   */
+  public void clearCache() {
+    synchronized (verified) {
+      verified.clear();
+    }
+  }
+
+  /**
+   * Stops the hashing threads
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+
+  public long getHashCount() {
+    return hashes.get();
+  }
+
+  public long getCacheHitCount() {
+    return cacheHits.get();
+  }
+
+  public long getRejectedCount() {
+    return rejections.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("PasswordHasher[iterations=%d, hashes=%d, cacheHits=%d, rejected=%d]", iterations,
+        getHashCount(), getCacheHitCount(), getRejectedCount());
+  }
+
+  // A credential that matched a stored hash, until it expires
+  private static class Verified {
+    final String stored;
+    final long expiresAt;
+
+    Verified(String stored, long expiresAt) {
+      this.stored = stored;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
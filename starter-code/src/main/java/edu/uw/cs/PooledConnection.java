@@ -0,0 +1,98 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * A connection borrowed from a {@code ConnectionPool}. Closing it returns the
+ * underlying connection to the pool.
+ *
+ * Each borrow gets its own handle, so closing one again after the connection
+ * went to another borrower does nothing. Prepared statements are cached for
+ * the lifetime of the physical connection, so each canned query is only
+ * prepared once per connection.
+ */
+public class PooledConnection implements AutoCloseable {
+  private final ConnectionPool pool;
+  private final Physical physical;
+
+  // Whether this borrower has already given it back
+  private boolean closed;
+
+  PooledConnection(ConnectionPool pool, Physical physical) {
+    this.pool = pool;
+    this.physical = physical;
+  }
+
+  /**
+   * The underlying connection. Do not close it directly.
+   */
+  public Connection connection() {
+    return physical.conn;
+  }
+
+  /**
+   * Returns the prepared statement for the given SQL, preparing it on first use
+   */
+  public PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement statement = physical.statements.get(sql);
+    if (statement == null) {
+      statement = physical.conn.prepareStatement(sql);
+      physical.statements.put(sql, statement);
+    }
+    return statement;
+  }
+
+  /**
+   * Returns this connection to the pool. Closing it again does nothing.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed)
+        return;
+      closed = true;
+    }
+    pool.release(physical);
+  }
+
+  /**
+   * A physical connection and its statement cache, kept by the pool between
+   * borrows
+   */
+  static class Physical {
+    final Connection conn;
+    final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+    // Last time this connection was handed back to the pool
+    long lastUsed = System.currentTimeMillis();
+
+    Physical(Connection conn) {
+      this.conn = conn;
+    }
+
+    // Restores the default connection state, returns false if the connection
+    // is no longer usable
+    boolean reset() {
+      try {
+        if (conn.isClosed())
+          return false;
+        if (!conn.getAutoCommit()) {
+          conn.rollback();
+          conn.setAutoCommit(true);
+        }
+        return true;
+      } catch (SQLException e) {
+        return false;
+      }
+    }
+
+    void close() {
+      try {
+        conn.close();
+      } catch (SQLException e) {
+        // nothing left to clean up
+      }
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Reports how the database answers each of JdbcStorage's read queries before
+ * and after the pending schema migrations are applied: the rows returned and,
+ * for every table access in the actual plan, the operator (scan or seek), the
+ * index it used and the rows it read. The writes share their predicates with
+ * these reads, so they are not run.
+ *
+ * Usage: QueryPlanCheck [origin city] [destination city] [day of month] [username]
+ */
+public class QueryPlanCheck {
+  // Number of itineraries the searches ask for
+  private static final int COUNT = 100;
+
+  // Plan operators that read a table or index
+  private static final Set<String> ACCESS_OPERATORS = new HashSet<String>(Arrays.asList("Table Scan", "Index Scan",
+      "Index Seek", "Clustered Index Scan", "Clustered Index Seek", "RID Lookup", "Key Lookup"));
+
+  private final TransactionRunner runner;
+  private final List<Sample> samples = new ArrayList<Sample>();
+
+  // Binds a query's sample parameters
+  private interface Parameters {
+    void bind(PreparedStatement statement) throws SQLException;
+  }
+
+  public QueryPlanCheck(TransactionRunner runner, String origin, String dest, int day, String username) {
+    this.runner = runner;
+    add("DIRECT_FLIGHT", JdbcStorage.DIRECT_FLIGHT, s -> route(s, origin, dest, day));
+    add("NON_DIRECT_FLIGHT", JdbcStorage.NON_DIRECT_FLIGHT, s -> route(s, origin, dest, day));
+    add("CONNECTING_FLIGHTS", JdbcStorage.CONNECTING_FLIGHTS, s -> route(s, origin, dest, day));
+    add("SAME_DAY_RESERVATION", JdbcStorage.SAME_DAY_RESERVATION, s -> {
+      s.setString(1, username);
+      s.setInt(2, day);
+    });
+    add("USER_RESERVATIONS", JdbcStorage.USER_RESERVATIONS, s -> s.setString(1, username));
+    add("USER_ACCOUNT_RESERVATIONS", JdbcStorage.USER_ACCOUNT_RESERVATIONS, s -> s.setString(1, username));
+    add("USER_PASSWORD", JdbcStorage.USER_PASSWORD, s -> s.setString(1, username));
+    add("USER_BALANCE", JdbcStorage.USER_BALANCE, s -> s.setString(1, username));
+    add("USER_PAID", JdbcStorage.USER_PAID, s -> {
+      s.setInt(1, 1);
+      s.setString(2, username);
+    });
+    add("SEATS_LEFT", JdbcStorage.SEATS_LEFT, s -> s.setInt(1, 1));
+  }
+
+  private void add(String name, String sql, Parameters parameters) {
+    samples.add(new Sample(name, sql, parameters));
+  }
+
+  private static void route(PreparedStatement statement, String origin, String dest, int day) throws SQLException {
+    statement.setInt(1, COUNT);
+    statement.setString(2, origin);
+    statement.setString(3, dest);
+    statement.setInt(4, day);
+  }
+
+  /**
+   * Runs every query once with its actual plan and writes what it read
+   */
+  public void report(PrintStream out) throws SQLException {
+    for (Sample sample : samples) {
+      try {
+        String report = runner.withRetry(c -> profile(c, sample));
+        out.println(report);
+      } catch (SQLException e) {
+        out.printf("%s: %s%n", sample.name, e.getMessage());
+      }
+    }
+  }
+
+  // Runs a query with SET STATISTICS PROFILE, which follows its rows with a
+  // result set describing each operator of the plan it ran
+  private static String profile(PooledConnection c, Sample sample) throws SQLException {
+    StringBuilder report = new StringBuilder(sample.name);
+    try (Statement settings = c.connection().createStatement()) {
+      settings.execute("SET STATISTICS PROFILE ON");
+      try (PreparedStatement statement = c.connection().prepareStatement(sample.sql)) {
+        sample.parameters.bind(statement);
+        boolean isResultSet = statement.execute();
+        boolean first = true;
+        for (;; isResultSet = statement.getMoreResults()) {
+          if (!isResultSet) {
+            if (statement.getUpdateCount() == -1)
+              break;
+            continue;
+          }
+          try (ResultSet results = statement.getResultSet()) {
+            if (first)
+              report.append(": ").append(count(results)).append(" rows");
+            else
+              appendAccesses(report, results);
+          }
+          first = false;
+        }
+      } finally {
+        settings.execute("SET STATISTICS PROFILE OFF");
+      }
+    }
+    return report.toString();
+  }
+
+  private static int count(ResultSet results) throws SQLException {
+    int rows = 0;
+    while (results.next())
+      rows++;
+    return rows;
+  }
+
+  // Appends the operator, object and rows read of each table access of a plan
+  private static void appendAccesses(StringBuilder report, ResultSet plan) throws SQLException {
+    while (plan.next()) {
+      String operator = plan.getString("PhysicalOp");
+      if (operator == null || !ACCESS_OPERATORS.contains(operator.trim()))
+        continue;
+      String argument = plan.getString("Argument");
+      String object = argument;
+      if (argument != null && argument.startsWith("OBJECT:(")) {
+        int end = argument.indexOf(')');
+        object = argument.substring("OBJECT:(".length(), end < 0 ? argument.length() : end);
+      }
+      report.append(String.format("%n  %-22s %-60s %10d rows read", operator.trim(), object,
+          plan.getLong("Rows")));
+    }
+  }
+
+  // A query with the sample parameters it is run with
+  private static class Sample {
+    final String name;
+    final String sql;
+    final Parameters parameters;
+
+    Sample(String name, String sql, Parameters parameters) {
+      this.name = name;
+      this.sql = sql;
+      this.parameters = parameters;
+    }
+  }
+
+  public static void main(String[] args) throws IOException, SQLException {
+    String origin = args.length > 0 ? args[0] : "Seattle WA";
+    String dest = args.length > 1 ? args[1] : "Boston MA";
+    int day = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+    String username = args.length > 3 ? args[3] : "user1";
+
+    TransactionRunner runner = TransactionRunner.getDefault();
+    QueryPlanCheck check = new QueryPlanCheck(runner, origin, dest, day, username);
+    System.out.println("Before migrating:");
+    check.report(System.out);
+    int applied = new SchemaMigrations(runner).migrate();
+    System.out.printf("%nApplied %d migrations%n%nAfter migrating:%n", applied);
+    check.report(System.out);
+    ConnectionPool.getDefault().close();
+  }
+}
@@ -0,0 +1,142 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Hands out reservation IDs that are unique across sessions and processes
+ * without a database round trip per booking.
+ *
+ * Each allocator leases a block of consecutive IDs from the storage's sequence
+ * (hi/lo allocation) and hands them out lock-free from the block; only leasing
+ * the next block goes to the storage. With a single allocator the IDs start at
+ * 1 and increase by 1. With several, each one's IDs are increasing, and an
+ * allocator that stops discards the rest of its block.
+ *
+ * An ID whose booking was refused is given back. If no later ID has been
+ * handed out yet, it is simply handed out again next. Otherwise it is kept
+ * and handed out before any new one, so refusals leave no gap, but
+ * concurrent bookings may then get their IDs out of order.
+ */
+public class ReservationIdAllocator {
+  // Number of IDs leased at a time (dbconn.properties)
+  static final String BLOCK_SIZE = "reservation.id_block_size";
+
+  private final BlockSource source;
+  private final int blockSize;
+
+  // Block currently handed out from, replaced under lock when used up
+  private volatile Block block = new Block(1, 1);
+
+  // Given-back IDs that could not simply be handed out again next
+  private final ConcurrentSkipListSet<Long> released = new ConcurrentSkipListSet<Long>();
+
+  // Number of blocks leased
+  private final AtomicLong leases = new AtomicLong();
+
+  /**
+   * Where blocks of IDs are leased from
+   */
+  interface BlockSource {
+    /**
+     * Reserves {@code size} consecutive IDs and returns the first
+     */
+    long lease(int size) throws SQLException;
+
+    /**
+     * Makes the next lease start again from 1
+     */
+    void reset() throws SQLException;
+  }
+
+  /**
+   * Creates an allocator that leases blocks from the storage's sequence
+   */
+  public ReservationIdAllocator(Storage storage, int blockSize) {
+    this(new BlockSource() {
+      public long lease(int size) throws SQLException {
+        return storage.leaseReservationIds(size);
+      }
+
+      public void reset() throws SQLException {
+        storage.resetReservationIds();
+      }
+    }, blockSize);
+  }
+
+  ReservationIdAllocator(BlockSource source, int blockSize) {
+    if (blockSize <= 0)
+      throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+    this.source = source;
+    this.blockSize = blockSize;
+  }
+
+  /**
+   * Builds an allocator for the given storage from the dbconn.properties
+   * settings
+   */
+  public static ReservationIdAllocator fromConfig(Storage storage) throws IOException {
+    return new ReservationIdAllocator(storage, AppConfig.getInt(BLOCK_SIZE, 100));
+  }
+
+  /**
+   * Returns the lowest given-back ID, if any, otherwise the next reservation
+   * ID, leasing a new block if the current one is used up
+   */
+  public long next() throws SQLException {
+    Long reused = released.pollFirst();
+    if (reused != null)
+      return reused;
+    while (true) {
+      Block current = block;
+      long id = current.next.getAndIncrement();
+      if (id < current.end)
+        return id;
+      synchronized (this) {
+        if (block == current) {
+          long start = source.lease(blockSize);
+          leases.incrementAndGet();
+          block = new Block(start, start + blockSize);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gives back an ID whose booking was refused, so a later booking reuses it
+   */
+  public void release(long id) {
+    if (!block.next.compareAndSet(id + 1, id))
+      released.add(id);
+  }
+
+  /**
+   * Restarts the IDs at 1, discarding the current block
+   */
+  public synchronized void reset() throws SQLException {
+    source.reset();
+    block = new Block(1, 1);
+    released.clear();
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public long getLeaseCount() {
+    return leases.get();
+  }
+
+  // IDs [next, end) not yet handed out
+  private static class Block {
+    final AtomicLong next;
+    final long end;
+
+    Block(long start, long end) {
+      this.next = new AtomicLong(start);
+      this.end = end;
+    }
+  }
+}
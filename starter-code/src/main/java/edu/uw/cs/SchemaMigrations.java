@@ -0,0 +1,205 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.security.*;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Brings the database schema up to date with the versioned scripts in
+ * {@code src/main/resources/migrations}: 001.sql, 002.sql and so on, each
+ * starting with a {@code --} line describing it and split into batches by
+ * {@code GO} lines.
+ *
+ * Applied versions are recorded in SCHEMA_VERSION with a checksum of their
+ * script. Each pending script runs in its own transaction under an
+ * application lock, so several servers starting at once apply it once. A
+ * script edited after it was applied, or a database at a version this build
+ * does not have, stops the run.
+ */
+public class SchemaMigrations {
+  // Whether the application migrates the database at startup (optional)
+  static final String ENABLED = "schema.migrate";
+
+  // Where the scripts are on the class path, by version
+  private static final String SCRIPT_PATH = "/migrations/%03d.sql";
+
+  // Serializes migration runs across every client of the database
+  private static final String LOCK = "EXEC sp_getapplock @Resource = 'schema_migrations', @LockMode = 'Exclusive', "
+                                     + "@LockOwner = 'Transaction'";
+
+  // Creates the table of applied versions if it does not exist yet
+  private static final String CREATE_VERSION_TABLE = "IF OBJECT_ID('SCHEMA_VERSION') IS NULL "
+                                                     + "CREATE TABLE SCHEMA_VERSION (version INT NOT NULL PRIMARY KEY, "
+                                                     + "description VARCHAR(200) NOT NULL, checksum CHAR(64) NOT NULL, "
+                                                     + "applied_at DATETIME2 NOT NULL DEFAULT SYSUTCDATETIME())";
+
+  // Finds the applied versions
+  private static final String APPLIED_VERSIONS = "SELECT version, checksum FROM SCHEMA_VERSION ORDER BY version";
+
+  // Records an applied version
+  private static final String RECORD_VERSION = "INSERT INTO SCHEMA_VERSION (version, description, checksum) "
+                                               + "VALUES (?, ?, ?)";
+
+  private final TransactionRunner runner;
+  private final List<Migration> migrations;
+
+  public SchemaMigrations(TransactionRunner runner) throws IOException {
+    this(runner, load());
+  }
+
+  SchemaMigrations(TransactionRunner runner, List<Migration> migrations) {
+    this.runner = runner;
+    this.migrations = migrations;
+  }
+
+  /**
+   * Migrates the database of the given runner if dbconn.properties does not
+   * turn it off, returning the number of scripts applied
+   */
+  public static int migrateIfEnabled(TransactionRunner runner) throws IOException, SQLException {
+    return AppConfig.getBoolean(ENABLED, true) ? new SchemaMigrations(runner).migrate() : 0;
+  }
+
+  /**
+   * Applies every pending script in version order and returns how many were
+   * applied
+   */
+  public int migrate() throws SQLException {
+    int applied = 0;
+    while (runner.inTransaction(this::applyNext))
+      applied++;
+    return applied;
+  }
+
+  // Applies the first pending script, returns false if there was none
+  private boolean applyNext(PooledConnection c) throws SQLException {
+    try (Statement statement = c.connection().createStatement()) {
+      statement.execute(LOCK);
+      statement.execute(CREATE_VERSION_TABLE);
+    }
+    List<Migration> pending = pending(c);
+    if (pending.isEmpty())
+      return false;
+    Migration next = pending.get(0);
+    try (Statement statement = c.connection().createStatement()) {
+      for (String batch : next.batches)
+        statement.execute(batch);
+    }
+    PreparedStatement recordStatement = c.prepare(RECORD_VERSION);
+    recordStatement.clearParameters();
+    recordStatement.setInt(1, next.version);
+    recordStatement.setString(2, next.description);
+    recordStatement.setString(3, next.checksum);
+    recordStatement.executeUpdate();
+    return true;
+  }
+
+  // Returns the scripts not yet applied, after checking that the applied ones
+  // are unchanged
+  private List<Migration> pending(PooledConnection c) throws SQLException {
+    Map<Integer, String> applied = new HashMap<Integer, String>();
+    try (ResultSet results = c.prepare(APPLIED_VERSIONS).executeQuery()) {
+      while (results.next())
+        applied.put(results.getInt("version"), results.getString("checksum"));
+    }
+    List<Migration> pending = new ArrayList<Migration>();
+    for (Migration migration : migrations) {
+      String checksum = applied.remove(migration.version);
+      if (checksum == null)
+        pending.add(migration);
+      else if (!checksum.equals(migration.checksum))
+        throw new SQLException("Migration " + migration.version + " has changed since it was applied");
+    }
+    if (!applied.isEmpty())
+      throw new SQLException("Database has migrations this build does not know: " + new TreeSet<Integer>(applied.keySet()));
+    return pending;
+  }
+
+  /**
+   * Reads the scripts on the class path, from version 1 up to the first one
+   * missing
+   */
+  static List<Migration> load() throws IOException {
+    List<Migration> migrations = new ArrayList<Migration>();
+    for (int version = 1;; version++) {
+      try (InputStream in = SchemaMigrations.class.getResourceAsStream(String.format(SCRIPT_PATH, version))) {
+        if (in == null)
+          return migrations;
+        ByteArrayOutputStream script = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) != -1;)
+          script.write(buffer, 0, n);
+        migrations.add(new Migration(version, new String(script.toByteArray(), StandardCharsets.UTF_8)));
+      }
+    }
+  }
+
+  /**
+   * A versioned script
+   */
+  public static class Migration {
+    final int version;
+    final String description;
+
+    // SHA-256 of the script with its line endings normalized, in hex
+    final String checksum;
+
+    final List<String> batches = new ArrayList<String>();
+
+    Migration(int version, String script) {
+      this.version = version;
+      script = script.replace("\r\n", "\n");
+      String first = script.substring(0, Math.max(0, script.indexOf('\n')));
+      if (!first.startsWith("--"))
+        throw new IllegalArgumentException("Migration " + version + " does not start with a description");
+      this.description = first.substring(2).trim();
+      this.checksum = sha256(script);
+
+      StringBuilder batch = new StringBuilder();
+      for (String line : script.split("\n")) {
+        if (line.trim().equalsIgnoreCase("GO")) {
+          addBatch(batch);
+          batch.setLength(0);
+        } else {
+          batch.append(line).append('\n');
+        }
+      }
+      addBatch(batch);
+    }
+
+    private void addBatch(StringBuilder batch) {
+      String sql = batch.toString();
+      boolean onlyComments = true;
+      for (String line : sql.split("\n"))
+        onlyComments &= line.trim().isEmpty() || line.trim().startsWith("--");
+      if (!onlyComments)
+        batches.add(sql);
+    }
+
+    private static String sha256(String script) {
+      try {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(script.getBytes(StandardCharsets.UTF_8)))
+          hex.append(String.format("%02x", b));
+        return hex.toString();
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    public int getVersion() {
+      return version;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%03d %s", version, description);
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Bounded LRU cache of search results shared by every session.
+ *
+ * An entry holds the itineraries a search returned together with their
+ * rendered text, so a hit needs no database work and no formatting. Entries
+ * expire after a fixed time to live, and every entry containing a flight is
+ * dropped when a booking changes that flight's seat count.
+ */
+public class SearchCache {
+  // Cache settings (dbconn.properties), a size of 0 disables the cache
+  static final String SIZE = "search.cache.size";
+  static final String TTL_MS = "search.cache.ttl_ms";
+
+  // Cache shared by all sessions, created on first use
+  private static SearchCache defaultCache;
+  private static boolean defaultLoaded;
+
+  private final int maxEntries;
+  private final long ttlMillis;
+
+  // Entries in least recently used order (guarded by this)
+  private final LinkedHashMap<Key, Entry> entries;
+
+  // fid -> keys of the entries containing that flight (guarded by this)
+  private final Map<Integer, Set<Key>> byFlight = new HashMap<Integer, Set<Key>>();
+
+  // Cache metrics
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public SearchCache(int maxEntries, long ttlMillis) {
+    if (maxEntries <= 0)
+      throw new IllegalArgumentException("Cache size must be positive: " + maxEntries);
+    this.maxEntries = maxEntries;
+    this.ttlMillis = ttlMillis;
+    this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns the cache shared by every session, or null if it is disabled in
+   * dbconn.properties
+   */
+  public static synchronized SearchCache getDefault() throws IOException {
+    if (!defaultLoaded) {
+      int size = AppConfig.getInt(SIZE, 0);
+      if (size > 0)
+        defaultCache = new SearchCache(size, AppConfig.getLong(TTL_MS, 60000));
+      defaultLoaded = true;
+    }
+    return defaultCache;
+  }
+
+  /**
+   * Returns the cached result of a search, or null on a miss
+   */
+  public synchronized Entry get(String originCity, String destCity, boolean direct, int dayOfMonth, int count) {
+    Key key = new Key(originCity, destCity, direct, dayOfMonth, count);
+    Entry entry = entries.get(key);
+    if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+      remove(key);
+      expirations.incrementAndGet();
+      entry = null;
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry;
+  }
+
+  /**
+   * Caches the result of a search, evicting the least recently used entry if
+   * the cache is full
+   */
+  public synchronized void put(String originCity, String destCity, boolean direct, int dayOfMonth, int count,
+      long[] itineraries, String rendered) {
+    Key key = new Key(originCity, destCity, direct, dayOfMonth, count);
+    remove(key);
+
+    Entry entry = new Entry(itineraries.clone(), rendered, System.currentTimeMillis() + ttlMillis);
+    entries.put(key, entry);
+    for (long itin : itineraries) {
+      for (int i = 0; i < Itinerary.flightCount(itin); i++)
+        index(Itinerary.fid(itin, i), key);
+    }
+
+    while (entries.size() > maxEntries) {
+      remove(entries.keySet().iterator().next());
+      evictions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Drops every cached result that contains the given flight
+   */
+  public synchronized void invalidateFlight(int fid) {
+    Set<Key> keys = byFlight.remove(fid);
+    if (keys == null)
+      return;
+    for (Key key : keys) {
+      if (remove(key) != null)
+        invalidations.incrementAndGet();
+    }
+  }
+
+  /**
+   * Drops every cached result
+   */
+  public synchronized void clear() {
+    invalidations.addAndGet(entries.size());
+    entries.clear();
+    byFlight.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public long getExpirationCount() {
+    return expirations.get();
+  }
+
+  public long getInvalidationCount() {
+    return invalidations.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SearchCache[size=%d, max=%d, hits=%d, misses=%d, evictions=%d, expirations=%d, "
+        + "invalidations=%d]", size(), maxEntries, getHitCount(), getMissCount(), getEvictionCount(),
+        getExpirationCount(), getInvalidationCount());
+  }
+
+  private Entry remove(Key key) {
+    Entry entry = entries.remove(key);
+    if (entry != null)
+      unindex(key, entry);
+    return entry;
+  }
+
+  private void index(int fid, Key key) {
+    Set<Key> keys = byFlight.get(fid);
+    if (keys == null) {
+      keys = new HashSet<Key>();
+      byFlight.put(fid, keys);
+    }
+    keys.add(key);
+  }
+
+  private void unindex(Key key, Entry entry) {
+    for (long itin : entry.itineraries) {
+      for (int i = 0; i < Itinerary.flightCount(itin); i++)
+        unindex(Itinerary.fid(itin, i), key);
+    }
+  }
+
+  private void unindex(int fid, Key key) {
+    Set<Key> keys = byFlight.get(fid);
+    if (keys != null && keys.remove(key) && keys.isEmpty())
+      byFlight.remove(fid);
+  }
+
+  /**
+   * A cached search result
+   */
+  public static class Entry {
+    private final long[] itineraries;
+    private final String rendered;
+    private final long expiresAt;
+
+    Entry(long[] itineraries, String rendered, long expiresAt) {
+      this.itineraries = itineraries;
+      this.rendered = rendered;
+      this.expiresAt = expiresAt;
+    }
+
+    /**
+     * The packed itineraries in the order they were numbered. Do not modify.
+     */
+    public long[] itineraries() {
+      return itineraries;
+    }
+
+    /**
+     * The search output exactly as it was returned
+     */
+    public String rendered() {
+      return rendered;
+    }
+  }
+
+  // Search parameters, with cities matched the way the database matches them
+  private static class Key {
+    final String originCity;
+    final String destCity;
+    final boolean direct;
+    final int dayOfMonth;
+    final int count;
+
+    Key(String originCity, String destCity, boolean direct, int dayOfMonth, int count) {
+      this.originCity = FlightIndex.normalize(originCity);
+      this.destCity = FlightIndex.normalize(destCity);
+      this.direct = direct;
+      this.dayOfMonth = dayOfMonth;
+      this.count = count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key k = (Key) o;
+      return direct == k.direct && dayOfMonth == k.dayOfMonth && count == k.count && originCity.equals(k.originCity)
+          && destCity.equals(k.destCity);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(originCity, destCity, direct, dayOfMonth, count);
+    }
+  }
+}
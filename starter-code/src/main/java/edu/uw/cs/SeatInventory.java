@@ -0,0 +1,283 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Remaining seats of each flight, kept in memory so bookings are admitted
+ * without touching the flight's row in the database.
+ *
+ * A flight's count is read from the database the first time it is booked,
+ * under one of a fixed set of striped locks; after that a seat is taken with
+ * a compare-and-set that never lets the count go below zero, so no flight is
+ * oversold. Seats of bookings that went through are added to the flights'
+ * {@code num_booked} by a background writer, coalesced per flight into one
+ * batch per interval. Before the first booking the stored counts are
+ * reconciled with the reservations, which repairs any that a crash kept from
+ * being written.
+ *
+ * The counts are only right while this process is the only one booking
+ * seats.
+ */
+public class SeatInventory implements AutoCloseable {
+  private static final int PAGE_BITS = 12;
+  private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+  // Marks a flight whose count has not been read yet
+  private static final int UNKNOWN = Integer.MIN_VALUE;
+
+  // Locks guarding the first read of a flight's count
+  private static final int STRIPES = 64;
+
+  /**
+   * Where the seat counts are kept
+   */
+  interface Backing {
+    /**
+     * Sets every flight's booked seats to the number of reservations on it
+     */
+    void reconcile() throws SQLException;
+
+    /**
+     * The seats left on a flight, or 0 if there is no such flight
+     */
+    int remaining(int fid) throws SQLException;
+
+    /**
+     * Adds {@code counts[i]} booked seats to flight {@code fids[i]}, all or
+     * none of them
+     */
+    void addBooked(int[] fids, int[] counts) throws SQLException;
+  }
+
+  private final Backing backing;
+  private final Object[] locks = new Object[STRIPES];
+
+  // page -> remaining seats of each fid in the page; null until needed
+  private volatile AtomicIntegerArray[] pages = new AtomicIntegerArray[0];
+
+  // fid -> seats booked but not yet written
+  private final ConcurrentHashMap<Integer, Integer> pending = new ConcurrentHashMap<Integer, Integer>();
+
+  private final ScheduledExecutorService writer;
+  private volatile boolean reconciled;
+
+  // Inventory metrics
+  private final AtomicLong flushes = new AtomicLong();
+  private final AtomicLong flushedSeats = new AtomicLong();
+  private final AtomicLong rejections = new AtomicLong();
+
+  /**
+   * Creates an inventory that writes the booked seats every
+   * {@code flushMillis}, or only when flushed if that is 0
+   */
+  public SeatInventory(Backing backing, long flushMillis) {
+    this.backing = backing;
+    for (int i = 0; i < STRIPES; i++)
+      locks[i] = new Object();
+    if (flushMillis <= 0) {
+      writer = null;
+      return;
+    }
+    writer = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "seat-inventory-writer");
+      t.setDaemon(true);
+      return t;
+    });
+    writer.scheduleWithFixedDelay(() -> {
+      try {
+        flush();
+      } catch (SQLException e) {
+        System.err.println("Cannot write booked seats, will retry: " + e);
+      }
+    }, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Takes a seat on every flight of the itinerary, or on none of them if one
+   * is full
+   */
+  public boolean take(long itinerary) throws SQLException {
+    for (int i = 0; i < Itinerary.flightCount(itinerary); i++) {
+      if (!take(Itinerary.fid(itinerary, i))) {
+        for (int j = 0; j < i; j++)
+          give(Itinerary.fid(itinerary, j));
+        rejections.incrementAndGet();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean take(int fid) throws SQLException {
+    AtomicIntegerArray page = pageOf(fid);
+    int row = fid & (PAGE_SIZE - 1);
+    for (;;) {
+      int left = page.get(row);
+      if (left == UNKNOWN) {
+        load(fid);
+        page = pageOf(fid);  // a new page if the counts were cleared meanwhile
+        continue;
+      }
+      if (left <= 0)
+        return false;
+      if (page.compareAndSet(row, left, left - 1))
+        return true;
+    }
+  }
+
+  /**
+   * Gives back the seats taken for an itinerary whose booking was refused
+   */
+  public void release(long itinerary) {
+    for (int i = 0; i < Itinerary.flightCount(itinerary); i++)
+      give(Itinerary.fid(itinerary, i));
+  }
+
+  // Returns a seat, unless the count was forgotten since it was taken
+  private void give(int fid) {
+    AtomicIntegerArray page = pageOf(fid);
+    int row = fid & (PAGE_SIZE - 1);
+    for (;;) {
+      int left = page.get(row);
+      if (left == UNKNOWN || page.compareAndSet(row, left, left + 1))
+        return;
+    }
+  }
+
+  /**
+   * Queues the seats of a booked itinerary to be written to the database
+   */
+  public void booked(long itinerary) {
+    for (int i = 0; i < Itinerary.flightCount(itinerary); i++)
+      pending.merge(Itinerary.fid(itinerary, i), 1, Integer::sum);
+  }
+
+  /**
+   * Writes every queued seat to the database in one batch. Seats that fail to
+   * be written are queued again.
+   */
+  public synchronized void flush() throws SQLException {
+    if (pending.isEmpty())
+      return;
+    int[] fids = new int[pending.size()];
+    int[] counts = new int[fids.length];
+    int size = 0;
+    for (Integer fid : pending.keySet()) {
+      Integer count = pending.remove(fid);  // seats booked from now on are queued anew
+      if (count == null)
+        continue;
+      if (size == fids.length) {
+        fids = Arrays.copyOf(fids, size * 2);
+        counts = Arrays.copyOf(counts, size * 2);
+      }
+      fids[size] = fid;
+      counts[size++] = count;
+    }
+    fids = Arrays.copyOf(fids, size);
+    counts = Arrays.copyOf(counts, size);
+
+    try {
+      backing.addBooked(fids, counts);
+    } catch (SQLException | RuntimeException e) {
+      for (int i = 0; i < size; i++)
+        pending.merge(fids[i], counts[i], Integer::sum);
+      throw e;
+    }
+    flushes.incrementAndGet();
+    for (int count : counts)
+      flushedSeats.addAndGet(count);
+  }
+
+  /**
+   * Forgets every count and queued seat, e.g. after the bookings are cleared
+   * from the database
+   */
+  public synchronized void clear() {
+    pending.clear();
+    pages = new AtomicIntegerArray[0];
+  }
+
+  /**
+   * Stops the background writer and writes the seats still queued
+   */
+  @Override
+  public void close() {
+    if (writer != null)
+      writer.shutdownNow();
+    try {
+      flush();
+    } catch (SQLException e) {
+      System.err.println("Lost " + getPendingCount() + " booked seats on close, reconciled on next start: " + e);
+    }
+  }
+
+  // Reads a flight's count, reconciling the stored counts the first time
+  private void load(int fid) throws SQLException {
+    if (!reconciled) {
+      synchronized (this) {
+        if (!reconciled) {
+          backing.reconcile();
+          reconciled = true;
+        }
+      }
+    }
+    synchronized (locks[fid & (STRIPES - 1)]) {
+      AtomicIntegerArray page = pageOf(fid);
+      int row = fid & (PAGE_SIZE - 1);
+      if (page.get(row) == UNKNOWN)
+        page.set(row, backing.remaining(fid));
+    }
+  }
+
+  // The page holding a flight's count, allocating it if needed
+  private AtomicIntegerArray pageOf(int fid) {
+    if (fid < 0)
+      throw new IllegalArgumentException("Invalid fid: " + fid);
+    int p = fid >>> PAGE_BITS;
+    AtomicIntegerArray[] current = pages;
+    AtomicIntegerArray page = p < current.length ? current[p] : null;
+    return page != null ? page : page(p);
+  }
+
+  private synchronized AtomicIntegerArray page(int p) {
+    AtomicIntegerArray[] current = pages;
+    if (p >= current.length)
+      current = Arrays.copyOf(current, Math.max(p + 1, current.length * 2));
+    if (current[p] == null) {
+      AtomicIntegerArray page = new AtomicIntegerArray(PAGE_SIZE);
+      for (int i = 0; i < PAGE_SIZE; i++)
+        page.set(i, UNKNOWN);
+      current[p] = page;
+    }
+    pages = current;
+    return current[p];
+  }
+
+  public int getPendingCount() {
+    int seats = 0;
+    for (int count : pending.values())
+      seats += count;
+    return seats;
+  }
+
+  public long getFlushCount() {
+    return flushes.get();
+  }
+
+  public long getFlushedSeatCount() {
+    return flushedSeats.get();
+  }
+
+  public long getRejectedCount() {
+    return rejections.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SeatInventory[pending=%d, flushes=%d, flushedSeats=%d, rejected=%d]", getPendingCount(),
+        getFlushCount(), getFlushedSeatCount(), getRejectedCount());
+  }
+}
@@ -0,0 +1,60 @@
+package edu.uw.cs;
+
+/**
+ * The state one user of the app builds up between commands: who they are
+ * logged in as and the itineraries their last search returned.
+ *
+ * A session holds no database resources, so it costs a few objects however
+ * long it sits idle; connections are only borrowed while a transaction runs.
+ * A session is used by one client at a time and is not thread-safe.
+ */
+public class Session {
+  private static final long[] NO_ITINERARIES = new long[0];
+
+  // current user of the app, null until someone logs in
+  private String username;
+
+  // Keep track of the most recent search itineraries, as packed Itinerary longs
+  private long[] itineraries = NO_ITINERARIES;
+
+  /**
+   * The logged in user, or null if nobody has logged in
+   */
+  public String getUsername() {
+    return username;
+  }
+
+  public boolean isLoggedIn() {
+    return username != null;
+  }
+
+  /**
+   * Logs the user in, forgetting any search made before
+   */
+  public void logIn(String username) {
+    this.username = username;
+    this.itineraries = NO_ITINERARIES;
+  }
+
+  /**
+   * Remembers the itineraries of the latest search, which may be shared with
+   * the search cache and so must not be modified
+   */
+  public void setItineraries(long[] itineraries) {
+    this.itineraries = itineraries;
+  }
+
+  /**
+   * Number of itineraries the latest search returned
+   */
+  public int getItineraryCount() {
+    return itineraries.length;
+  }
+
+  /**
+   * The itinerary with the given number in the latest search
+   */
+  public long getItinerary(int itineraryId) {
+    return itineraries[itineraryId];
+  }
+}
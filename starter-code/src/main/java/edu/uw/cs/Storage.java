@@ -0,0 +1,229 @@
+package edu.uw.cs;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Where the Flights data lives: the flights, the users and their
+ * reservations. {@code FlightTransactions} turns user commands into these
+ * operations and their outcomes into responses.
+ *
+ * Every operation is atomic and safe to call from many sessions at once.
+ * Implementations report failures they cannot turn into an outcome as an
+ * {@code SQLException}, which the caller answers as a failed command.
+ *
+ * @see JdbcStorage
+ * @see MemoryStorage
+ */
+public interface Storage extends AutoCloseable {
+  // Outcomes of book
+  int BOOK_OK = 0;
+  int BOOK_SAME_DAY = 1;
+  int BOOK_FULL = 2;
+
+  // Outcomes of pay
+  int PAY_OK = 0;
+  int PAY_NOT_FOUND = 1;
+  int PAY_INSUFFICIENT = 2;
+
+  /**
+   * Deletes every user and reservation and frees every booked seat. The
+   * flights themselves are kept.
+   */
+  void clear() throws SQLException;
+
+  /**
+   * Adds a user with the password in its stored form. Returns false if the
+   * username is taken or does not fit.
+   */
+  boolean createUser(String username, String password, int balance) throws SQLException;
+
+  /**
+   * Adds several users independently of each other, returning for each one
+   * whether it was created
+   */
+  boolean[] createUsers(String[] usernames, String[] passwords, int[] balances) throws SQLException;
+
+  /**
+   * The stored form of a user's password, or null if there is no such user
+   */
+  String userPassword(String username) throws SQLException;
+
+  /**
+   * Finds up to {@code count} itineraries for a search, sorted by total time
+   * and then by fids, with their flights stored in the shared
+   * {@code FlightTable}
+   *
+   * @see FlightIndex#search(String, String, boolean, int, int)
+   */
+  long[] search(String originCity, String destCity, boolean directOnly, int dayOfMonth, int count)
+      throws SQLException;
+
+  /**
+   * Finds the {@code count} fastest itineraries of up to {@code maxFlights}
+   * flights, sorted by total time and then by fids, with their flights stored
+   * in the shared {@code FlightTable}
+   *
+   * @see FlightIndex#multiHop(String, String, int, int, int)
+   */
+  long[] multiHopSearch(String originCity, String destCity, int maxFlights, int dayOfMonth, int count)
+      throws SQLException;
+
+  /**
+   * Books an itinerary as reservation {@code rid} unless the user already has
+   * a reservation that day or one of its flights is full, taking a seat on
+   * each flight. Returns a BOOK_* outcome.
+   */
+  int book(String username, int dayOfMonth, long itinerary, int rid, int cost) throws SQLException;
+
+  /**
+   * Marks the user's unpaid reservation paid and takes its cost from their
+   * balance, if the balance covers it
+   */
+  Payment pay(int rid, String username) throws SQLException;
+
+  /**
+   * The user's reservations that are not cancelled, ordered by ID
+   */
+  Reservations reservations(String username) throws SQLException;
+
+  /**
+   * The user's balance and every reservation, cancelled or not, ordered by
+   * ID, or null if there is no such user
+   */
+  Account account(String username) throws SQLException;
+
+  /**
+   * Cancels the user's reservation, refunding it if it was paid. Returns false
+   * if the user has no such reservation or it is already cancelled.
+   */
+  boolean cancel(int rid, String username) throws SQLException;
+
+  /**
+   * Reserves {@code size} consecutive reservation IDs and returns the first
+   */
+  long leaseReservationIds(int size) throws SQLException;
+
+  /**
+   * Makes the next lease of reservation IDs start again from 1
+   */
+  void resetReservationIds() throws SQLException;
+
+  /**
+   * Releases whatever the storage holds open
+   */
+  @Override
+  void close();
+
+  /**
+   * Outcome of {@link #pay(int, String)}: one of the PAY_* statuses, the
+   * balance after paying (or, if short, the current balance) and the cost
+   */
+  class Payment {
+    public final int status;
+    public final int balance;
+    public final int cost;
+
+    public Payment(int status, int balance, int cost) {
+      this.status = status;
+      this.balance = balance;
+      this.cost = cost;
+    }
+  }
+
+  /**
+   * Reservations found by {@link #reservations(String)}, one entry per
+   * reservation
+   */
+  class Reservations {
+    private int[] rids = new int[8];
+    private boolean[] paid = new boolean[8];
+    private long[] itineraries = new long[8];
+    private int size;
+
+    public void add(int rid, boolean isPaid, long itinerary) {
+      if (size == rids.length) {
+        rids = Arrays.copyOf(rids, size * 2);
+        paid = Arrays.copyOf(paid, size * 2);
+        itineraries = Arrays.copyOf(itineraries, size * 2);
+      }
+      rids[size] = rid;
+      paid[size] = isPaid;
+      itineraries[size] = itinerary;
+      size++;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int rid(int i) {
+      return rids[i];
+    }
+
+    public boolean isPaid(int i) {
+      return paid[i];
+    }
+
+    public long itinerary(int i) {
+      return itineraries[i];
+    }
+  }
+
+  /**
+   * A user's balance and reservations found by {@link #account(String)}, one
+   * entry per reservation
+   */
+  class Account {
+    public final int balance;
+    private final Reservations reservations = new Reservations();
+    private int[] days = new int[8];
+    private int[] costs = new int[8];
+    private boolean[] cancelled = new boolean[8];
+
+    public Account(int balance) {
+      this.balance = balance;
+    }
+
+    public void add(int rid, int day, int cost, boolean isPaid, boolean isCancelled, long itinerary) {
+      int i = reservations.size();
+      if (i == days.length) {
+        days = Arrays.copyOf(days, i * 2);
+        costs = Arrays.copyOf(costs, i * 2);
+        cancelled = Arrays.copyOf(cancelled, i * 2);
+      }
+      reservations.add(rid, isPaid, itinerary);
+      days[i] = day;
+      costs[i] = cost;
+      cancelled[i] = isCancelled;
+    }
+
+    public int size() {
+      return reservations.size();
+    }
+
+    public int rid(int i) {
+      return reservations.rid(i);
+    }
+
+    public int day(int i) {
+      return days[i];
+    }
+
+    public int cost(int i) {
+      return costs[i];
+    }
+
+    public boolean isPaid(int i) {
+      return reservations.isPaid(i);
+    }
+
+    public boolean isCancelled(int i) {
+      return cancelled[i];
+    }
+
+    public long itinerary(int i) {
+      return reservations.itinerary(i);
+    }
+  }
+}
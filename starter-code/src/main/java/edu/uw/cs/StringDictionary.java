@@ -0,0 +1,62 @@
+package edu.uw.cs;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Assigns each distinct string a small int code, so repeated values such as
+ * city names and carrier codes are stored once and referred to by code.
+ *
+ * Codes are handed out from 0 in order of first use and never change. Lookups
+ * are lock-free, adding a new string takes a lock.
+ */
+public class StringDictionary {
+  private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<String, Integer>();
+
+  // code -> string, replaced by a larger copy when full (written under lock)
+  private volatile String[] values = new String[64];
+  private int size;
+
+  /**
+   * Returns the code for the given string, adding it if it is new
+   */
+  public int encode(String value) {
+    Integer code = codes.get(value);
+    if (code != null)
+      return code;
+    synchronized (this) {
+      code = codes.get(value);
+      if (code != null)
+        return code;
+      String[] current = values;
+      if (size == current.length)
+        current = Arrays.copyOf(current, size * 2);
+      current[size] = value;
+      values = current;
+      codes.put(value, size);
+      return size++;
+    }
+  }
+
+  /**
+   * Returns the code for the given string, or -1 if it has never been added
+   */
+  public int find(String value) {
+    Integer code = codes.get(value);
+    return code == null ? -1 : code;
+  }
+
+  /**
+   * Returns the string with the given code
+   */
+  public String decode(int code) {
+    return values[code];
+  }
+
+  /**
+   * Number of distinct strings
+   */
+  public int size() {
+    return codes.size();
+  }
+}
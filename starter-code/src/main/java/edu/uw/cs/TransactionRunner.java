@@ -0,0 +1,183 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.sql.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs units of work against the connection pool, retrying the ones that fail
+ * because the database chose them as a deadlock victim or could not serialize
+ * them.
+ *
+ * Retries back off exponentially with full jitter, so sessions that collided
+ * once are unlikely to collide again, and stop at the attempt limit or the
+ * deadline, whichever comes first. Any other failure is thrown straight away.
+ */
+public class TransactionRunner {
+  // Retry settings read from dbconn.properties (all optional)
+  static final String MAX_ATTEMPTS = "tx.max_attempts";
+  static final String BACKOFF_BASE_MS = "tx.backoff_base_ms";
+  static final String BACKOFF_MAX_MS = "tx.backoff_max_ms";
+  static final String DEADLINE_MS = "tx.deadline_ms";
+
+  // SQL Server error raised on the deadlock victim
+  static final int DEADLOCK_VICTIM = 1205;
+
+  // SQLState of a serialization failure
+  static final String SERIALIZATION_FAILURE = "40001";
+
+  // Runner shared by the whole application, created on first use
+  private static TransactionRunner defaultRunner;
+
+  private final ConnectionPool pool;
+  private final int maxAttempts;
+  private final long backoffBaseMillis;
+  private final long backoffMaxMillis;
+  private final long deadlineMillis;
+
+  // Runner metrics
+  private final AtomicLong attempts = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong givenUp = new AtomicLong();
+
+  /**
+   * A unit of work run on a borrowed connection
+   */
+  public interface Work<T> {
+    T run(PooledConnection c) throws SQLException;
+  }
+
+  // A single attempt at a unit of work
+  interface Attempt<T> {
+    T run() throws SQLException;
+  }
+
+  public TransactionRunner(ConnectionPool pool, int maxAttempts, long backoffBaseMillis, long backoffMaxMillis,
+      long deadlineMillis) {
+    if (maxAttempts <= 0)
+      throw new IllegalArgumentException("Number of attempts must be positive: " + maxAttempts);
+    this.pool = pool;
+    this.maxAttempts = maxAttempts;
+    this.backoffBaseMillis = backoffBaseMillis;
+    this.backoffMaxMillis = backoffMaxMillis;
+    this.deadlineMillis = deadlineMillis;
+  }
+
+  /**
+   * Builds a runner for the given pool from the dbconn.properties settings
+   */
+  public static TransactionRunner fromConfig(ConnectionPool pool) throws IOException {
+    return new TransactionRunner(pool, AppConfig.getInt(MAX_ATTEMPTS, 5), AppConfig.getLong(BACKOFF_BASE_MS, 10),
+        AppConfig.getLong(BACKOFF_MAX_MS, 1000), AppConfig.getLong(DEADLINE_MS, 5000));
+  }
+
+  /**
+   * Returns the runner for the application-wide pool, creating it on first use
+   */
+  public static synchronized TransactionRunner getDefault() throws IOException {
+    if (defaultRunner == null)
+      defaultRunner = fromConfig(ConnectionPool.getDefault());
+    return defaultRunner;
+  }
+
+  /**
+   * Runs the work in autocommit mode, retrying it on a retryable failure. Use
+   * this for single statements and for batches that manage their own
+   * transaction.
+   */
+  public <T> T withRetry(Work<T> work) throws SQLException {
+    return retrying(() -> {
+      try (PooledConnection c = pool.borrow()) {
+        return work.run(c);
+      }
+    });
+  }
+
+  /**
+   * Runs the work in an explicit transaction, committing it if the work
+   * returns and rolling it back if it throws. A transaction that fails with a
+   * retryable error is run again from the start.
+   */
+  public <T> T inTransaction(Work<T> work) throws SQLException {
+    return retrying(() -> {
+      try (PooledConnection c = pool.borrow()) {
+        Connection conn = c.connection();
+        conn.setAutoCommit(false);
+        T result = work.run(c);
+        conn.commit();
+        return result;
+      }  // closing the connection rolls back whatever was not committed
+    });
+  }
+
+  // Runs attempts until one succeeds, fails for good, or time runs out
+  <T> T retrying(Attempt<T> attempt) throws SQLException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+    for (int n = 1;; n++) {
+      attempts.incrementAndGet();
+      try {
+        return attempt.run();
+      } catch (SQLException e) {
+        if (!isRetryable(e))
+          throw e;
+        long backoff = backoffMillis(n);
+        if (n >= maxAttempts || System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff) > deadline) {
+          givenUp.incrementAndGet();
+          throw e;
+        }
+        retries.incrementAndGet();
+        sleep(backoff);
+      }
+    }
+  }
+
+  // Random delay before the given attempt's retry, up to an exponentially
+  // growing ceiling
+  long backoffMillis(int attempt) {
+    long ceiling = backoffBaseMillis << Math.min(attempt - 1, 30);
+    if (ceiling <= 0 || ceiling > backoffMaxMillis)
+      ceiling = backoffMaxMillis;
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  private static void sleep(long millis) throws SQLException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting to retry", e);
+    }
+  }
+
+  /**
+   * Whether the failure (or one chained to it) means the transaction was
+   * rolled back because of other transactions and may succeed if run again
+   */
+  public static boolean isRetryable(SQLException e) {
+    for (SQLException cause = e; cause != null; cause = cause.getNextException()) {
+      if (cause instanceof SQLTransactionRollbackException || cause.getErrorCode() == DEADLOCK_VICTIM
+          || SERIALIZATION_FAILURE.equals(cause.getSQLState()))
+        return true;
+    }
+    return false;
+  }
+
+  public long getAttemptCount() {
+    return attempts.get();
+  }
+
+  public long getRetryCount() {
+    return retries.get();
+  }
+
+  public long getGiveUpCount() {
+    return givenUp.get();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TransactionRunner[attempts=%d, retries=%d, givenUp=%d]", getAttemptCount(),
+        getRetryCount(), getGiveUpCount());
+  }
+}
@@ -0,0 +1,337 @@
+package edu.uw.cs;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * Latency histograms and success/failure counters of every transaction and
+ * command, by name.
+ *
+ * Recording takes no lock: a metric's counters live in its current window,
+ * which a snapshot swaps for an empty one. The application's metrics are
+ * registered as JMX MBeans under {@code edu.uw.cs:type=TransactionStats},
+ * shown by the {@code stats} command, and, if configured, appended to a CSV
+ * file and reset at a fixed interval so they can be charted.
+ */
+public class TransactionStats {
+  // Snapshot settings read from dbconn.properties (all optional), an interval
+  // of 0 disables periodic snapshots
+  static final String SNAPSHOT_MS = "stats.snapshot_ms";
+  static final String SNAPSHOT_FILE = "stats.snapshot_file";
+
+  static final String JMX_DOMAIN = "edu.uw.cs";
+
+  // How the responses of refused transactions and commands start
+  private static final String[] FAILURES = { "Failed", "Login failed", "Booking failed", "Cannot ", "No such ",
+      "User has only ", "User already ", "You cannot ", "Error", "Please " };
+
+  // Stats shared by the whole application
+  private static final TransactionStats DEFAULT = new TransactionStats(true);
+
+  private final boolean registerMBeans;
+  private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+  private ScheduledExecutorService snapshots;  // guarded by this
+
+  /**
+   * Creates stats of their own, not registered with JMX
+   */
+  public TransactionStats() {
+    this(false);
+  }
+
+  private TransactionStats(boolean registerMBeans) {
+    this.registerMBeans = registerMBeans;
+  }
+
+  /**
+   * The stats shared by every session
+   */
+  public static TransactionStats getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Whether a response says the transaction or command was refused
+   */
+  public static boolean isFailure(CharSequence response) {
+    for (String prefix : FAILURES) {
+      if (startsWith(response, prefix))
+        return true;
+    }
+    return false;
+  }
+
+  private static boolean startsWith(CharSequence s, String prefix) {
+    if (s.length() < prefix.length())
+      return false;
+    for (int i = 0; i < prefix.length(); i++) {
+      if (s.charAt(i) != prefix.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the metric with the given name, creating it on first use. Callers
+   * on hot paths keep the metric rather than looking it up each time.
+   */
+  public Metric metric(String name) {
+    Metric metric = metrics.get(name);
+    if (metric != null)
+      return metric;
+    Metric created = new Metric(name);
+    metric = metrics.putIfAbsent(name, created);
+    if (metric != null)
+      return metric;
+    if (registerMBeans)
+      register(created);
+    return created;
+  }
+
+  private static void register(Metric metric) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(metric, MetricMBean.class),
+          new ObjectName(JMX_DOMAIN + ":type=TransactionStats,name=" + ObjectName.quote(metric.name)));
+    } catch (JMException e) {
+      System.err.println("Cannot register the " + metric.name + " MBean: " + e);
+    }
+  }
+
+  /**
+   * The metrics recorded so far, by name
+   */
+  public Map<String, Metric> getMetrics() {
+    return Collections.unmodifiableMap(metrics);
+  }
+
+  /**
+   * Ends the current window of every metric, returning the ended windows by
+   * name
+   */
+  public Map<String, Window> snapshotAndReset() {
+    Map<String, Window> ended = new TreeMap<String, Window>();
+    for (Metric metric : metrics.values())
+      ended.put(metric.name, metric.endWindow());
+    return ended;
+  }
+
+  /**
+   * Every {@code intervalMillis}, appends the windows of every metric to a
+   * CSV file and starts new ones. Does nothing if snapshots are already being
+   * taken.
+   */
+  public synchronized void startSnapshots(long intervalMillis, Path file) {
+    if (snapshots != null)
+      return;
+    snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "transaction-stats-snapshots");
+      t.setDaemon(true);
+      return t;
+    });
+    snapshots.scheduleAtFixedRate(() -> {
+      try {
+        writeSnapshot(file, System.currentTimeMillis(), snapshotAndReset());
+      } catch (IOException e) {
+        System.err.println("Cannot write the stats snapshot: " + e);
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Starts the periodic snapshots of the application's stats if
+   * dbconn.properties asks for them
+   */
+  public static void startConfiguredSnapshots() throws IOException {
+    long interval = AppConfig.getLong(SNAPSHOT_MS, 0);
+    if (interval > 0)
+      DEFAULT.startSnapshots(interval, Paths.get(AppConfig.getString(SNAPSHOT_FILE, "stats.csv")));
+  }
+
+  public synchronized void stopSnapshots() {
+    if (snapshots != null)
+      snapshots.shutdownNow();
+    snapshots = null;
+  }
+
+  // Appends one line per metric, writing the header first into a new file
+  static void writeSnapshot(Path file, long time, Map<String, Window> windows) throws IOException {
+    boolean isNew = !Files.exists(file);
+    try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND)) {
+      if (isNew)
+        out.write("time,name,seconds,count,successes,failures,mean_ms,p50_ms,p95_ms,p99_ms,max_ms\n");
+      for (Map.Entry<String, Window> e : windows.entrySet()) {
+        Window w = e.getValue();
+        LatencyHistogram h = w.latencies;
+        out.write(String.format(Locale.ROOT, "%d,%s,%.3f,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n", time, e.getKey(),
+            (time - w.startMillis) / 1e3, h.getCount(), w.successes.sum(), w.failures.sum(), h.getMeanMicros() / 1e3,
+            h.getPercentileMicros(50) / 1e3, h.getPercentileMicros(95) / 1e3, h.getPercentileMicros(99) / 1e3,
+            h.getMaxMicros() / 1e3));
+      }
+    }
+  }
+
+  /**
+   * The current window of every metric, one line each, with latencies in
+   * milliseconds
+   */
+  public String report() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-26s %9s %9s %9s %9s %9s %9s %9s %9s%n", "name", "count", "ok", "failed", "mean ms",
+        "p50 ms", "p95 ms", "p99 ms", "max ms"));
+    for (Metric m : metrics.values()) {
+      sb.append(String.format("%-26s %9d %9d %9d %9.3f %9.3f %9.3f %9.3f %9.3f%n", m.name, m.getCount(),
+          m.getSuccessCount(), m.getFailureCount(), m.getMeanMillis(), m.getP50Millis(), m.getP95Millis(),
+          m.getP99Millis(), m.getMaxMillis()));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * What JMX shows of a metric: its current window, in milliseconds, and its
+   * totals since the application started
+   */
+  public interface MetricMBean {
+    String getName();
+
+    long getCount();
+
+    long getSuccessCount();
+
+    long getFailureCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    long getWindowStartMillis();
+
+    long getTotalSuccessCount();
+
+    long getTotalFailureCount();
+
+    /**
+     * Ends the current window and starts an empty one
+     */
+    void reset();
+  }
+
+  /**
+   * Latencies and outcomes of one transaction or command
+   */
+  public static class Metric implements MetricMBean {
+    private final String name;
+    private final AtomicReference<Window> window = new AtomicReference<Window>(new Window());
+
+    // Outcomes of windows already ended
+    private final LongAdder endedSuccesses = new LongAdder();
+    private final LongAdder endedFailures = new LongAdder();
+
+    Metric(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Records one run that started at {@code startNanos} by
+     * {@code System.nanoTime()} and has just ended
+     */
+    public void record(long startNanos, boolean success) {
+      Window w = window.get();
+      w.latencies.recordNanos(System.nanoTime() - startNanos);
+      (success ? w.successes : w.failures).increment();
+    }
+
+    public void reset() {
+      endWindow();
+    }
+
+    Window endWindow() {
+      Window ended = window.getAndSet(new Window());
+      endedSuccesses.add(ended.successes.sum());
+      endedFailures.add(ended.failures.sum());
+      return ended;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return window.get().latencies.getCount();
+    }
+
+    public long getSuccessCount() {
+      return window.get().successes.sum();
+    }
+
+    public long getFailureCount() {
+      return window.get().failures.sum();
+    }
+
+    public double getMeanMillis() {
+      return window.get().latencies.getMeanMicros() / 1e3;
+    }
+
+    public double getP50Millis() {
+      return window.get().latencies.getPercentileMicros(50) / 1e3;
+    }
+
+    public double getP95Millis() {
+      return window.get().latencies.getPercentileMicros(95) / 1e3;
+    }
+
+    public double getP99Millis() {
+      return window.get().latencies.getPercentileMicros(99) / 1e3;
+    }
+
+    public double getMaxMillis() {
+      return window.get().latencies.getMaxMicros() / 1e3;
+    }
+
+    public long getWindowStartMillis() {
+      return window.get().startMillis;
+    }
+
+    public long getTotalSuccessCount() {
+      return endedSuccesses.sum() + getSuccessCount();
+    }
+
+    public long getTotalFailureCount() {
+      return endedFailures.sum() + getFailureCount();
+    }
+  }
+
+  /**
+   * What a metric recorded between two snapshots
+   */
+  public static class Window {
+    final LatencyHistogram latencies = new LatencyHistogram();
+    final LongAdder successes = new LongAdder();
+    final LongAdder failures = new LongAdder();
+    final long startMillis = System.currentTimeMillis();
+
+    public LatencyHistogram getLatencies() {
+      return latencies;
+    }
+
+    public long getSuccessCount() {
+      return successes.sum();
+    }
+
+    public long getFailureCount() {
+      return failures.sum();
+    }
+  }
+}
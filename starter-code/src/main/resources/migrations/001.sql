@@ -0,0 +1,4 @@
+-- Third flight of two-connection reservations
+
+IF COL_LENGTH('RESERVATIONS', 'fid3') IS NULL
+	ALTER TABLE RESERVATIONS ADD fid3 INT;
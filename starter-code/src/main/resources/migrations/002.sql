@@ -0,0 +1,53 @@
+-- One-hop connections table and the trigger that keeps it current
+
+-- Fastest one-hop itineraries of each route and day, at most 100 of them,
+-- filled by ConnectionsTable and kept current by the trigger below
+IF OBJECT_ID('CONNECTIONS') IS NULL
+CREATE TABLE CONNECTIONS (
+	origin_city VARCHAR(34) NOT NULL,
+	dest_city VARCHAR(34) NOT NULL,
+	day_of_month INT NOT NULL,
+	total_time INT NOT NULL,
+	fid1 INT NOT NULL,
+	fid2 INT NOT NULL,
+	PRIMARY KEY CLUSTERED (origin_city, dest_city, day_of_month, total_time, fid1, fid2)
+	);
+GO
+
+-- Recomputes the connections of every route and day a changed flight can be
+-- a leg of. Updates that only book seats leave them alone.
+CREATE OR ALTER TRIGGER Flights_Connections ON FLIGHTS AFTER INSERT, UPDATE, DELETE AS
+BEGIN
+	SET NOCOUNT ON;
+	IF EXISTS (SELECT * FROM inserted) AND NOT (UPDATE(fid) OR UPDATE(day_of_month) OR UPDATE(origin_city)
+		OR UPDATE(dest_city) OR UPDATE(actual_time) OR UPDATE(cancelled))
+		RETURN;
+
+	DECLARE @routes TABLE (origin_city VARCHAR(34), dest_city VARCHAR(34), day_of_month INT,
+		PRIMARY KEY (origin_city, dest_city, day_of_month));
+	WITH Changed AS (SELECT origin_city, dest_city, day_of_month FROM inserted
+		UNION SELECT origin_city, dest_city, day_of_month FROM deleted)
+	INSERT INTO @routes
+	SELECT Changed.origin_city, F.dest_city, Changed.day_of_month FROM Changed
+	JOIN FLIGHTS AS F ON F.origin_city = Changed.dest_city AND F.day_of_month = Changed.day_of_month
+	UNION
+	SELECT F.origin_city, Changed.dest_city, Changed.day_of_month FROM Changed
+	JOIN FLIGHTS AS F ON F.dest_city = Changed.origin_city AND F.day_of_month = Changed.day_of_month;
+
+	DELETE C FROM CONNECTIONS AS C JOIN @routes AS R ON C.origin_city = R.origin_city
+		AND C.dest_city = R.dest_city AND C.day_of_month = R.day_of_month;
+
+	INSERT INTO CONNECTIONS (origin_city, dest_city, day_of_month, total_time, fid1, fid2)
+	SELECT origin_city, dest_city, day_of_month, total_time, fid1, fid2 FROM (
+		SELECT R.origin_city, R.dest_city, R.day_of_month, F1.actual_time + F2.actual_time AS total_time,
+			F1.fid AS fid1, F2.fid AS fid2,
+			ROW_NUMBER() OVER (PARTITION BY R.origin_city, R.dest_city, R.day_of_month
+				ORDER BY F1.actual_time + F2.actual_time, F1.fid, F2.fid) AS position
+		FROM @routes AS R
+		JOIN FLIGHTS AS F1 ON F1.origin_city = R.origin_city AND F1.day_of_month = R.day_of_month
+		JOIN FLIGHTS AS F2 ON F2.origin_city = F1.dest_city AND F2.dest_city = R.dest_city
+			AND F2.day_of_month = R.day_of_month
+		WHERE F1.cancelled = 0 AND F2.cancelled = 0) AS Ranked
+	WHERE position <= 100;
+END
+GO
@@ -0,0 +1,16 @@
+-- Covering indexes for the flight searches
+
+-- Direct flights of a route and day, already in result order
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Flights_Route' AND object_id = OBJECT_ID('FLIGHTS'))
+CREATE INDEX IX_Flights_Route ON FLIGHTS (origin_city, dest_city, day_of_month, cancelled, actual_time)
+	INCLUDE (fid, carrier_id, flight_num, capacity, price);
+
+-- First legs of one-hop itineraries: flights leaving a city on a day
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Flights_Origin' AND object_id = OBJECT_ID('FLIGHTS'))
+CREATE INDEX IX_Flights_Origin ON FLIGHTS (origin_city, day_of_month, cancelled)
+	INCLUDE (fid, dest_city, carrier_id, flight_num, actual_time, capacity, price);
+
+-- Second legs of one-hop itineraries: flights arriving in a city on a day
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Flights_Dest' AND object_id = OBJECT_ID('FLIGHTS'))
+CREATE INDEX IX_Flights_Dest ON FLIGHTS (dest_city, day_of_month, cancelled)
+	INCLUDE (fid, origin_city, carrier_id, flight_num, actual_time, capacity, price);
@@ -0,0 +1,6 @@
+-- Covering index for a user's reservations
+
+-- The same-day check of a booking and the user's reservation listings
+IF NOT EXISTS (SELECT * FROM sys.indexes WHERE name = 'IX_Reservations_User' AND object_id = OBJECT_ID('RESERVATIONS'))
+CREATE INDEX IX_Reservations_User ON RESERVATIONS (username, trip_date)
+	INCLUDE (fid1, fid2, fid3, cost, paid, cancelled);
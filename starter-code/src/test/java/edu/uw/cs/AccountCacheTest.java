@@ -0,0 +1,93 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs sessions with cached accounts against the in-memory storage, checking
+ * them against a service that reads the storage every time
+ */
+public class AccountCacheTest {
+  private AccountCache accounts;
+  private FlightTransactions cached;
+  private FlightTransactions uncached;
+
+  @Before
+  public void setUp() {
+    FlightTable flights = FlightTable.getDefault();
+    flights.put(970001, 1, "AS", "100", "Seattle WA", "Boston MA", 300, 5, 400);
+    flights.put(970002, 1, "AS", "200", "Seattle WA", "Boston MA", 320, 5, 300);
+    flights.put(970003, 2, "AS", "300", "Seattle WA", "Boston MA", 310, 5, 200);
+    MemoryStorage storage = new MemoryStorage(flights, new int[] { 970001, 970002, 970003 });
+    ReservationIdAllocator ids = new ReservationIdAllocator(storage, 10);
+    PasswordHasher hasher = new PasswordHasher(0, 1, 0, 1000, 0, 0);
+    accounts = new AccountCache(10);
+    cached = new FlightTransactions(storage, ids, null, null, hasher, accounts);
+    uncached = new FlightTransactions(storage, ids, null, null, hasher, null);
+    assertEquals("Created user ann\n", cached.transaction_createCustomer("ann", "pw", 500));
+  }
+
+  @After
+  public void tearDown() {
+    cached.close();
+  }
+
+  private Session logIn(FlightTransactions transactions) {
+    Session session = new Session();
+    assertEquals("Logged in as ann\n", transactions.transaction_login(session, "ann", "pw"));
+    return session;
+  }
+
+  private static long[] itineraries(int... fids) {
+    long[] itineraries = new long[fids.length];
+    for (int i = 0; i < fids.length; i++)
+      itineraries[i] = Itinerary.direct(fids[i]);
+    return itineraries;
+  }
+
+  @Test
+  public void rulesAreAnsweredFromMemory() {
+    Session session = logIn(cached);
+    assertEquals(1, accounts.getLoadCount());
+    session.setItineraries(itineraries(970001, 970002, 970003));
+
+    assertEquals("Booked flight(s), reservation ID: 1\n", cached.transaction_book(session, 0));
+    assertEquals("You cannot book two flights in the same day\n", cached.transaction_book(session, 1));
+    assertEquals("Booked flight(s), reservation ID: 2\n", cached.transaction_book(session, 2));
+    assertEquals("Paid reservation: 1 remaining balance: 100\n", cached.transaction_pay(session, 1));
+    assertEquals("Cannot find unpaid reservation 1 under user: ann\n", cached.transaction_pay(session, 1));
+    assertEquals("User has only 100 in account but itinerary costs 200\n", cached.transaction_pay(session, 2));
+    assertEquals("Failed to cancel reservation 7\n", cached.transaction_cancel(session, 7));
+    assertEquals(4, accounts.getAnsweredCount());
+  }
+
+  @Test
+  public void cacheMatchesTheStorage() {
+    Session session = logIn(cached);
+    session.setItineraries(itineraries(970001, 970003));
+    cached.transaction_book(session, 0);
+    cached.transaction_book(session, 1);
+    cached.transaction_pay(session, 1);
+    assertEquals("Canceled reservation 1\n", cached.transaction_cancel(session, 1));
+
+    Session other = logIn(uncached);
+    assertEquals(uncached.transaction_reservations(other), cached.transaction_reservations(session));
+
+    // The refund is cached, and the cancelled reservation's day stays booked
+    assertEquals("Paid reservation: 2 remaining balance: 300\n", cached.transaction_pay(session, 2));
+    other.setItineraries(itineraries(970002));
+    assertEquals("You cannot book two flights in the same day\n", uncached.transaction_book(other, 0));
+    assertEquals(uncached.transaction_reservations(other), cached.transaction_reservations(session));
+  }
+
+  @Test
+  public void clearForgetsAccounts() {
+    logIn(cached);
+    assertEquals(1, accounts.size());
+    cached.clearTables();
+    assertEquals(0, accounts.size());
+    assertEquals("Login failed\n", cached.transaction_login(new Session(), "ann", "pw"));
+    assertEquals(0, accounts.size());
+  }
+}
@@ -0,0 +1,49 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.io.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that batch mode groups create commands and keeps responses in order
+ */
+public class BatchModeTest {
+  // None of the commands below reach the database
+  private static Query unconnectedQuery() {
+    return new Query(FlightTransactions.offline());
+  }
+
+  @Test
+  public void responsesStayInOrder() throws IOException {
+    String script = "# bulk load\n"
+        + "create user1 user1 -1\n"
+        + "create user2 user2 -5\n"
+        + "\n"
+        + "book first\n"
+        + "create user3 user3 -2\n"
+        + "quit\n"
+        + "create user4 user4 -3\n";
+    BatchMode batch = new BatchMode(unconnectedQuery(), 10);
+    StringBuilder out = new StringBuilder();
+    batch.run(new BufferedReader(new StringReader(script)), out);
+
+    assertEquals("Failed to create user\n"
+        + "Failed to create user\n"
+        + "Failed to parse integer"
+        + "Failed to create user\n"
+        + "Goodbye\n", out.toString());
+    assertTrue(batch.summary(), batch.summary().startsWith("Ran 5 commands"));
+    assertTrue(batch.summary(), batch.summary().endsWith("3 create commands in 2 batches"));
+  }
+
+  @Test
+  public void fullBatchIsSentRightAway() throws IOException {
+    BatchMode batch = new BatchMode(unconnectedQuery(), 2);
+    StringBuilder out = new StringBuilder();
+    batch.run(new BufferedReader(new StringReader("create a a -1\ncreate b b -1\ncreate c c -1\n")), out);
+    assertEquals("Failed to create user\nFailed to create user\nFailed to create user\n", out.toString());
+    assertTrue(batch.summary(), batch.summary().endsWith("3 create commands in 2 batches"));
+  }
+}
@@ -0,0 +1,101 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks command parsing and dispatch against the behaviour of the original
+ * regular-expression tokenizer
+ */
+public class CommandTokenizerTest {
+  private static final Pattern TOKEN = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+  private static List<String> regexTokens(String command) {
+    Matcher m = TOKEN.matcher(command.trim());
+    List<String> tokens = new ArrayList<String>();
+    while (m.find())
+      tokens.add(m.group(1) != null ? m.group(1) : m.group(2));
+    return tokens;
+  }
+
+  private static List<String> tokens(CommandTokenizer tokenizer, String command) {
+    List<String> tokens = new ArrayList<String>();
+    int count = tokenizer.reset(command);
+    for (int i = 0; i < count; i++)
+      tokens.add(tokenizer.token(i));
+    return tokens;
+  }
+
+  @Test
+  public void tokensMatchTheRegularExpression() {
+    CommandTokenizer tokenizer = new CommandTokenizer();
+    String[] commands = { "", "   ", "quit", "  login  user1\tuser1 ", "search \"Seattle WA\" \"Boston MA\" 1 1 10",
+        "search \"Seattle WA\"\"Boston MA\" 0 3 1", "\"unclosed quote", "a\"b c\"", "\"\" x", "\"a b\"c d",
+        "one two three four five six seven eight nine ten" };
+    for (String command : commands)
+      assertEquals(command, regexTokens(command), tokens(tokenizer, command));
+  }
+
+  @Test
+  public void intsParseLikeIntegerParseInt() {
+    CommandTokenizer tokenizer = new CommandTokenizer();
+    String[] values = { "0", "7", "-1", "+12", "2147483647", "-2147483648", "2147483648", "-2147483649",
+        "99999999999999999999", "", "-", "+", "1x", "x1", "1.5" };
+    for (String value : values) {
+      tokenizer.reset("cmd \"" + value + "\"");
+      long expected;
+      try {
+        expected = Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+        expected = CommandTokenizer.NOT_AN_INT;
+      }
+      assertEquals(value, expected, tokenizer.parseInt(1));
+    }
+  }
+
+  @Test
+  public void commandsAreDispatchedByName() {
+    Query q = new Query(FlightTransactions.offline());  // never reaches the database
+    assertEquals("Please enter a command", FlightService.execute(q, "  "));
+    assertEquals("Goodbye\n", FlightService.execute(q, "quit"));
+    assertEquals("Error: unrecognized command 'quitt'", FlightService.execute(q, "quitt now"));
+    assertEquals("Error: Please provide a username and password", FlightService.execute(q, "login user1"));
+    assertEquals("Failed to parse integer", FlightService.execute(q, "create user1 user1 lots"));
+    assertEquals("Failed to parse integer", FlightService.execute(q, "book first"));
+    assertEquals("Failed to parse integer", FlightService.execute(q, "search \"Seattle WA\" \"Boston MA\" 1 x 1"));
+    assertEquals("Cannot book reservations, not logged in\n", FlightService.execute(q, "book 0"));
+  }
+
+  @Test
+  public void registryRejectsDuplicatesAndGrows() throws IOException {
+    CommandRegistry registry = new CommandRegistry();
+    for (int i = 0; i < 40; i++) {
+      final String name = "cmd" + i;
+      registry.register(name, CommandRegistry.ANY, null, (q, args, out) -> out.append(name));
+    }
+    try {
+      registry.register("cmd3", 1, null, (q, args, out) -> out.append("again"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+
+    CommandTokenizer tokenizer = new CommandTokenizer();
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      tokenizer.reset("cmd" + i);
+      out.setLength(0);
+      assertTrue(registry.dispatch(null, tokenizer, out));
+      assertEquals("cmd" + i, out.toString());
+    }
+    tokenizer.reset("cmd40");
+    out.setLength(0);
+    assertFalse(registry.dispatch(null, tokenizer, out));
+    assertEquals("", out.toString());
+  }
+}
@@ -0,0 +1,197 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the in-memory flight index against a brute-force search over the same
+ * flights
+ */
+public class FlightIndexTest {
+  private static final String[] CITIES = { "Seattle WA", "Boston MA", "Denver CO", "Dallas TX", "St. Louis MO" };
+
+  private FlightTable flights;
+  private int[] fids;
+  private FlightIndex index;
+
+  @Before
+  public void setUp() {
+    // Few distinct durations so that ties on total time are common
+    Random random = new Random(414);
+    flights = new FlightTable();
+    List<Integer> shuffled = new ArrayList<Integer>();
+    for (int fid = 1; fid <= 2000; fid++) {
+      String origin = CITIES[random.nextInt(CITIES.length)];
+      String dest = CITIES[random.nextInt(CITIES.length)];
+      flights.put(fid, 1 + random.nextInt(3), "AS", Integer.toString(fid), origin, dest, 100 + 10 * random.nextInt(5),
+          random.nextInt(20), 100 + random.nextInt(900));
+      shuffled.add(fid);
+    }
+    Collections.shuffle(shuffled, random);
+    fids = new int[shuffled.size()];
+    for (int i = 0; i < fids.length; i++)
+      fids[i] = shuffled.get(i);
+    index = new FlightIndex(flights, fids);
+  }
+
+  @Test
+  public void directFlightsAreSortedByTimeThenFid() {
+    List<Long> expected = new ArrayList<Long>();
+    for (int fid : fids)
+      if (flights.originCity(fid).equals("Seattle WA") && flights.destCity(fid).equals("Boston MA")
+          && flights.dayOfMonth(fid) == 2)
+        expected.add(Itinerary.direct(fid));
+    Collections.sort(expected, (a, b) -> Itinerary.compare(flights, a, b));
+
+    assertEquals(expected.subList(0, 5), toList(index.direct("Seattle WA", "Boston MA", 2, 5)));
+    assertEquals(expected, toList(index.direct("Seattle WA", "Boston MA", 2, 1000)));
+  }
+
+  @Test
+  public void oneHopMatchesBruteForce() throws Exception {
+    List<Long> expected = new ArrayList<Long>();
+    for (int f1 : fids)
+      for (int f2 : fids)
+        if (flights.originCity(f1).equals("Seattle WA") && flights.destCity(f2).equals("Dallas TX")
+            && flights.dayOfMonth(f1) == 3 && flights.dayOfMonth(f2) == 3
+            && flights.destCity(f1).equals(flights.originCity(f2)))
+          expected.add(Itinerary.oneHop(f1, f2));
+    Collections.sort(expected, (a, b) -> Itinerary.compare(flights, a, b));
+
+    long[] actual = ItineraryCursor.merge(flights, 500, index.oneHop("Seattle WA", "Dallas TX", 3));
+    assertEquals(expected.subList(0, 500), toList(actual));
+  }
+
+  @Test
+  public void directItinerariesAreKeptWhenMerging() throws Exception {
+    long[] direct = index.direct("Seattle WA", "Dallas TX", 3, 10);
+    int n = direct.length + 3;
+
+    long[] merged = ItineraryCursor.merge(flights, n, ItineraryCursor.of(direct, direct.length),
+        index.oneHop("Seattle WA", "Dallas TX", 3).limit(n - direct.length));
+    assertEquals(n, merged.length);
+    assertTrue(toList(merged).containsAll(toList(direct)));
+    for (int i = 1; i < merged.length; i++)
+      assertTrue(Itinerary.compare(flights, merged[i - 1], merged[i]) < 0);
+  }
+
+  @Test
+  public void multiHopMatchesBruteForce() {
+    List<Long> expected = new ArrayList<Long>();
+    for (int f1 : fids) {
+      if (!flights.originCity(f1).equals("Seattle WA") || flights.dayOfMonth(f1) != 2
+          || flights.destCity(f1).equals("Seattle WA"))
+        continue;
+      if (flights.destCity(f1).equals("Dallas TX")) {
+        expected.add(Itinerary.direct(f1));
+        continue;
+      }
+      for (int f2 : fids) {
+        String hub = flights.destCity(f2);
+        if (!flights.originCity(f2).equals(flights.destCity(f1)) || flights.dayOfMonth(f2) != 2
+            || hub.equals("Seattle WA") || hub.equals(flights.destCity(f1)))
+          continue;
+        if (hub.equals("Dallas TX")) {
+          expected.add(Itinerary.oneHop(f1, f2));
+          continue;
+        }
+        for (int f3 : fids)
+          if (flights.originCity(f3).equals(hub) && flights.destCity(f3).equals("Dallas TX")
+              && flights.dayOfMonth(f3) == 2)
+            expected.add(Itinerary.twoHop(f1, f2, f3));
+      }
+    }
+    Collections.sort(expected, (a, b) -> Itinerary.compare(flights, a, b));
+
+    assertEquals(expected.subList(0, 300), toList(index.multiHop("Seattle WA", "Dallas TX", 2, 3, 300)));
+    assertEquals(toList(index.direct("Seattle WA", "Dallas TX", 2, 50)),
+        toList(index.multiHop("Seattle WA", "Dallas TX", 2, 1, 50)));
+    assertEquals(0, index.multiHop("Seattle WA", "Seattle WA", 2, 3, 50).length);
+  }
+
+  @Test
+  public void unpackableItinerariesDoNotCountTowardTheLimit() {
+    FlightTable table = new FlightTable();
+    table.put(1, 1, "AS", "1", "Seattle WA", "Denver CO", 50, 10, 100);
+    table.put(2, 1, "AS", "2", "Denver CO", "St. Louis MO", 50, 10, 100);
+    table.put(3000000, 1, "AS", "3", "St. Louis MO", "Dallas TX", 50, 10, 100);
+    table.put(4, 1, "AS", "4", "Denver CO", "Dallas TX", 200, 10, 100);
+    table.put(5, 1, "AS", "5", "Seattle WA", "Dallas TX", 300, 10, 100);
+    FlightIndex small = new FlightIndex(table, new int[] { 1, 2, 3000000, 4, 5 });
+
+    assertEquals(Arrays.asList(Itinerary.oneHop(1, 4), Itinerary.direct(5)),
+        toList(small.multiHop("Seattle WA", "Dallas TX", 1, 3, 2)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tooManyFlightsAreRejected() {
+    index.multiHop("Seattle WA", "Boston MA", 1, Itinerary.MAX_FLIGHTS + 1, 10);
+  }
+
+  @Test
+  public void twoHopItinerariesPackThreeFlights() {
+    long itin = Itinerary.twoHop(1191805, 0, 42);
+    assertEquals(3, Itinerary.flightCount(itin));
+    assertEquals(1191805, Itinerary.fid(itin, 0));
+    assertEquals(0, Itinerary.fid(itin, 1));
+    assertEquals(42, Itinerary.fid(itin, 2));
+    assertFalse(Itinerary.isDirect(itin));
+    assertNotEquals(Itinerary.NONE, itin);
+    assertEquals(-1, Itinerary.thirdFid(Itinerary.oneHop(1191805, 0)));
+    assertTrue(Itinerary.compare(flights, Itinerary.oneHop(1, 2), Itinerary.twoHop(1, 2, 3)) < 0);
+    assertFalse(Itinerary.fitsTwoHop(1, 2, 1 << 21));
+  }
+
+  @Test
+  public void citiesMatchLikeTheDatabase() {
+    assertEquals(toList(index.direct("Seattle WA", "Boston MA", 1, 10)),
+        toList(index.direct("seattle wa  ", "BOSTON MA", 1, 10)));
+    assertEquals(0, index.direct("Seattle", "Boston MA", 1, 10).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void negativeLimitIsRejected() {
+    index.direct("Seattle WA", "Boston MA", 1, -1);
+  }
+
+  @Test
+  public void itinerariesRenderFromTheTable() {
+    FlightTable table = new FlightTable();
+    table.put(1034748, 1, "WN", "392", "Seattle WA", "St. Louis MO", 110, 19, 431);
+    table.put(1035037, 1, "WN", "392", "St. Louis MO", "Boston MA", 142, 6, 286);
+    assertEquals("2 flight(s), 252 minutes\n"
+        + "ID: 1034748 Day: 1 Carrier: WN Number: 392 Origin: Seattle WA Dest: St. Louis MO Duration: 110 "
+        + "Capacity: 19 Price: 431\n"
+        + "ID: 1035037 Day: 1 Carrier: WN Number: 392 Origin: St. Louis MO Dest: Boston MA Duration: 142 "
+        + "Capacity: 6 Price: 286\n", Itinerary.toString(table, Itinerary.oneHop(1034748, 1035037)));
+    assertEquals(717, Itinerary.cost(table, Itinerary.oneHop(1034748, 1035037)));
+  }
+
+  @Test
+  public void itinerariesRenderTheSameIntoAWriter() throws IOException {
+    FlightTable table = new FlightTable();
+    table.put(1034748, 1, "WN", "392", "Seattle WA", "St. Louis MO", 110, 19, 431);
+    table.put(60454, 1, "AS", "24", "Seattle WA", "Boston MA", 297, 14, 140);
+    for (long itin : new long[] { Itinerary.direct(60454), Itinerary.oneHop(1034748, 60454) }) {
+      StringWriter out = new StringWriter();
+      Itinerary.appendTo(table, itin, out);
+      assertEquals(Itinerary.toString(table, itin), out.toString());
+    }
+    StringWriter digits = new StringWriter();
+    Appendables.appendInt(Appendables.appendInt(digits, 0).append(' '), Integer.MIN_VALUE).append(' ');
+    Appendables.appendInt(digits, -1200).append(' ');
+    Appendables.appendInt(digits, Integer.MAX_VALUE);
+    assertEquals("0 -2147483648 -1200 2147483647", digits.toString());
+  }
+
+  private static List<Long> toList(long[] itineraries) {
+    List<Long> list = new ArrayList<Long>();
+    for (long itin : itineraries)
+      list.add(itin);
+    return list;
+  }
+}
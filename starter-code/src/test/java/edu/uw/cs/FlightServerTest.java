@@ -0,0 +1,107 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the server's sessions, connection limit and shutdown using commands
+ * that never reach the database
+ */
+public class FlightServerTest {
+  private ConnectionPool pool;
+  private FlightTransactions transactions;
+
+  @Before
+  public void createPool() throws Exception {
+    // Never connected to: none of the commands below need the database
+    pool = new ConnectionPool("jdbc:sqlserver://localhost:1", 1, 1000, 600000, 5000, 1);
+    transactions = FlightTransactions.forPool(pool);
+  }
+
+  @After
+  public void closePool() {
+    transactions.close();  // closes the pool too
+  }
+
+  private static String readAll(Socket socket) throws IOException {
+    StringBuilder response = new StringBuilder();
+    Reader in = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+    for (int c; (c = in.read()) != -1;)
+      response.append((char) c);
+    return response.toString();
+  }
+
+  private static void awaitConnected(FlightServer server, int count) throws InterruptedException {
+    for (int i = 0; i < 500 && server.getConnectedCount() != count; i++)
+      Thread.sleep(10);
+    assertEquals(count, server.getConnectedCount());
+  }
+
+  @Test
+  public void sessionsOfOnePoolShareItsService() throws Exception {
+    // Each service leases its own block of reservation IDs
+    assertSame(transactions, FlightTransactions.forPool(pool));
+  }
+
+  @Test
+  public void sessionAnswersLikeTheRepl() throws Exception {
+    try (FlightServer server = new FlightServer(transactions, 0, 4, 1000).start()) {
+      String output = new FlightClient("localhost", server.getPort())
+          .run(Arrays.asList("hello", "book 0", "quit", "reservations"));
+      assertEquals("Error: unrecognized command 'hello'Cannot book reservations, not logged in\nGoodbye\n", output);
+    }
+  }
+
+  @Test
+  public void adminCommandsAreRefusedByDefault() throws Exception {
+    try (FlightServer server = new FlightServer(transactions, 0, 4, 1000).start()) {
+      String output = new FlightClient("localhost", server.getPort())
+          .run(Arrays.asList("clear", "stats reset", "quit"));
+      assertEquals(FlightServer.ADMIN_REFUSED + FlightServer.ADMIN_REFUSED + "Goodbye\n", output);
+    }
+  }
+
+  @Test
+  public void clientsOverTheLimitAreTurnedAway() throws Exception {
+    try (FlightServer server = new FlightServer(transactions, 0, 1, 1000).start();
+        Socket first = new Socket("localhost", server.getPort())) {
+      awaitConnected(server, 1);
+      try (Socket second = new Socket("localhost", server.getPort())) {
+        assertEquals(FlightServer.BUSY, readAll(second));
+      }
+      assertEquals(1, server.getRejectedCount());
+    }
+  }
+
+  @Test
+  public void idleSessionsHoldNoConnections() throws Exception {
+    List<Socket> sockets = new ArrayList<Socket>();
+    try (FlightServer server = new FlightServer(transactions, 0, 50, 1000).start()) {
+      for (int i = 0; i < 50; i++)
+        sockets.add(new Socket("localhost", server.getPort()));
+      awaitConnected(server, 50);
+      assertEquals(0, pool.getActiveCount());
+      assertEquals(0, pool.getCreatedCount());
+    } finally {
+      for (Socket socket : sockets)
+        socket.close();
+    }
+  }
+
+  @Test
+  public void closeDisconnectsIdleClientsAfterGracePeriod() throws Exception {
+    FlightServer server = new FlightServer(transactions, 0, 4, 100).start();
+    try (Socket idle = new Socket("localhost", server.getPort())) {
+      awaitConnected(server, 1);
+      server.close();
+      assertEquals("", readAll(idle));
+      awaitConnected(server, 0);
+    }
+  }
+}
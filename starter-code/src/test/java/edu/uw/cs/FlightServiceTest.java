@@ -46,7 +46,6 @@ public class FlightServiceTest {
     public User(List<String> cmds, List<String> results) throws IOException, SQLException {
       this.q = new Query();
       q.openConnection();
-      q.prepareStatements();
       this.cmds = cmds;
       this.results = results;
     }
@@ -189,7 +188,6 @@ public class FlightServiceTest {
     try {
       Query q = new Query();
       q.openConnection();
-      q.prepareStatements();
       q.clearTables();
       q.closeConnection();
     } catch (Exception e) {
@@ -0,0 +1,50 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the percentiles, mean and maximum of recorded latencies
+ */
+public class LatencyHistogramTest {
+  @Test
+  public void percentilesAreWithinTheBucketPrecision() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int micros = 1; micros <= 10000; micros++)
+      h.recordNanos(micros * 1000L);
+
+    assertEquals(10000, h.getCount());
+    assertEquals(10000, h.getMaxMicros());
+    assertEquals(5000.5, h.getMeanMicros(), 0.001);
+    assertEquals(5000, h.getPercentileMicros(50), 5000 / 64);
+    assertEquals(9900, h.getPercentileMicros(99), 9900 / 64);
+    assertEquals(10000, h.getPercentileMicros(100));
+  }
+
+  @Test
+  public void smallLatenciesAreExact() {
+    LatencyHistogram h = new LatencyHistogram();
+    h.recordNanos(3000);
+    h.recordNanos(100000);
+    assertEquals(3, h.getPercentileMicros(50));
+    assertEquals(100, h.getPercentileMicros(99));
+  }
+
+  @Test
+  public void addMergesHistograms() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.recordNanos(10000);
+    b.recordNanos(20000000);
+    a.add(b);
+    assertEquals(2, a.getCount());
+    assertEquals(20000, a.getMaxMicros());
+    assertEquals(10, a.getPercentileMicros(50));
+  }
+
+  @Test
+  public void emptyHistogramReportsZero() {
+    assertEquals(0, new LatencyHistogram().getPercentileMicros(99));
+  }
+}
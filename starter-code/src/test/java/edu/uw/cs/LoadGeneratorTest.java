@@ -0,0 +1,57 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs short loads against the in-memory storage
+ */
+public class LoadGeneratorTest {
+  private FlightTransactions transactions;
+
+  @Before
+  public void setUp() {
+    FlightTable flights = FlightTable.getDefault();
+    flights.put(980001, 1, "AS", "100", "Seattle WA", "Boston MA", 300, 1000, 50);
+    flights.put(980002, 1, "AS", "200", "Boston MA", "Seattle WA", 310, 1000, 50);
+    MemoryStorage storage = new MemoryStorage(flights, new int[] { 980001, 980002 });
+    transactions = new FlightTransactions(storage, new ReservationIdAllocator(storage, 10), null, null,
+        new PasswordHasher(0, 1, 0, 1000, 0, 0), null);
+  }
+
+  @After
+  public void tearDown() {
+    transactions.close();
+  }
+
+  @Test
+  public void mixSessionsUseTheirOwnUsers() throws Exception {
+    LoadGenerator generator = new LoadGenerator(transactions);
+    generator.run(4, 0, 300, generator.mix(Arrays.asList("Seattle WA", "Boston MA"), new int[] { 5, 2, 2, 1, 1 }));
+
+    Map<String, LoadGenerator.CommandStats> stats = generator.getStats();
+    assertTrue(stats.keySet().toString(),
+        stats.keySet().containsAll(Arrays.asList("create", "login", "search", "book")));
+    assertEquals(0, stats.get("create").failures.sum());
+    assertEquals(0, stats.get("login").failures.sum());
+    assertTrue(stats.get("book").latencies.getCount() > stats.get("book").failures.sum());
+    for (LoadGenerator.CommandStats s : stats.values())
+      assertEquals(0, s.errors.sum());
+    assertTrue(generator.report().contains("\nall "));
+  }
+
+  @Test
+  public void replayedUsersGetUniqueNames() throws Exception {
+    LoadGenerator generator = new LoadGenerator(transactions);
+    generator.run(3, 0, 200, generator.replay(Collections.singletonList(Paths.get("cases", "create_basic.txt"))));
+
+    LoadGenerator.CommandStats create = generator.getStats().get("create");
+    assertTrue(create.latencies.getCount() > 1);
+    assertEquals(0, create.failures.sum());
+    assertEquals(create.latencies.getCount(), generator.getStats().get("quit").latencies.getCount(), 3);
+  }
+}
@@ -0,0 +1,105 @@
+package edu.uw.cs;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs sessions against the in-memory storage, with no database
+ */
+public class MemoryStorageTest {
+  // fid, month, day, weekday, carrier, number, origin city, state, dest city,
+  // state, delays, taxi out, cancelled, actual time, distance, capacity, price
+  private static final List<String> FLIGHTS = Arrays.asList(
+      "fid,month_id,day_of_month,day_of_week_id,carrier_id,flight_num,origin_city,origin_state,dest_city,"
+          + "dest_state,departure_delay,taxi_out,arrival_delay,canceled,actual_time,distance,capacity,price",
+      "990001,7,1,5,AS,100,Seattle WA,Washington,Boston MA,Massachusetts,0,10,0,0,300,2500,1,500",
+      "990002,7,1,5,AS,200,Seattle WA,Washington,Chicago IL,Illinois,0,10,0,0,200,1700,5,300",
+      "990003,7,1,5,UA,300,Chicago IL,Illinois,Boston MA,Massachusetts,0,10,0,0,120,850,5,200",
+      "990004,7,1,5,AS,400,Seattle WA,Washington,Boston MA,Massachusetts,0,10,0,1,,2500,5,100",
+      "990005,7,2,6,AS,101,Seattle WA,Washington,Boston MA,Massachusetts,0,10,0,0,310,2500,3,450");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MemoryStorage storage;
+
+  @Before
+  public void loadFlights() throws IOException {
+    Path file = folder.newFile("flights.csv").toPath();
+    Files.write(file, FLIGHTS, StandardCharsets.UTF_8);
+    storage = MemoryStorage.load(file, FlightTable.getDefault());
+  }
+
+  @Test
+  public void cancelledFlightsAndHeaderAreSkipped() {
+    assertEquals(4, storage.flightCount());
+  }
+
+  @Test
+  public void sessionsRunOffline() throws Exception {
+    FlightTransactions transactions = FlightTransactions.forStorage(storage, null);
+    Query user1 = new Query(transactions);
+    Query user2 = new Query(transactions);
+    user1.clearTables();
+
+    assertEquals("Created user user1\n", FlightService.execute(user1, "create user1 user1 1000"));
+    assertEquals("Failed to create user\n", FlightService.execute(user1, "create USER1 other 1000"));
+    assertEquals("Created user user2\n", FlightService.execute(user1, "create user2 user2 100"));
+    assertEquals("Login failed\n", FlightService.execute(user1, "login user1 wrong"));
+    assertEquals("Logged in as User1\n", FlightService.execute(user1, "login User1 user1"));
+    assertEquals("Logged in as user2\n", FlightService.execute(user2, "login user2 user2"));
+
+    String search = "search \"Seattle WA\" \"Boston MA\" 0 1 3";
+    String found = FlightService.execute(user1, search);
+    assertTrue(found, found.startsWith("Itinerary 0: 1 flight(s), 300 minutes\nID: 990001 Day: 1"));
+    assertTrue(found, found.contains("Itinerary 1: 2 flight(s), 320 minutes\nID: 990002 "));
+    assertFalse(found, found.contains("Itinerary 2"));
+    assertEquals(found, FlightService.execute(user2, search));
+
+    assertEquals("Booked flight(s), reservation ID: 1\n", FlightService.execute(user1, "book 0"));
+    assertEquals("Booking failed\n", FlightService.execute(user2, "book 0"));
+    assertEquals("You cannot book two flights in the same day\n", FlightService.execute(user1, "book 1"));
+    assertEquals("Booked flight(s), reservation ID: 2\n", FlightService.execute(user2, "book 1"));
+
+    assertEquals("Cannot find unpaid reservation 1 under user: user2\n", FlightService.execute(user2, "pay 1"));
+    assertEquals("User has only 100 in account but itinerary costs 500\n", FlightService.execute(user2, "pay 2"));
+    assertEquals("Paid reservation: 1 remaining balance: 500\n", FlightService.execute(user1, "pay 1"));
+    assertTrue(FlightService.execute(user1, "reservations").startsWith("Reservation 1 paid: true:\nID: 990001 "));
+
+    assertEquals("Failed to cancel reservation 1\n", FlightService.execute(user2, "cancel 1"));
+    assertEquals("Canceled reservation 1\n", FlightService.execute(user1, "cancel 1"));
+    assertEquals("Failed to cancel reservation 1\n", FlightService.execute(user1, "cancel 1"));
+    assertEquals("No reservations found\n", FlightService.execute(user1, "reservations"));
+
+    // the cancelled reservation was refunded
+    FlightService.execute(user1, "search \"Seattle WA\" \"Boston MA\" 1 2 1");
+    assertEquals("Booked flight(s), reservation ID: 3\n", FlightService.execute(user1, "book 0"));
+    assertEquals("Paid reservation: 3 remaining balance: 550\n", FlightService.execute(user1, "pay 3"));
+  }
+
+  @Test
+  public void multiHopSearchesAreBookable() throws Exception {
+    Query user = new Query(FlightTransactions.forStorage(storage, null));
+    user.clearTables();
+    FlightService.execute(user, "create user1 user1 1000");
+    FlightService.execute(user, "login user1 user1");
+
+    String found = FlightService.execute(user, "multisearch \"Seattle WA\" \"Boston MA\" 1 1 5");
+    assertTrue(found, found.startsWith("Itinerary 0: 1 flight(s), 300 minutes\nID: 990001 "));
+    assertTrue(found, found.contains("Itinerary 1: 2 flight(s), 320 minutes\nID: 990002 "));
+    assertEquals(found.substring(0, found.indexOf("Itinerary 1")),
+        FlightService.execute(user, "multisearch \"Seattle WA\" \"Boston MA\" 0 1 5"));
+    assertEquals("Failed to search\n", FlightService.execute(user, "multisearch \"Seattle WA\" \"Boston MA\" 3 1 5"));
+
+    FlightService.execute(user, "multisearch \"Seattle WA\" \"Boston MA\" 2 1 5");
+    assertEquals("Booked flight(s), reservation ID: 1\n", FlightService.execute(user, "book 1"));
+    assertTrue(FlightService.execute(user, "reservations").startsWith("Reservation 1 paid: false:\nID: 990002 "));
+  }
+}
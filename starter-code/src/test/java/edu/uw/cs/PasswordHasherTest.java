@@ -0,0 +1,66 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks password hashing, verification, the verification cache and the limit
+ * on queued hashes
+ */
+public class PasswordHasherTest {
+  @Test
+  public void hashesAreSaltedAndVerify() throws Exception {
+    try (PasswordHasher hasher = new PasswordHasher(1000, 2, 4, 1000, 0, 60000)) {
+      String stored = hasher.hash("secret");
+      assertTrue(stored, stored.startsWith("pbkdf2$1000$"));
+      assertTrue(stored.length() <= 100);
+      assertNotEquals(stored, hasher.hash("secret"));
+      assertTrue(hasher.verify("user1", "secret", stored));
+      assertFalse(hasher.verify("user1", "Secret", stored));
+    }
+  }
+
+  @Test
+  public void plainTextIsStoredAndComparedAsIs() throws Exception {
+    try (PasswordHasher hasher = new PasswordHasher(0, 1, 0, 1000, 10, 60000)) {
+      assertEquals("secret", hasher.hash("secret"));
+      assertTrue(hasher.verify("user1", "secret", "secret"));
+      assertFalse(hasher.verify("user1", "secret2", "secret"));
+      assertEquals(0, hasher.getHashCount());
+    }
+  }
+
+  @Test
+  public void repeatedLoginsHitTheCache() throws Exception {
+    try (PasswordHasher hasher = new PasswordHasher(1000, 1, 0, 1000, 10, 60000)) {
+      String stored = hasher.hash("secret");
+      assertTrue(hasher.verify("user1", "secret", stored));
+      assertTrue(hasher.verify("user1", "secret", stored));
+      assertFalse(hasher.verify("user1", "wrong", stored));
+      assertEquals(1, hasher.getCacheHitCount());
+
+      // a user created again under the same name has a new hash
+      String recreated = hasher.hash("other");
+      assertFalse(hasher.verify("user1", "secret", recreated));
+      assertEquals(1, hasher.getCacheHitCount());
+    }
+  }
+
+  @Test
+  public void callersAreTurnedAwayWhenHashingIsBacklogged() throws Exception {
+    try (PasswordHasher hasher = new PasswordHasher(5_000_000, 1, 0, 10, 0, 60000)) {
+      Future<String> slow = hasher.hashAsync("secret");
+      try {
+        hasher.hash("secret");
+        fail();
+      } catch (RejectedExecutionException e) {
+        // expected
+      }
+      assertEquals(1, hasher.getRejectedCount());
+      slow.cancel(true);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that reservation IDs are unique and consecutive across sessions
+ */
+public class ReservationIdAllocatorTest {
+  /**
+   * Sequence row kept in memory
+   */
+  private static class Sequence implements ReservationIdAllocator.BlockSource {
+    long nextId = 1;
+
+    public synchronized long lease(int size) {
+      long start = nextId;
+      nextId += size;
+      return start;
+    }
+
+    public synchronized void reset() {
+      nextId = 1;
+    }
+  }
+
+  @Test
+  public void idsStartAtOneAndIncrement() throws Exception {
+    ReservationIdAllocator ids = new ReservationIdAllocator(new Sequence(), 3);
+    for (long expected = 1; expected <= 10; expected++)
+      assertEquals(expected, ids.next());
+    assertEquals(4, ids.getLeaseCount());
+  }
+
+  @Test
+  public void releasedIdIsReused() throws Exception {
+    ReservationIdAllocator ids = new ReservationIdAllocator(new Sequence(), 3);
+    assertEquals(1, ids.next());
+    long failed = ids.next();
+    ids.release(failed);
+    assertEquals(failed, ids.next());
+
+    // Across a block boundary as well
+    assertEquals(3, ids.next());
+    ids.release(ids.next());
+    assertEquals(4, ids.next());
+  }
+
+  @Test
+  public void idReleasedAfterALaterOneIsNotLost() throws Exception {
+    ReservationIdAllocator ids = new ReservationIdAllocator(new Sequence(), 100);
+    long refused = ids.next();
+    assertEquals(2, ids.next());
+    ids.release(refused);
+    assertEquals(refused, ids.next());
+    assertEquals(3, ids.next());
+  }
+
+  @Test
+  public void resetStartsAgainFromOne() throws Exception {
+    ReservationIdAllocator ids = new ReservationIdAllocator(new Sequence(), 100);
+    ids.next();
+    ids.next();
+    ids.reset();
+    assertEquals(1, ids.next());
+  }
+
+  @Test
+  public void concurrentSessionsGetDistinctConsecutiveIds() throws Exception {
+    ReservationIdAllocator ids = new ReservationIdAllocator(new Sequence(), 7);
+    int threads = 8;
+    int perThread = 5000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+    for (int t = 0; t < threads; t++) {
+      futures.add(executor.submit(() -> {
+        long[] taken = new long[perThread];
+        for (int i = 0; i < perThread; i++)
+          taken[i] = ids.next();
+        return taken;
+      }));
+    }
+
+    boolean[] seen = new boolean[threads * perThread + 1];
+    for (Future<long[]> f : futures) {
+      for (long id : f.get()) {
+        assertFalse("Duplicate ID " + id, seen[(int) id]);
+        seen[(int) id] = true;
+      }
+    }
+    executor.shutdown();
+    for (int id = 1; id < seen.length; id++)
+      assertTrue("Missing ID " + id, seen[id]);
+  }
+
+  @Test
+  public void allocatorsSharingASequenceNeverOverlap() throws Exception {
+    Sequence sequence = new Sequence();
+    ReservationIdAllocator node1 = new ReservationIdAllocator(sequence, 10);
+    ReservationIdAllocator node2 = new ReservationIdAllocator(sequence, 10);
+    Set<Long> taken = new HashSet<Long>();
+    for (int i = 0; i < 35; i++) {
+      assertTrue(taken.add(node1.next()));
+      assertTrue(taken.add(node2.next()));
+    }
+  }
+}
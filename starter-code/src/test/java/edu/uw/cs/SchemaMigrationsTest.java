@@ -0,0 +1,49 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks how migration scripts are read, split into batches and checksummed
+ */
+public class SchemaMigrationsTest {
+  @Test
+  public void bundledScriptsAreNumberedFromOne() throws Exception {
+    List<SchemaMigrations.Migration> migrations = SchemaMigrations.load();
+    assertFalse(migrations.isEmpty());
+    for (int i = 0; i < migrations.size(); i++) {
+      assertEquals(i + 1, migrations.get(i).getVersion());
+      assertFalse(migrations.get(i).getDescription().isEmpty());
+      assertFalse(migrations.get(i).batches.isEmpty());
+    }
+  }
+
+  @Test
+  public void connectionsTriggerKeepsAsManyAsTheRebuild() throws Exception {
+    String trigger = SchemaMigrations.load().get(1).batches.get(1);
+    assertTrue(trigger.contains("CREATE OR ALTER TRIGGER Flights_Connections"));
+    assertTrue(trigger.contains("WHERE position <= " + ConnectionsTable.PER_ROUTE + ";"));
+  }
+
+  @Test
+  public void scriptIsSplitOnGoLines() {
+    SchemaMigrations.Migration migration = new SchemaMigrations.Migration(7,
+        "-- Table and trigger\n\nCREATE TABLE T (x INT);\nGO\n-- comment only\ngo\nCREATE TRIGGER G ON T AFTER INSERT AS\nBEGIN\n  RETURN;\nEND\nGO\n");
+    assertEquals("Table and trigger", migration.getDescription());
+    assertEquals(2, migration.batches.size());
+    assertTrue(migration.batches.get(0).contains("CREATE TABLE T"));
+    assertTrue(migration.batches.get(1).startsWith("CREATE TRIGGER G"));
+  }
+
+  @Test
+  public void checksumIgnoresLineEndings() {
+    String script = "-- Index\nCREATE INDEX I ON T (x);\n";
+    String checksum = new SchemaMigrations.Migration(1, script).checksum;
+    assertEquals(64, checksum.length());
+    assertEquals(checksum, new SchemaMigrations.Migration(1, script.replace("\n", "\r\n")).checksum);
+    assertNotEquals(checksum, new SchemaMigrations.Migration(1, script.replace("(x)", "(y)")).checksum);
+  }
+}
@@ -0,0 +1,72 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks eviction, expiry and invalidation of cached search results
+ */
+public class SearchCacheTest {
+  private static long[] itineraries(long... packed) {
+    return packed;
+  }
+
+  @Test
+  public void hitReturnsRenderedResult() {
+    SearchCache cache = new SearchCache(10, 60000);
+    assertNull(cache.get("Seattle WA", "Boston MA", true, 1, 1));
+    cache.put("Seattle WA", "Boston MA", true, 1, 1, itineraries(Itinerary.direct(60454)), "rendered");
+
+    SearchCache.Entry entry = cache.get("seattle wa", "Boston MA", true, 1, 1);
+    assertNotNull(entry);
+    assertEquals("rendered", entry.rendered());
+    assertEquals(60454, Itinerary.firstFid(entry.itineraries()[0]));
+    assertNull(cache.get("Seattle WA", "Boston MA", false, 1, 1));
+    assertEquals(1, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+  }
+
+  @Test
+  public void leastRecentlyUsedEntryIsEvicted() {
+    SearchCache cache = new SearchCache(2, 60000);
+    cache.put("A", "B", true, 1, 1, itineraries(Itinerary.direct(1)), "1");
+    cache.put("A", "B", true, 2, 1, itineraries(Itinerary.direct(2)), "2");
+    assertNotNull(cache.get("A", "B", true, 1, 1));
+    cache.put("A", "B", true, 3, 1, itineraries(Itinerary.direct(3)), "3");
+
+    assertNotNull(cache.get("A", "B", true, 1, 1));
+    assertNull(cache.get("A", "B", true, 2, 1));
+    assertEquals(2, cache.size());
+    assertEquals(1, cache.getEvictionCount());
+  }
+
+  @Test
+  public void bookingAFlightInvalidatesEntriesContainingIt() {
+    SearchCache cache = new SearchCache(10, 60000);
+    cache.put("A", "B", false, 1, 2, itineraries(Itinerary.direct(1), Itinerary.oneHop(2, 3)), "x");
+    cache.put("A", "B", true, 1, 1, itineraries(Itinerary.direct(1)), "y");
+    cache.put("A", "C", true, 1, 1, itineraries(Itinerary.direct(4)), "z");
+
+    cache.invalidateFlight(3);
+    assertNull(cache.get("A", "B", false, 1, 2));
+    assertNotNull(cache.get("A", "B", true, 1, 1));
+
+    cache.invalidateFlight(1);
+    assertNull(cache.get("A", "B", true, 1, 1));
+    assertNotNull(cache.get("A", "C", true, 1, 1));
+    assertEquals(2, cache.getInvalidationCount());
+  }
+
+  @Test
+  public void expiredEntriesAreMisses() throws InterruptedException {
+    SearchCache cache = new SearchCache(10, 1);
+    cache.put("A", "B", true, 1, 1, itineraries(Itinerary.direct(1)), "1");
+    Thread.sleep(5);
+    assertNull(cache.get("A", "B", true, 1, 1));
+    assertEquals(1, cache.getExpirationCount());
+    assertEquals(0, cache.size());
+  }
+}
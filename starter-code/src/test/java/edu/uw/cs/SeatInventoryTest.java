@@ -0,0 +1,131 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks seat admission, write-behind and reconciliation against a fake
+ * flights table
+ */
+public class SeatInventoryTest {
+  // A flights table in a map: fid -> {capacity, num_booked}
+  static class FakeBacking implements SeatInventory.Backing {
+    final Map<Integer, int[]> rows = new ConcurrentHashMap<Integer, int[]>();
+    final AtomicInteger reconciles = new AtomicInteger();
+    final AtomicInteger loads = new AtomicInteger();
+    final List<int[]> batches = Collections.synchronizedList(new ArrayList<int[]>());
+    volatile boolean failWrites;
+
+    public void reconcile() {
+      reconciles.incrementAndGet();
+    }
+
+    public int remaining(int fid) {
+      loads.incrementAndGet();
+      int[] row = rows.get(fid);
+      return row == null ? 0 : row[0] - row[1];
+    }
+
+    public void addBooked(int[] fids, int[] counts) throws SQLException {
+      if (failWrites)
+        throw new SQLException("Connection reset");
+      batches.add(fids);
+      for (int i = 0; i < fids.length; i++)
+        rows.get(fids[i])[1] += counts[i];
+    }
+  }
+
+  @Test
+  public void flightsAreNeverOversold() throws Exception {
+    FakeBacking backing = new FakeBacking();
+    backing.rows.put(7, new int[] { 100, 40 });
+    SeatInventory seats = new SeatInventory(backing, 0);
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    AtomicInteger admitted = new AtomicInteger();
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (int t = 0; t < 8; t++) {
+      futures.add(executor.submit(() -> {
+        for (int i = 0; i < 50; i++) {
+          if (seats.take(Itinerary.direct(7))) {
+            admitted.incrementAndGet();
+            seats.booked(Itinerary.direct(7));
+          }
+        }
+        return null;
+      }));
+    }
+    for (Future<?> f : futures)
+      f.get();
+    executor.shutdown();
+
+    assertEquals(60, admitted.get());
+    assertEquals(1, backing.loads.get());
+    assertEquals(1, backing.reconciles.get());
+    assertEquals(340, seats.getRejectedCount());
+
+    seats.flush();
+    assertEquals(1, backing.batches.size());  // coalesced into one row update
+    assertEquals(100, backing.rows.get(7)[1]);
+    assertEquals(0, seats.getPendingCount());
+  }
+
+  @Test
+  public void oneHopTakesBothSeatsOrNeither() throws Exception {
+    FakeBacking backing = new FakeBacking();
+    backing.rows.put(1, new int[] { 5, 0 });
+    backing.rows.put(2, new int[] { 1, 1 });
+    SeatInventory seats = new SeatInventory(backing, 0);
+
+    assertFalse(seats.take(Itinerary.oneHop(1, 2)));
+    for (int i = 0; i < 5; i++)
+      assertTrue(seats.take(Itinerary.direct(1)));
+    assertFalse(seats.take(Itinerary.direct(1)));
+
+    seats.release(Itinerary.direct(1));
+    assertTrue(seats.take(Itinerary.direct(1)));
+  }
+
+  @Test
+  public void failedWritesAreRetried() throws Exception {
+    FakeBacking backing = new FakeBacking();
+    backing.rows.put(3, new int[] { 10, 0 });
+    SeatInventory seats = new SeatInventory(backing, 0);
+    assertTrue(seats.take(Itinerary.direct(3)));
+    seats.booked(Itinerary.direct(3));
+
+    backing.failWrites = true;
+    try {
+      seats.flush();
+      fail("Expected the write to fail");
+    } catch (SQLException e) {
+      // queued again
+    }
+    assertEquals(1, seats.getPendingCount());
+
+    backing.failWrites = false;
+    seats.close();
+    assertEquals(1, backing.rows.get(3)[1]);
+  }
+
+  @Test
+  public void clearForgetsCountsAndQueuedSeats() throws Exception {
+    FakeBacking backing = new FakeBacking();
+    backing.rows.put(4, new int[] { 1, 0 });
+    SeatInventory seats = new SeatInventory(backing, 0);
+    assertTrue(seats.take(Itinerary.direct(4)));
+    seats.booked(Itinerary.direct(4));
+
+    seats.clear();
+    seats.flush();
+    assertTrue(backing.batches.isEmpty());
+    assertTrue(seats.take(Itinerary.direct(4)));  // read again from the table
+    assertEquals(2, backing.loads.get());
+  }
+}
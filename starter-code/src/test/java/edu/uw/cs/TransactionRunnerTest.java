@@ -0,0 +1,82 @@
+package edu.uw.cs;
+
+import org.junit.*;
+
+import java.sql.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks which failures are retried and when the runner gives up
+ */
+public class TransactionRunnerTest {
+  private static SQLException deadlock() {
+    return new SQLException("Transaction was deadlocked", "40001", TransactionRunner.DEADLOCK_VICTIM);
+  }
+
+  @Test
+  public void deadlockVictimIsRetried() throws SQLException {
+    TransactionRunner runner = new TransactionRunner(null, 5, 1, 2, 5000);
+    int[] calls = new int[1];
+    String result = runner.retrying(() -> {
+      if (++calls[0] < 3)
+        throw deadlock();
+      return "done";
+    });
+
+    assertEquals("done", result);
+    assertEquals(3, runner.getAttemptCount());
+    assertEquals(2, runner.getRetryCount());
+    assertEquals(0, runner.getGiveUpCount());
+  }
+
+  @Test
+  public void otherFailuresAreNotRetried() {
+    TransactionRunner runner = new TransactionRunner(null, 5, 1, 2, 5000);
+    try {
+      runner.retrying(() -> {
+        throw new SQLException("Violation of PRIMARY KEY constraint", "23000", 2627);
+      });
+      fail();
+    } catch (SQLException e) {
+      assertEquals(2627, e.getErrorCode());
+    }
+    assertEquals(1, runner.getAttemptCount());
+    assertEquals(0, runner.getRetryCount());
+  }
+
+  @Test
+  public void givesUpAfterMaxAttempts() {
+    TransactionRunner runner = new TransactionRunner(null, 3, 1, 2, 5000);
+    try {
+      runner.retrying(() -> {
+        throw deadlock();
+      });
+      fail();
+    } catch (SQLException e) {
+      assertTrue(TransactionRunner.isRetryable(e));
+    }
+    assertEquals(3, runner.getAttemptCount());
+    assertEquals(2, runner.getRetryCount());
+    assertEquals(1, runner.getGiveUpCount());
+  }
+
+  @Test
+  public void chainedDeadlockIsRetryable() {
+    SQLException e = new SQLException("Batch failed");
+    e.setNextException(new SQLException("Deadlock", null, TransactionRunner.DEADLOCK_VICTIM));
+    assertTrue(TransactionRunner.isRetryable(e));
+    assertTrue(TransactionRunner.isRetryable(new SQLTransactionRollbackException()));
+    assertFalse(TransactionRunner.isRetryable(new SQLTimeoutException()));
+  }
+
+  @Test
+  public void backoffStaysUnderCeiling() {
+    TransactionRunner runner = new TransactionRunner(null, 50, 10, 100, 5000);
+    for (int attempt = 1; attempt < 50; attempt++) {
+      long backoff = runner.backoffMillis(attempt);
+      assertTrue(backoff >= 0);
+      assertTrue(backoff <= Math.min(100, 10L << (attempt - 1)));
+    }
+  }
+}
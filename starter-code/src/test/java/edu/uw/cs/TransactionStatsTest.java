@@ -0,0 +1,71 @@
+package edu.uw.cs;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.lang.management.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import javax.management.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the per-transaction counters, snapshots and the JMX view
+ */
+public class TransactionStatsTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void failuresAreRecognised() {
+    assertTrue(TransactionStats.isFailure("Booking failed\n"));
+    assertTrue(TransactionStats.isFailure("Cannot pay, not logged in\n"));
+    assertFalse(TransactionStats.isFailure("Booked flight(s), reservation ID: 1\n"));
+    assertFalse(TransactionStats.isFailure("No reservations found\n"));
+    assertFalse(TransactionStats.isFailure(""));
+  }
+
+  @Test
+  public void snapshotsEndTheWindow() throws Exception {
+    TransactionStats stats = new TransactionStats();
+    TransactionStats.Metric book = stats.metric("transaction_book");
+    assertSame(book, stats.metric("transaction_book"));
+    book.record(System.nanoTime() - 2000000, true);
+    book.record(System.nanoTime(), false);
+
+    Map<String, TransactionStats.Window> ended = stats.snapshotAndReset();
+    assertEquals(1, ended.get("transaction_book").getSuccessCount());
+    assertEquals(1, ended.get("transaction_book").getFailureCount());
+    assertTrue(ended.get("transaction_book").getLatencies().getMaxMicros() >= 2000);
+    assertEquals(0, book.getCount());
+    assertEquals(1, book.getTotalSuccessCount());
+
+    Path file = folder.getRoot().toPath().resolve("stats.csv");
+    TransactionStats.writeSnapshot(file, 1000, ended);
+    TransactionStats.writeSnapshot(file, 2000, stats.snapshotAndReset());
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    assertEquals(3, lines.size());
+    assertTrue(lines.get(0).startsWith("time,name,"));
+    assertTrue(lines.get(1), lines.get(1).startsWith("1000,transaction_book,"));
+    assertTrue(lines.get(2), lines.get(2).startsWith("2000,transaction_book,"));
+  }
+
+  @Test
+  public void commandsAreVisibleThroughJmx() throws Exception {
+    Query q = new Query(FlightTransactions.offline());
+    FlightService.execute(q, "book 0");
+    FlightService.execute(q, "book");
+    assertTrue(FlightService.execute(q, "stats").contains("transaction_book"));
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName command = new ObjectName("edu.uw.cs:type=TransactionStats,name=\"command_book\"");
+    ObjectName transaction = new ObjectName("edu.uw.cs:type=TransactionStats,name=\"transaction_book\"");
+    assertTrue((Long) server.getAttribute(command, "FailureCount") >= 1);
+    assertTrue((Long) server.getAttribute(transaction, "FailureCount") >= 1);
+
+    server.invoke(command, "reset", null, null);
+    assertEquals(0L, server.getAttribute(command, "Count"));
+  }
+}